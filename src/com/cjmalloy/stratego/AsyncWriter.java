@@ -0,0 +1,268 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+//
+// AsyncWriter is a Writer that does the actual writing
+// on a thread of its own.
+//
+// Writes are appended to a buffer in memory.  When the buffer
+// is full or flush() is called, the buffer is handed to the
+// writer thread, so the caller never waits on the disk unless
+// the writer thread falls QUEUE buffers behind.
+// Buffers are recycled, so a long debug run does not
+// produce garbage for every line.
+//
+// flush() only hands off the buffer; the writer thread flushes
+// the underlying writer when it runs out of work.  close()
+// waits until everything has been written.
+//
+// A writer with a flush interval also hands off what has been
+// written after the interval, so nothing sits in the buffer for
+// long without the caller flushing.  A writer that drops never
+// waits: when the writer thread is QUEUE buffers behind, the
+// buffer is thrown away and counted (see getDropped()), so a
+// slow disk loses output instead of stalling the callers.
+//
+public class AsyncWriter extends Writer
+{
+	static public final int BATCH = 1 << 16;	// chars per buffer
+	static private final int QUEUE = 16;		// buffers in flight
+	static private final StringBuilder EOF = new StringBuilder();
+
+	private final Writer out;
+	private final ArrayBlockingQueue<StringBuilder> queue
+		= new ArrayBlockingQueue<StringBuilder>(QUEUE);
+	private final ArrayBlockingQueue<StringBuilder> free
+		= new ArrayBlockingQueue<StringBuilder>(QUEUE);
+	private StringBuilder buf = new StringBuilder(BATCH);
+	private final Thread thread;
+	private final long interval;	// ms, 0 to wait for flush()
+	private final boolean drop;
+	private volatile IOException error = null;
+	private boolean closed = false;
+	private long written = 0;	// chars handed off
+	private long dropped = 0;	// chars thrown away
+	private long overflows = 0;	// buffers thrown away
+
+	public AsyncWriter(Writer w, String name)
+	{
+		this(w, name, 0, false);
+	}
+
+	// interval: ms before written output is handed off
+	// drop: throw output away instead of waiting for the writer thread
+	public AsyncWriter(Writer w, String name, long interval, boolean drop)
+	{
+		out = w;
+		this.interval = interval;
+		this.drop = drop;
+		thread = new Thread(name) {
+			public void run()
+			{
+				drain();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+
+		// write whatever is left when the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run()
+			{
+				try {
+					close();
+				} catch (IOException e) {
+				}
+			}
+		});
+	}
+
+	private void drain()
+	{
+		try {
+			for (;;) {
+				StringBuilder b;
+				if (interval == 0)
+					b = queue.take();
+				else if ((b = queue.poll(interval, TimeUnit.MILLISECONDS)) == null) {
+					synchronized (lock) {
+						if (!closed)
+							handoff(false);
+					}
+					continue;
+				}
+				if (b == EOF)
+					break;
+				out.append(b);
+				b.setLength(0);
+				free.offer(b);
+				if (queue.isEmpty())
+					out.flush();
+			}
+			out.flush();
+		} catch (InterruptedException e) {
+		} catch (IOException e) {
+			error = e;
+			queue.clear();
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void check() throws IOException
+	{
+		if (error != null)
+			throw error;
+		if (closed)
+			throw new IOException("closed");
+	}
+
+	// Hands the current buffer to the writer thread.  If wait
+	// is false and the queue is full, the buffer is dropped
+	// (or kept, if the writer doesn't drop).
+	private void handoff(boolean wait) throws IOException
+	{
+		if (buf.length() == 0)
+			return;
+		if (wait)
+			put(buf);
+		else if (!queue.offer(buf)) {
+			if (!drop)
+				return;
+			dropped += buf.length();
+			overflows++;
+			buf.setLength(0);
+			return;
+		}
+		written += buf.length();
+		buf = free.poll();
+		if (buf == null)
+			buf = new StringBuilder(BATCH);
+	}
+
+	private void handoff() throws IOException
+	{
+		handoff(!drop);
+	}
+
+	// chars given to the writer thread
+	public long getWritten()
+	{
+		synchronized (lock) {
+			return written;
+		}
+	}
+
+	// chars thrown away because the writer thread was behind
+	public long getDropped()
+	{
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	// number of times output was thrown away
+	public long getOverflows()
+	{
+		synchronized (lock) {
+			return overflows;
+		}
+	}
+
+	private void put(StringBuilder b) throws IOException
+	{
+		try {
+			queue.put(b);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		synchronized (lock) {
+			check();
+			buf.append(cbuf, off, len);
+			if (buf.length() >= BATCH)
+				handoff();
+		}
+	}
+
+	@Override
+	public void write(String s, int off, int len) throws IOException
+	{
+		synchronized (lock) {
+			check();
+			buf.append(s, off, off + len);
+			if (buf.length() >= BATCH)
+				handoff();
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException
+	{
+		synchronized (lock) {
+			check();
+			buf.append((char)c);
+			if (buf.length() >= BATCH)
+				handoff();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		synchronized (lock) {
+			check();
+			handoff();
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (lock) {
+			if (closed)
+				return;
+			if (error == null) {
+				handoff(true);
+				put(EOF);
+			}
+			closed = true;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (error != null)
+			throw error;
+	}
+}
@@ -33,10 +33,17 @@ import com.cjmalloy.stratego.BoardHistory;
 //
 public class Board
 {
-    public ArrayList<UndoMove> undoList = new ArrayList<UndoMove>();
+    public MoveHistory undoList;
 	public static final int RED  = 0;
 	public static final int BLUE = 1;
-	public static int bturn = RED;
+	public int bturn = RED;
+
+	// The colors of the AI (top) and of the opponent (bottom),
+	// taken from Settings when the game is set up.  A search
+	// reads them from its own board, so that games played with
+	// different colors can be searched at the same time.
+	public int topColor = Settings.topColor;
+	public int bottomColor = Settings.bottomColor;
 	public static final Spot IN_TRAY = new Spot(-1, -1);
 
 	// number of moves unknown piece must make before
@@ -57,7 +64,7 @@ public class Board
 	protected static final int[] dir = { -11, -1,  1, 11 };
     protected static long[][][][][] boardHash = new long[15][8][2][82][121];
 	protected static long[] depthHash = new long[40];	// MAX_DEPTH + QSMAX
-	protected static BoardHistory boardHistory = new BoardHistory();
+	protected BoardHistory boardHistory;
     protected int[][] knownRank = new int[2][12];   // discovered ranks
     protected int[][] allRank = new int[2][12];    // ranks in trays
 	protected int[][] suspectedRank = new int[2][12];	// guessed ranks
@@ -82,7 +89,8 @@ public class Board
 	protected boolean[] isBombedFlag = new boolean[2];
 	protected int unknownBombs[] = new int[2];
     protected Random rnd = new Random();
-    protected static int forayLane[] = { 0, 0 };
+    protected int forayLane[] = { 0, 0 };
+    protected Piece[] lastKill = new Piece[2];	// highlighted (see Piece.isHighLight())
     protected boolean[][] foraySquare =  new boolean[2][121];
     public ReentrantLock lock = new ReentrantLock();  // graphics lock
 
@@ -134,49 +142,55 @@ public class Board
 	
 	public Board()
 	{
+		undoList = new MoveHistory(MoveHistory.GAME_CAPACITY);
+
+		// the ids index boardHash, so every board numbers its
+		// own pieces (1 is Grid.water)
+		int id = 2;
+
 		//create pieces
-		red.add(new Piece(RED, Rank.FLAG));
-		red.add(new Piece(RED, Rank.SPY));
-		red.add(new Piece(RED, Rank.ONE));
-		red.add(new Piece(RED, Rank.TWO));
+		red.add(new Piece(id++, RED, Rank.FLAG));
+		red.add(new Piece(id++, RED, Rank.SPY));
+		red.add(new Piece(id++, RED, Rank.ONE));
+		red.add(new Piece(id++, RED, Rank.TWO));
 		for (int j=0;j<2;j++)
-			red.add(new Piece(RED, Rank.THREE));
+			red.add(new Piece(id++, RED, Rank.THREE));
 		for (int j=0;j<3;j++)
-			red.add(new Piece(RED, Rank.FOUR));
+			red.add(new Piece(id++, RED, Rank.FOUR));
 		for (int j=0;j<4;j++)
-			red.add(new Piece(RED, Rank.FIVE));
+			red.add(new Piece(id++, RED, Rank.FIVE));
 		for (int j=0;j<4;j++)
-			red.add(new Piece(RED, Rank.SIX));
+			red.add(new Piece(id++, RED, Rank.SIX));
 		for (int j=0;j<4;j++)
-			red.add(new Piece(RED, Rank.SEVEN));
+			red.add(new Piece(id++, RED, Rank.SEVEN));
 		for (int j=0;j<5;j++)
-			red.add(new Piece(RED, Rank.EIGHT));
+			red.add(new Piece(id++, RED, Rank.EIGHT));
 		for (int j=0;j<8;j++)
-			red.add(new Piece(RED, Rank.NINE));
+			red.add(new Piece(id++, RED, Rank.NINE));
 		for (int j=0;j<6;j++)
-			red.add(new Piece(RED, Rank.BOMB));
+			red.add(new Piece(id++, RED, Rank.BOMB));
 
 		//create pieces
-		blue.add(new Piece(BLUE, Rank.FLAG));
-		blue.add(new Piece(BLUE, Rank.SPY));
-		blue.add(new Piece(BLUE, Rank.ONE));
-		blue.add(new Piece(BLUE, Rank.TWO));
+		blue.add(new Piece(id++, BLUE, Rank.FLAG));
+		blue.add(new Piece(id++, BLUE, Rank.SPY));
+		blue.add(new Piece(id++, BLUE, Rank.ONE));
+		blue.add(new Piece(id++, BLUE, Rank.TWO));
 		for (int j=0;j<2;j++)
-			blue.add(new Piece(BLUE, Rank.THREE));
+			blue.add(new Piece(id++, BLUE, Rank.THREE));
 		for (int j=0;j<3;j++)
-			blue.add(new Piece(BLUE, Rank.FOUR));
+			blue.add(new Piece(id++, BLUE, Rank.FOUR));
 		for (int j=0;j<4;j++)
-			blue.add(new Piece(BLUE, Rank.FIVE));
+			blue.add(new Piece(id++, BLUE, Rank.FIVE));
 		for (int j=0;j<4;j++)
-			blue.add(new Piece(BLUE, Rank.SIX));
+			blue.add(new Piece(id++, BLUE, Rank.SIX));
 		for (int j=0;j<4;j++)
-			blue.add(new Piece(BLUE, Rank.SEVEN));
+			blue.add(new Piece(id++, BLUE, Rank.SEVEN));
 		for (int j=0;j<5;j++)
-			blue.add(new Piece(BLUE, Rank.EIGHT));
+			blue.add(new Piece(id++, BLUE, Rank.EIGHT));
 		for (int j=0;j<8;j++)
-			blue.add(new Piece(BLUE, Rank.NINE));
+			blue.add(new Piece(id++, BLUE, Rank.NINE));
 		for (int j=0;j<6;j++)
-			blue.add(new Piece(BLUE, Rank.BOMB));
+			blue.add(new Piece(id++, BLUE, Rank.BOMB));
 
 		tray.addAll(red);
 		tray.addAll(blue);
@@ -190,16 +204,53 @@ public class Board
 		grid = new Grid(b.grid);
 				
 		tray.addAll(b.tray);
-		undoList.addAll(b.undoList);
+		undoList = new MoveHistory(b.undoList, MoveHistory.SEARCH_CAPACITY);
 		setup = b.setup.clone();
 		blufferRisk = b.blufferRisk;
 		guessedRankCorrect = b.guessedRankCorrect;
 		guessedRankWrong = b.guessedRankWrong;
+
+		// The search changes the hash and the turn of its copy
+		// of the board, but repetitions are checked against
+		// the positions of the game.
+		bturn = b.bturn;
+		topColor = b.topColor;
+		bottomColor = b.bottomColor;
+		boardHistory = new BoardHistory(b.boardHistory);
+		forayLane = b.forayLane.clone();
+	}
+
+	// row y counted from the back row of color
+	public int yside(int color, int y)
+	{
+		if (color == topColor)
+			return y;
+		else
+			return 9-y;
+	}
+
+	// index i mirrored to the side of color
+	public int side(int color, int i)
+	{
+		if (color == topColor)
+			return i;
+		else
+			return Grid.getIndex(Grid.getX(i), 9-Grid.getY(i));
+	}
+
+	public boolean isRetreat(int color, int m)
+	{
+		int from = Move.unpackFrom(m);
+		int to = Move.unpackTo(m);
+
+		int d = to - from;
+		return (d == 11 && color == bottomColor)
+			|| (d == -11 && color == topColor);
 	}
 
 	public boolean add(Piece p, Spot s)
 	{
-		if (p.getColor() == Settings.topColor)
+		if (p.getColor() == topColor)
 		{
 			if(s.getY() > 3)
 				return false;
@@ -212,7 +263,7 @@ public class Board
 			
 		if (getPiece(s) == null)
 		{
-			if (p.getColor() == Settings.bottomColor)
+			if (p.getColor() == bottomColor)
 			 	p.setRank(Rank.UNKNOWN);
 			setPiece(p, s);
 			tray.remove(p);
@@ -344,7 +395,11 @@ public class Board
 			setup[i] = null;
 
 		bturn = 0;
+		topColor = Settings.topColor;
+		bottomColor = Settings.bottomColor;
 		boardHistory.clear();
+		lastKill[RED] = null;
+		lastKill[BLUE] = null;
 	}
 	
 	public Piece getPiece(int x, int y)
@@ -476,15 +531,12 @@ public class Board
 
 	public UndoMove getLastMove()
 	{
-            return undoList.get(undoList.size()-1);
+            return undoList.getLast(1);
 	}
 
 	public UndoMove getLastMove(int i)
 	{
-            int size = undoList.size();
-            if (size < i)
-                    return UndoMove.NullMove;
-            return undoList.get(size-i);
+            return undoList.getLast(i);
 	}
 
     boolean isThreat(Piece fp, Piece tp)
@@ -2051,9 +2103,9 @@ public class Board
 
 		if (r == Rank.UNKNOWN.ordinal()) {
 			for (int e: expendableRank)
-				if (unknownRankAtLarge(Settings.bottomColor, e) != 0)
+				if (unknownRankAtLarge(bottomColor, e) != 0)
 					return Rank.NIL;
-			if (unknownRankAtLarge(Settings.bottomColor, 5) == 0)
+			if (unknownRankAtLarge(bottomColor, 5) == 0)
 				return Rank.NIL;
 
 			r = 6; 	// chaser is probably a Five
@@ -2073,7 +2125,7 @@ public class Board
 
 		if (r <= 7) {
 			for (int i = r; i > 0; i--)
-				if (unknownRankAtLarge(Settings.bottomColor, i) != 0) {
+				if (unknownRankAtLarge(bottomColor, i) != 0) {
 					newRank = Rank.toRank(i);
 					break;
 				}
@@ -2183,7 +2235,7 @@ public class Board
 
     private boolean suspectedBomb(Piece p)
     {
-        assert p.getColor() == Settings.bottomColor;
+        assert p.getColor() == bottomColor;
         if (unknownNotSuspectedRankAtLarge(p.getColor(), Rank.BOMB) == 0)
             return false;
 
@@ -2256,7 +2308,7 @@ public class Board
 		// reset suspected ranks to unknown
 		// because these are recalculated each time
 
-			if (p.getColor() == Settings.bottomColor
+			if (p.getColor() == bottomColor
 				&& p.isSuspectedRank()) {
 				p.setKnown(false);
 				p.setRank(Rank.UNKNOWN);
@@ -2318,7 +2370,7 @@ public class Board
             else
                 p.clear(Piece.SAFE);
 
-            if (p.getColor() != Settings.bottomColor)
+            if (p.getColor() != bottomColor)
                 continue;
 
 			if (p.hasMoved()
@@ -2329,7 +2381,7 @@ public class Board
                 continue;
 			}
 
-			p.setMaybeEight(unknownRankAtLarge(Settings.bottomColor, Rank.EIGHT) != 0);
+			p.setMaybeEight(unknownRankAtLarge(bottomColor, Rank.EIGHT) != 0);
 
         // If the opponent is a bluffer, then the AI does not assign any suspected ranks
         // Otherwise, a bluffer could use any piece to thwart an AI attack.
@@ -2407,7 +2459,7 @@ public class Board
 
 				Rank rank = p.getRank();
 
-				if (c == Settings.topColor)
+				if (c == topColor)
 					assert (rank == Rank.FLAG || rank == Rank.BOMB) : "remaining ai piece " + rank + " should be bomb or flag.  UnknownBombs = " + unknownBombs[c];
 				else if (unknownBombs[c] != 0) {
                     p.setSuspectedRank(Rank.BOMB);
@@ -2490,8 +2542,8 @@ public class Board
         // to determine how many bombs to suspect
 
 		possibleFlag();
-        if (unknownNotSuspectedRankAtLarge(Settings.bottomColor, Rank.BOMB) > 0)
-            possibleBomb(Settings.bottomColor);
+        if (unknownNotSuspectedRankAtLarge(bottomColor, Rank.BOMB) > 0)
+            possibleBomb(bottomColor);
 
 	}
 
@@ -2588,7 +2640,7 @@ public class Board
 	protected boolean usualFlagLocation(int color, int i)
 	{
 		int x = Grid.getX(i);
-		if (Grid.getY(i) != Grid.yside(color, 0))
+		if (Grid.getY(i) != yside(color, 0))
 			return false;
 		return (x == 0
             || x == 2
@@ -2600,7 +2652,7 @@ public class Board
 
     protected int bombedLane(int color, int lane)
     {
-        int i = Grid.getIndex(lane*4, Grid.yside(color, 3));
+        int i = Grid.getIndex(lane*4, yside(color, 3));
         Piece p1 = getPiece(i);
         Piece p2 = getPiece(i+1);
         return (
@@ -2656,7 +2708,7 @@ public class Board
                         && (p.getRank() == Rank.BOMB
                             || p.getRank() == Rank.SPY
                             || p.getRank() == Rank.FLAG))
-                        power-= Grid.yside(color,y);
+                        power-= yside(color,y);
 
         // Some intermediate pieces are needed
 
@@ -2741,9 +2793,9 @@ public class Board
                 continue;
             if (isForayAttack(c, i)
                 || (goal[forayLane[c]][Grid.getX(i)]
-                    && (Grid.yside(c, 9) == Grid.getY(i)
-                        || (Grid.yside(c, 8) == Grid.getY(i)
-                            && getRank(getPiece(Grid.getX(i), Grid.yside(c, 9))) == Rank.BOMB))))
+                    && (yside(c, 9) == Grid.getY(i)
+                        || (yside(c, 8) == Grid.getY(i)
+                            && getRank(getPiece(Grid.getX(i), yside(c, 9))) == Rank.BOMB))))
                 foraySquare[c][i] = true;
             else
                 foraySquare[c][i] = false;
@@ -2785,7 +2837,7 @@ public class Board
             for ( int[] bp : bombPattern ) {
                 int[] b = new int[6];
                 for ( int i = 0; bp[i] != 0; i++)
-                    b[i] = Grid.side(c, bp[i]);
+                    b[i] = side(c, bp[i]);
                 flagp = getPiece(b[0]);
                 if (flagp != null
                     && (!flagp.isKnown()
@@ -2863,7 +2915,7 @@ public class Board
 		// mark it as containing the flag.
 
 			int bestGuess = getBestGuess(c, maybe, maybe_count[c]);
-			if (c == Settings.bottomColor) {
+			if (c == bottomColor) {
 				flag[c] = maybe[bestGuess][0];
 				getPiece(flag[c]).setSuspectedRank(Rank.FLAG);
 				grid.clearMovable(getPiece(flag[c]));
@@ -2884,7 +2936,7 @@ public class Board
 
 			markBombedFlag(maybe, maybe_count[c], open_count[c], bestGuess);
 
-		} else if (c == Settings.bottomColor) {
+		} else if (c == bottomColor) {
 
 		// Player color c did not surround his flags with
 		// adjacent bombs.  That does not mean the player did
@@ -2947,9 +2999,9 @@ public class Board
 
 			flagp = null;
 			for (int x=1; x <= 8; x++) {
-				int i = Grid.getIndex(x, Grid.yside(c,1));
+				int i = Grid.getIndex(x, yside(c,1));
 				if (getSetupRank(i) == Rank.BOMB) {
-					int flagi = Grid.getIndex(x, Grid.yside(c,0));
+					int flagi = Grid.getIndex(x, yside(c,0));
 					Piece flag = getPiece(flagi);
 					if (flag != null
 						&& !flag.isKnown()
@@ -2998,7 +3050,7 @@ public class Board
 			for (int y=0; y <= 3 && flagp == null; y++)  {
 			int flagprot = 0;
 			for (int x=0; x <= 9; x++) {
-				int i = Grid.getIndex(x, Grid.yside(c,y));
+				int i = Grid.getIndex(x, yside(c,y));
 				Piece p = getPiece(i); 
 				if (p != null
 					&& !p.isKnown()
@@ -3064,8 +3116,8 @@ public class Board
 
         // ensure isBombedFlag is set correctly for AI
 
-            if (color == Settings.topColor
-                && maybe[i][0] == flag[Settings.topColor])
+            if (color == topColor
+                && maybe[i][0] == flag[topColor])
                 return i;
 
 		// compute the number of bombs in the structure
@@ -3080,7 +3132,7 @@ public class Board
 
 				if (p == null
                     || p.hasMoved()) {
-                    if (Grid.yside(color, Grid.getY(maybe[i][0])) == 0)
+                    if (yside(color, Grid.getY(maybe[i][0])) == 0)
                         return i;
                     continue;
                 }
@@ -3177,8 +3229,8 @@ public class Board
     {
         int color = p.getColor();
         int index = p.getIndex();
-        int dir = (color == Settings.topColor ? 11 : -11);
-        if (Grid.getY(index) < Grid.yside(color, 4) && isPieceLocked(p))
+        int dir = (color == topColor ? 11 : -11);
+        if (Grid.getY(index) < yside(color, 4) && isPieceLocked(p))
             return getFlagBomb(getPiece(index + dir));
         return p;
     }
@@ -3212,7 +3264,7 @@ public class Board
 				continue;
 			}
 
-			if (color == Settings.bottomColor) {
+			if (color == bottomColor) {
 
 		// Note: the AI marks the pieces surrounding
 		// the suspected flag as suspected bombs.  The AI
@@ -3268,7 +3320,7 @@ public class Board
 		// If the AI setup is a ruse where the flag is outside
 		// of the last potential bomb structure, clear isBombedFlag.
 
-        if (color == Settings.topColor
+        if (color == topColor
             && flagi != flag[color])
             isBombedFlag[color] = false;
 	}
@@ -3310,6 +3362,13 @@ public class Board
 	public void moveToTray(Piece p)
 	{
 		p.kill();
+		int c = p.getColor();
+		if (c >= 0) {
+			if (lastKill[c] != null)
+				lastKill[c].setLastKill(false);
+			lastKill[c] = p;
+			p.setLastKill(true);
+		}
 
 		remove(p);
 	}
@@ -3361,11 +3420,11 @@ public class Board
 		// AI always abides by Two Squares rule
 		// even if box is not checked (AI plays nice).
 		if (Settings.twoSquares
-			|| getPiece(Move.unpackFrom(m)).getColor() == Settings.topColor) {
-			UndoMove prev = undoList.get(size-2);
+			|| getPiece(Move.unpackFrom(m)).getColor() == topColor) {
+			UndoMove prev = undoList.getLast(2);
 			if (prev == UndoMove.NullMove)
 				return false;
-			UndoMove prevprev = undoList.get(size-6);
+			UndoMove prevprev = undoList.getLast(6);
 			if (prevprev == UndoMove.NullMove)
 				return false;
 			return prevprev.equals(prev)
@@ -3386,11 +3445,10 @@ public class Board
 	// return TRUE if cyclic move
 	public boolean isMoreSquares()
 	{
-		int size = undoList.size();
-		if (size < 2)
+		if (undoList.size() < 2)
 			return false;
-		UndoMove aimove = undoList.get(size-1);
-		UndoMove oppmove = undoList.get(size-2);
+		UndoMove aimove = undoList.getLast(1);
+		UndoMove oppmove = undoList.getLast(2);
 
 		for (int d : dir) {
 			int i = oppmove.getTo() + d;
@@ -3968,14 +4026,14 @@ public class Board
 
 	public void undoLastMove()
 	{
-		int size = undoList.size();
-		if (size < 2)
+		// only the moves retained in the history can be undone
+		if (undoList.retained() < 2)
 			return;
 
 		boardHistory.remove();
 
-		for (int j = 0; j < 2; j++, size--) {
-			UndoMove undo = undoList.get(size-1);
+		for (int j = 0; j < 2; j++) {
+			UndoMove undo = undoList.removeLast();
 			Piece fp = undo.getPiece();
 			Piece tp = getPiece(undo.getTo());
 			fp.copy(undo.fpcopy);
@@ -3991,7 +4049,6 @@ public class Board
 				else
 					tray.remove(tray.indexOf(undo.tp));
 			}
-			undoList.remove(size - 1);
 		}
 		Collections.sort(tray);
 	}
@@ -4135,8 +4192,8 @@ public class Board
 
     public boolean isNearOpponentFlag(int to)
     {
-        return flag[Settings.bottomColor] != 0 &&
-            Grid.steps(to, flag[Settings.bottomColor]) <= 4;
+        return flag[bottomColor] != 0 &&
+            Grid.steps(to, flag[bottomColor]) <= 4;
     }
 
     public boolean isNearOpponentFlag(Piece p)
@@ -4184,7 +4241,7 @@ public class Board
 	{
         boolean known = p.isKnown();
 
-        if (p.getColor() == Settings.bottomColor
+        if (p.getColor() == bottomColor
                 && !p.isKnown()) {
 
                 if (p.getRank() == Rank.SPY)
@@ -4229,7 +4286,7 @@ public class Board
         // TBD: if all adjacent pieces are known, then where?
 
         Rank revealRank = reveal.getRank();
-        if (reveal.getColor() == Settings.bottomColor)
+        if (reveal.getColor() == bottomColor)
         switch (revealRank) {
             case ONE :
             case TWO :
@@ -4242,7 +4299,7 @@ public class Board
                         continue;
                     Piece unk = getSetupPiece(j);
                     if (unk == null
-                        || unk.getColor() != Settings.bottomColor
+                        || unk.getColor() != bottomColor
                         || unk.isKnown())
                         continue;
                     if (revealRank == Rank.ONE)
@@ -4263,7 +4320,7 @@ public class Board
                         continue;
                     Piece p = getSetupPiece(i);
                     if (p != null
-                        && p.getColor() == Settings.bottomColor)
+                        && p.getColor() == bottomColor)
                         p.clear(Piece.LIKELY_SPY);
                 }
                 break;
@@ -4275,7 +4332,7 @@ public class Board
 
         else {
             boolean surprise = (revealRank.ordinal() <= 3
-                && weakRanks(Settings.bottomColor) > 4);
+                && weakRanks(bottomColor) > 4);
         switch (revealRank) {
             case ONE :
             case TWO :
@@ -4289,7 +4346,7 @@ public class Board
                         continue;
                     Piece p = getPiece(j);
                     if (p == null
-                        || p.getColor() != Settings.bottomColor
+                        || p.getColor() != bottomColor
                         || p.isKnown())
                         continue;
                     p.setActingRankFlee(revealRank);
@@ -4300,7 +4357,7 @@ public class Board
                             continue;
                         p = getPiece(k);
                         if (p == null
-                            || p.getColor() != Settings.bottomColor
+                            || p.getColor() != bottomColor
                             || p.isKnown()
                             || !p.is(Piece.WEAK))
                             continue;
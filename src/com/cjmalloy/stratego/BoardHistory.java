@@ -27,9 +27,19 @@ public class BoardHistory
 	public long hash1;
 	public long hash2;
 	protected HashSet<Long>  hashset = new HashSet<Long>();
-	public void clear() { hashset.clear(); hash = 0; }
+
+	// The positions of the game, for the history of a search board.
+	// The set is shared with the game board, not copied, so starting
+	// a search does not depend on the length of the game; the game
+	// does not move while the AI searches.  Positions added during
+	// the search go into hashset.
+	protected HashSet<Long>  game = null;
+
+	public BoardHistory() {}
+	public BoardHistory(BoardHistory h) { hash = h.hash; hash1 = h.hash1; hash2 = h.hash2; game = (h.game != null ? h.game : h.hashset); }
+	public void clear() { hashset.clear(); game = null; hash = 0; }
 	public void add() { hash2=hash1; hash1=hash; hashset.add(hash); }
-	public boolean get() { return hashset.contains(hash); }
+	public boolean get() { return hashset.contains(hash) || (game != null && game.contains(hash)); }
 	public void remove() { hashset.remove(hash); }
 }
 
@@ -54,19 +54,8 @@ public abstract class Engine
 
 			Piece fp = m.getPiece();
 			Piece tp = board.getPiece(m.getTo());
-			if (tp != null && fp.getColor() == Settings.topColor && !fp.isShown()) {
-				boolean shown = fp.isShown();
-				fp.setShown(true);
-				update();
-				try {
-					Thread.sleep(1000);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
-				fp.setShown(shown);
-			}
+			if (tp != null && fp.getColor() == Settings.topColor && !fp.isShown())
+				showAttacker(fp);
 
 			if (board.attack(m))
 				return true;
@@ -76,6 +65,22 @@ public abstract class Engine
 		return false;
 	}
 	
+	// shows the attacker for a moment before the attack
+	protected void showAttacker(Piece fp)
+	{
+		boolean shown = fp.isShown();
+		fp.setShown(true);
+		update();
+		try {
+			Thread.sleep(1000);
+		}
+		catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+		fp.setShown(shown);
+	}
+	
 	public void newGame()
 	{
 		board.clear();
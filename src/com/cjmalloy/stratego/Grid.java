@@ -39,6 +39,13 @@ public class Grid
 
 	protected BitGrid pieceBitGrid[] = new BitGrid[2];
 	protected BitGrid movablePieceBitGrid[] = new BitGrid[2];
+
+	// Piece counts are kept up-to-date along with the bit grids
+	// so that the search can read them at every node
+	// without counting bits.
+
+	protected int[] nPieces = new int[2];
+	protected int[] nMovable = new int[2];
 	static private boolean[] isWater = new boolean[133];
 	static public final int NEIGHBORS = 5;
 	static protected BitGrid neighbor[][] = new BitGrid[NEIGHBORS][121];
@@ -137,6 +144,8 @@ public class Grid
 		for (int i = 0; i < 2; i++) {
 			pieceBitGrid[i] = new BitGrid(g.pieceBitGrid[i]);
 			movablePieceBitGrid[i] = new BitGrid(g.movablePieceBitGrid[i]);
+			nPieces[i] = g.nPieces[i];
+			nMovable[i] = g.nMovable[i];
 		}
 
 	}
@@ -174,25 +183,41 @@ public class Grid
 	public void setPiece(int i, Piece p) 
 	{
 		grid[i] = p;
-		pieceBitGrid[p.getColor()].setBit(i);
+		setBit(pieceBitGrid, nPieces, p.getColor(), i);
         setMovable(p);
 	}
 
+	static private void setBit(BitGrid[] bg, int[] count, int c, int i)
+	{
+		if (!bg[c].testBit(i)) {
+			bg[c].setBit(i);
+			count[c]++;
+		}
+	}
+
+	static private void clearBit(BitGrid[] bg, int[] count, int c, int i)
+	{
+		if (bg[c].testBit(i)) {
+			bg[c].clearBit(i);
+			count[c]--;
+		}
+	}
+
 	public void setMovable(Piece p) 
 	{
         int i = p.getIndex();
         Rank rank = p.getRank();
 		if (rank == Rank.BOMB
             || rank == Rank.FLAG)
-            movablePieceBitGrid[p.getColor()].clearBit(i);
+            clearBit(movablePieceBitGrid, nMovable, p.getColor(), i);
         else
-            movablePieceBitGrid[p.getColor()].setBit(i);
+            setBit(movablePieceBitGrid, nMovable, p.getColor(), i);
 	}
 
 	public void clearMovable(Piece p) 
 	{
             int i = p.getIndex();
-            movablePieceBitGrid[p.getColor()].clearBit(i);
+            clearBit(movablePieceBitGrid, nMovable, p.getColor(), i);
     }
 
 	static private void setWater(int i) 
@@ -210,10 +235,10 @@ public class Grid
 	public void clearPiece(int i) 
 	{
 		grid[i] = null;
-		pieceBitGrid[0].clearBit(i);
-		pieceBitGrid[1].clearBit(i);
-		movablePieceBitGrid[0].clearBit(i);
-		movablePieceBitGrid[1].clearBit(i);
+		for (int c = 0; c < 2; c++) {
+			clearBit(pieceBitGrid, nPieces, c, i);
+			clearBit(movablePieceBitGrid, nMovable, c, i);
+		}
 	}
 
 	public void setPiece(int x, int y, Piece p) 
@@ -375,14 +400,12 @@ public class Grid
 
 	public int movablePieceCount(int turn)
 	{
-		return Long.bitCount(movablePieceBitGrid[turn].get(0))
-			+ Long.bitCount(movablePieceBitGrid[turn].get(1));
+		return nMovable[turn];
 	}
 
 	public int pieceCount(int turn)
 	{
-		return Long.bitCount(pieceBitGrid[turn].get(0))
-			+ Long.bitCount(pieceBitGrid[turn].get(1));
+		return nPieces[turn];
 	}
 
 	// isAdjacent is the same as steps() == 1 but perhaps faster
@@ -459,30 +482,4 @@ public class Grid
 		}
 		return dir;
 	}
-
-	static public int yside(int color, int y)
-    {
-        if (color == Settings.topColor)
-                return y;
-        else
-                return 9-y;
-    }
-
-	static public int side(int color, int i)
-    {
-		if (color == Settings.topColor)
-			return i;
-		else
-			return getIndex(getX(i), 9-getY(i));
-	}
-
-	static public boolean isRetreat(int color, int m)
-	{
-        int from = Move.unpackFrom(m);
-        int to = Move.unpackTo(m);
-
-		int d = to - from;
-		return (d == 11 && color == Settings.bottomColor)
-			|| (d == -11 && color == Settings.topColor);
-	}
 }
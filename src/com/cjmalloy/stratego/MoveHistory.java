@@ -0,0 +1,119 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego;
+
+//
+// MoveHistory replaces the ArrayList<UndoMove> that used to hold
+// every move of the game.  That list was copied into every
+// TestingBoard, so the cost of starting a search grew with
+// the length of the game, and games against stalling bots
+// can last well over 1000 moves.
+//
+// The rules and heuristics only look a few moves back:
+// Two Squares (6 moves), maybeBluffing() (6 moves),
+// twoSquaresChases() (4 moves) and markExposedPieces() (3 moves).
+// Suspected rank aging (SUSPECTED_RANK_AGING_DELAY) is kept
+// in the piece move counter, not in the history.
+// So only a small window of UndoMoves is retained in a ring buffer,
+// and a copy for the search takes just the last WINDOW moves.
+//
+public class MoveHistory
+{
+	// number of moves copied into a search board
+	public static final int WINDOW = 16;
+
+	// ring capacity of a search board: the copied window
+	// plus the deepest search (MAX_DEPTH + QSMAX)
+	public static final int SEARCH_CAPACITY = 64;
+
+	// ring capacity of the game board; this is also the
+	// limit on how far the user can undo
+	public static final int GAME_CAPACITY = 256;
+
+	protected UndoMove[] ring;
+	protected int mask;
+	protected int size = 0;		// number of moves in the game
+	protected int retained = 0;	// number of moves in the ring
+
+	public MoveHistory(int capacity)
+	{
+		// capacity is rounded up to a power of 2
+		int cap = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		ring = new UndoMove[cap];
+		mask = cap - 1;
+	}
+
+	// Copy the last WINDOW moves of the history.
+	// The cost is independent of the length of the game.
+	public MoveHistory(MoveHistory h, int capacity)
+	{
+		this(capacity);
+		size = h.size;
+		retained = Math.min(Math.min(h.retained, WINDOW), ring.length);
+		for (int i = size - retained; i < size; i++)
+			ring[i & mask] = h.ring[i & h.mask];
+	}
+
+	// total number of moves, including those no longer retained
+	public int size()
+	{
+		return size;
+	}
+
+	// number of moves that can be retrieved or removed
+	public int retained()
+	{
+		return retained;
+	}
+
+	public void add(UndoMove um)
+	{
+		ring[size & mask] = um;
+		size++;
+		if (retained < ring.length)
+			retained++;
+	}
+
+	public UndoMove removeLast()
+	{
+		if (retained == 0)
+			return UndoMove.NullMove;
+		size--;
+		retained--;
+		UndoMove um = ring[size & mask];
+		ring[size & mask] = null;
+		return um;
+	}
+
+	// i = 1 is the last move.
+	// Returns NullMove if the move is no longer retained.
+	public UndoMove getLast(int i)
+	{
+		if (i < 1 || i > retained)
+			return UndoMove.NullMove;
+		return ring[(size - i) & mask];
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = null;
+		size = 0;
+		retained = 0;
+	}
+}
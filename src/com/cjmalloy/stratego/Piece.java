@@ -44,9 +44,14 @@ public class Piece implements Comparable<Piece>
 	static public final int SAFE = 1 << 6;
 	static public final int FLAG_BOMB = 1 << 7;
 	static public final int LIKELY_SPY = 1 << 8;
-	static Piece[] lastKill = new Piece[2];
 
 	private int flags = 0;
+	private boolean lastKill = false;	// last piece of its color taken
+
+	// Class of the piece state in the winFight() outcome table
+	// of a TestingBoard (see WinFightTable).  Every change to the
+	// state that is part of getFightKey() resets it to -1.
+	private int fightClass = -1;
 
 	public Piece(int c, Rank r) 
 	{
@@ -57,6 +62,15 @@ public class Piece implements Comparable<Piece>
 		clearActingRank();
 	}
 
+	public Piece(int id, int c, Rank r) 
+	{
+		uniqueID = id;
+		color = c;
+		actualRank = r;
+		rank = r;
+		clearActingRank();
+	}
+
 	public Piece(Piece p) 
 	{
 		copy(p);
@@ -73,18 +87,22 @@ public class Piece implements Comparable<Piece>
 		actingRankChase = p.actingRankChase;
 		flags = p.flags;
 		index = p.index;
+		fightClass = p.fightClass;
 	}
 
 	public void clear()
 	{
+		fightClass = -1;
 		moves = 0;
 		clearActingRank();
 		flags = 0;
 		index = 0;
+		lastKill = false;
 	}
 
 	public void setRank(Rank r)
 	{
+		fightClass = -1;
 		rank = r;
 		flags &= ~SUSPECTED;
 	}
@@ -107,6 +125,7 @@ public class Piece implements Comparable<Piece>
 
 	public void revealRank()
 	{
+		fightClass = -1;
 		if (actualRank != Rank.UNKNOWN)
 			rank = actualRank;
 		makeKnown();
@@ -154,6 +173,7 @@ public class Piece implements Comparable<Piece>
 
 	public void makeKnown()
 	{
+		fightClass = -1;
 		flags |= KNOWN;
 		flags &= ~(SUSPECTED | LESS | MAYBE_EIGHT | LIKELY_SPY);
 		clearActingRank();
@@ -176,11 +196,13 @@ public class Piece implements Comparable<Piece>
 
     public void set(int f)
     {
+		fightClass = -1;
 		flags |= f;
     }
 
     public void clear(int f)
     {
+		fightClass = -1;
 		flags &= ~f;
     }
 
@@ -192,8 +214,12 @@ public class Piece implements Comparable<Piece>
 	public void kill()
 	{
 		setShown(true);
-		if (color >= 0)
-			lastKill[color] = this;
+	}
+
+	// set by the board (see Board.moveToTray())
+	public void setLastKill(boolean b)
+	{
+		lastKill = b;
 	}
 
 	public void setShown(boolean b)
@@ -211,11 +237,12 @@ public class Piece implements Comparable<Piece>
 
 	public boolean isHighLight()
 	{
-		return isKnown() && !(color >= 0 && lastKill[color] == this);
+		return isKnown() && !lastKill;
 	}
 
 	public void setKnown(boolean b)
 	{
+		fightClass = -1;
 		if (b)
 			flags |= KNOWN;
 		else
@@ -234,11 +261,13 @@ public class Piece implements Comparable<Piece>
 	
 	public void setMoved()
 	{
+		fightClass = -1;
 		moves++;
 	}
 
 	public void setMoves(int m)
 	{
+		fightClass = -1;
 		moves = m;
 	}
 
@@ -252,6 +281,7 @@ public class Piece implements Comparable<Piece>
 
 	public void setActingRankChase(Rank r)
 	{
+		fightClass = -1;
 		// Reset moves.  Chase rank matures after a certain
 		// number of subsequent moves to give the AI time
 		// to confirm (attack) the suspected rank.
@@ -292,6 +322,7 @@ public class Piece implements Comparable<Piece>
 
 	public void clearActingRankChase()
 	{
+		fightClass = -1;
 		actingRankChase = 0;
         if (moves != 0)
             moves=1;
@@ -300,6 +331,7 @@ public class Piece implements Comparable<Piece>
 
 	public Rank convertActingRankChaseLess()
 	{
+        fightClass = -1;
         if ((flags & LESS) != 0) {
             if (!isChasing(Rank.SPY))
                 actingRankChase <<= 1;
@@ -341,11 +373,13 @@ public class Piece implements Comparable<Piece>
 
 	public void setActingRankFlee(Rank r)
 	{
+		fightClass = -1;
 		actingRankFlee |= (1 << r.ordinal());
 	}
 
 	public void clearActingRank()
 	{
+		fightClass = -1;
 		actingRankChase = 0;
 		actingRankFlee = 0;
 	}
@@ -357,12 +391,14 @@ public class Piece implements Comparable<Piece>
 
 	public void setSuspectedRank(Rank r)
 	{
+		fightClass = -1;
 		rank = r;
 		flags |= SUSPECTED;
 	}
 
 	public void setMaybeEight(boolean b)
 	{
+		fightClass = -1;
 		if (b)
 			flags |= MAYBE_EIGHT;
 		else
@@ -376,6 +412,7 @@ public class Piece implements Comparable<Piece>
 
 	public void setFlagBomb(boolean b)
 	{
+		fightClass = -1;
 		if (b)
 			flags |= FLAG_BOMB;
 		else
@@ -414,6 +451,30 @@ public class Piece implements Comparable<Piece>
 	// chase rank that makes them differ, so this could result
 	// in undesired transposition cache equivalency
 
+	public int getFightClass()
+	{
+		return fightClass;
+	}
+
+	public void setFightClass(int c)
+	{
+		fightClass = c;
+	}
+
+	// Returns the piece state that determines the outcome
+	// of TestingBoard.winFight(): color, rank, flags (except SHOWN),
+	// whether the piece has moved and the acting ranks.
+
+	public long getFightKey()
+	{
+		return (long)(color + 1)
+			| (long)rank.ordinal() << 2
+			| (long)(flags & ~SHOWN & 0x1ff) << 6
+			| (moves != 0 ? 1L : 0L) << 15
+			| (long)(actingRankChase & 0x7fff) << 16
+			| (long)(actingRankFlee & 0x7fff) << 31;
+	}
+
 	public int getStateFlags()
 	{
 		return flags & (MAYBE_EIGHT | WEAK | KNOWN);
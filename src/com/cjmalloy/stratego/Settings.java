@@ -30,6 +30,7 @@ public class Settings
 	public static boolean bOneTimeBombs = false;
 	public static boolean twoSquares = true;
 	public static int debugLevel = 0;
+	public static boolean searchTrace = false;	// write ai.trace
 	
 	private Settings(){}
 }
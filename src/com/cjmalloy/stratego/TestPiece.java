@@ -29,6 +29,7 @@ public class TestPiece extends Piece
 	{
 		super(p);
 		orig = p;
+		setFightClass(-1);	// classes belong to a TestingBoard
 	}
 
 	public Piece boardPiece()
@@ -0,0 +1,80 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import com.cjmalloy.stratego.Board;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Settings;
+import com.cjmalloy.stratego.Spot;
+
+//
+// Helpers shared by the micro benchmarks in this package.
+// The benchmarks are plain main programs (see "make bench")
+// so that they run without any external harness.
+//
+public class Bench
+{
+	// keeps the JIT from discarding benchmark results
+	public static long sink;
+
+	public interface Op
+	{
+		long run();
+	}
+
+	// Runs op for warmup and then for iters iterations,
+	// printing and returning the mean time per iteration in ns.
+	public static double time(String name, int iters, Op op)
+	{
+		for (int i = 0; i < iters; i++)
+			sink += op.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < iters; i++)
+			sink += op.run();
+		double ns = (double)(System.nanoTime() - start) / iters;
+		System.out.printf("%-40s %12.1f ns/op%n", name, ns);
+		return ns;
+	}
+
+	// Returns a board with a random setup for both sides.
+	// The AI plays the top (Red) side, as in AITest.
+	public static Board randomSetup(long seed)
+	{
+		Settings.topColor = Board.RED;
+		Settings.bottomColor = Board.BLUE;
+
+		Random rnd = new Random(seed);
+		Board b = new Board();
+		ArrayList<Piece> pieces = new ArrayList<Piece>();
+		for (int i = 0; i < b.getTraySize(); i++)
+			pieces.add(b.getTrayPiece(i));
+		Collections.shuffle(pieces, rnd);
+
+		int[] next = { 0, 60 };
+		for (Piece p : pieces) {
+			int c = p.getColor();
+			int n = next[c]++;
+			b.add(p, new Spot(n % 10, n / 10));
+		}
+		return b;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.server.shared.BufferPool;
+import com.cjmalloy.stratego.server.shared.Codec;
+import com.cjmalloy.stratego.server.shared.Message;
+
+//
+// Compares the wire protocol versions on a full board
+// update (100 GRID and 80 TRAY messages, see Game.update())
+// and on a move (two GRID messages).
+//
+public class CodecBenchmark
+{
+	static byte[] update(int squares, int slots) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int n = 0; n < squares; n++) {
+			out.writeInt(Message.GRID.ordinal());
+			out.writeInt(n / 10);
+			out.writeInt(n % 10);
+			out.writeInt(n < 40 ? 0 : n >= 60 ? 1 : -1);
+			out.writeInt(n < 40 ? Rank.UNKNOWN.ordinal()
+				: n >= 60 ? n % 12 + 1 : Rank.NIL.ordinal());
+		}
+		for (int n = 0; n < slots; n++) {
+			out.writeInt(Message.TRAY.ordinal());
+			out.writeInt(n % 40);
+			out.writeInt(n / 40);
+			out.writeInt(Rank.NIL.ordinal());
+		}
+		return bytes.toByteArray();
+	}
+
+	// what a MessageHandler does with a packet
+	static long parse(byte[] bs, int len, boolean clone) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bs, 0, len));
+		long sum = 0;
+		while (in.available() > 0) {
+			int type = in.readInt();
+			Message m = clone ? Message.values()[type] : Message.get(type);
+			int fields = m == Message.GRID ? 4 : 3;
+			for (int i = 0; i < fields; i++)
+				sum += in.readInt();
+		}
+		return sum;
+	}
+
+	interface IOOp
+	{
+		long run() throws IOException;
+	}
+
+	static void time(String name, int iters, final IOOp op)
+	{
+		Bench.time(name, iters, () -> {
+			try {
+				return op.run();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	static void compare(String name, final byte[] v2, int iters) throws IOException
+	{
+		final ByteBuffer out = ByteBuffer.allocateDirect(Codec.maxEncoded(v2.length));
+		final ByteBuffer in = ByteBuffer.allocateDirect(v2.length);
+		in.put(v2).flip();
+		Codec.encode(in, out);
+		out.flip();
+		final ByteBuffer v3 = ByteBuffer.allocate(out.remaining());
+		v3.put(out).flip();
+		final ByteBuffer decoded = ByteBuffer.allocate(Codec.maxDecoded(v3.remaining()));
+		System.out.printf("%s: version 2 %d bytes, version 3 %d bytes (%.0f%%)%n",
+			name, v2.length, v3.remaining(), 100.0 * v3.remaining() / v2.length);
+
+		time(name + ": encode v3", iters, () -> {
+			in.rewind();
+			out.clear();
+			Codec.encode(in, out);
+			return out.position();
+		});
+		time(name + ": parse v2, values()", iters, () -> parse(v2, v2.length, true));
+		time(name + ": parse v2, Message.get()", iters, () -> parse(v2, v2.length, false));
+		time(name + ": decode v3 and parse", iters, () -> {
+			v3.rewind();
+			decoded.clear();
+			Codec.decode(v3, decoded);
+			return parse(decoded.array(), decoded.position(), false);
+		});
+	}
+
+	// Building and framing a packet of n GRID messages the way
+	// Connection did before the BufferPool (a DataOutputStream
+	// over a ByteArrayOutputStream, copied out with toByteArray()
+	// and again with its length) and the way it does now.
+	static void packet(String name, final int n, int iters)
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream data = new DataOutputStream(bytes);
+		time(name + ": stream and copies", iters, () -> {
+			bytes.reset();
+			for (int i = 0; i < n; i++) {
+				data.writeInt(Message.GRID.ordinal());
+				data.writeInt(i / 10);
+				data.writeInt(i % 10);
+				data.writeInt(1);
+				data.writeInt(Rank.UNKNOWN.ordinal());
+			}
+			data.flush();
+			byte[] bs = bytes.toByteArray();
+			ByteBuffer b = ByteBuffer.allocate(4 + bs.length);
+			b.putInt(bs.length).put(bs).flip();
+			return b.remaining();
+		});
+		final ByteBuffer header = ByteBuffer.allocateDirect(5);
+		time(name + ": pooled buffer", iters, () -> {
+			ByteBuffer b = BufferPool.getDirect(0);
+			for (int i = 0; i < n; i++) {
+				b.putInt(Message.GRID.ordinal());
+				b.putInt(i / 10);
+				b.putInt(i % 10);
+				b.putInt(1);
+				b.putInt(Rank.UNKNOWN.ordinal());
+			}
+			b.flip();
+			header.clear();
+			header.putInt(b.remaining()).flip();
+			long len = header.remaining() + b.remaining();
+			BufferPool.put(b);
+			return len;
+		});
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int iters = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		compare("board", update(100, 80), iters);
+		compare("move", update(2, 0), iters * 20);
+		packet("board packet", 100, iters);
+		packet("move packet", 2, iters * 20);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.Spot;
+import com.cjmalloy.stratego.server.Journal;
+import com.cjmalloy.stratego.server.ServerEngine;
+
+//
+// Writes n game journals of random games and measures how
+// long it takes to rebuild the games from them, the way
+// GameServer.recover() does on startup.
+//
+// usage: java com.cjmalloy.stratego.bench.JournalBenchmark
+//	[journals [moves [dir]]]
+//
+// The journals are written to dir (default journal-bench),
+// which is emptied first.
+//
+public class JournalBenchmark
+{
+	static final int[][] DIRS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+
+	// an engine without the pause before an attack
+	static ServerEngine engine()
+	{
+		ServerEngine e = new ServerEngine(null)
+		{
+			protected void showAttacker(Piece p) {}
+		};
+		e.newGame();
+		return e;
+	}
+
+	// plays up to moves random moves (a move the engine doesn't
+	// make, e.g. back and forth too often, is journalled too,
+	// as in a real game)
+	static int play(ServerEngine e, int moves, Random rnd)
+	{
+		e.play(0);
+		e.play(1);
+		int n = 0;
+		for (int tries = 0; n < moves && tries < moves * 20 && e.isPlaying(); tries++) {
+			int x = rnd.nextInt(10), y = rnd.nextInt(10);
+			Piece p = e.getBoardPiece(x, y);
+			if (p == null || p.getColor() != e.getTurn()
+				|| p.getActualRank() == Rank.BOMB || p.getActualRank() == Rank.FLAG)
+				continue;
+			int[] d = DIRS[rnd.nextInt(4)];
+			if (x + d[0] < 0 || x + d[0] > 9 || y + d[1] < 0 || y + d[1] > 9)
+				continue;
+			Piece tp = e.getBoardPiece(x + d[0], y + d[1]);
+			if (tp != null && (tp.getColor() < 0 || tp.getColor() == p.getColor()))
+				continue;
+			int turn = e.getTurn();
+			e.requestMove(new Move(p, new Spot(x, y), new Spot(x + d[0], y + d[1])), turn);
+			if (e.getTurn() != turn)
+				n++;
+		}
+		return n;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int journals = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		File dir = new File(args.length > 2 ? args[2] : "journal-bench");
+		System.setProperty("stratego.journal", dir.getPath());
+		File[] old = dir.listFiles();
+		if (old != null)
+			for (File f: old)
+				f.delete();
+
+		Random rnd = new Random(1);
+		long start = System.nanoTime();
+		long made = 0;
+		for (int i = 1; i <= journals; i++) {
+			ServerEngine e = engine();
+			Journal j = Journal.create(i, "red" + i, "blue" + i, 0);
+			e.setJournal(j);
+			made += play(e, moves, rnd);
+			j.close();
+		}
+		long bytes = 0;
+		File[] files = dir.listFiles();
+		for (File f: files)
+			bytes += f.length();
+		System.out.printf("wrote %d journals, %d moves, %.1f MB in %d ms%n",
+			files.length, made, bytes / 1e6, (System.nanoTime() - start) / 1000000);
+
+		// reading and checking the journals, then the replay
+		start = System.nanoTime();
+		Journal[] js = new Journal[files.length];
+		for (int i = 0; i < files.length; i++)
+			js[i] = Journal.open(files[i]);
+		long read = System.nanoTime() - start;
+		long over = 0;
+		for (Journal j: js) {
+			ServerEngine e = engine();
+			e.replay(j);
+			if (e.isOver())
+				over++;
+			Bench.sink += e.getTurn();
+		}
+		long ns = System.nanoTime() - start;
+		System.out.printf("recovered %d games (%d over) in %d ms (%d ms reading), %.0f us a game%n",
+			files.length, over, ns / 1000000, read / 1000000, ns / 1000.0 / files.length);
+	}
+}
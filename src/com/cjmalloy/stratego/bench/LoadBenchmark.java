@@ -0,0 +1,613 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cjmalloy.stratego.Rank;
+import com.cjmalloy.stratego.server.GameServer;
+import com.cjmalloy.stratego.server.ServerController;
+import com.cjmalloy.stratego.server.ServerMetrics;
+import com.cjmalloy.stratego.server.shared.Connection;
+import com.cjmalloy.stratego.server.shared.Hash;
+import com.cjmalloy.stratego.server.shared.Message;
+
+//
+// Load test of the game server over loopback.
+//
+// Opens n protocol version 2 connections, gives them the
+// aliases load0, load1, ..., and pairs them (load0 invites
+// load1, and so on) into games that they play with random
+// legal moves until the time is up.  When a game ends, the
+// inviter starts the next one.
+//
+// usage: java com.cjmalloy.stratego.bench.LoadBenchmark
+//	[-clients n] [-rate moves/s] [-seconds s] [-seed n]
+//	[-host host -port port [-password pw]]
+//
+// Without -port, the server runs in this process on a free
+// loopback port, with its journals in a new temporary
+// directory, and its ServerMetrics are printed at the end.
+//
+// -rate is the moves per second of a game: a player waits
+// 1/rate seconds after the other's move before its own (0 is
+// as fast as the server answers).  The move latency is the time
+// from sending a MOVE to the first update of its square (the
+// move, or the attacker shown before an attack), so the pause
+// while the attacker is shown isn't counted.
+//
+// A client knows only what the server sends it, so it keeps
+// its own view of the board from the GRID messages.  Red moves
+// first, and the turn changes when a square of the player
+// to move is emptied (the square it moved from).  A move the
+// server ignores (e.g. the two squares rule) is replaced by
+// another after RETRY.
+//
+public class LoadBenchmark
+{
+	static final long RETRY = 2000;	// ms before a move without an answer is replaced
+	static final long RESTART = 100;	// ms after a game ends before the next is started
+	static final int MAX_MOVES = 500;	// moves of a player before a new game is started
+	static final int[][] DIRS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+	static final int EMPTY = -1;
+
+	static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "load-timer");
+		t.setDaemon(true);
+		return t;
+	});
+	static long think;	// ms between moves of a game
+
+	static final LongAdder games = new LongAdder();
+	static final LongAdder finished = new LongAdder();
+	static final LongAdder moves = new LongAdder();
+	static final LongAdder ignored = new LongAdder();
+	static final LongAdder packetsIn = new LongAdder();
+	static final LongAdder bytesIn = new LongAdder();
+	static final LongAdder packetsOut = new LongAdder();
+	static final LongAdder bytesOut = new LongAdder();
+	static final LongAdder errors = new LongAdder();
+
+	static boolean water(int x, int y)
+	{
+		return (y == 4 || y == 5) && (x == 2 || x == 3 || x == 6 || x == 7);
+	}
+
+	static class Client extends Thread
+	{
+		final String alias;
+		final String partner;
+		final Random rnd;
+		final Socket sock;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		// the game, under the lock of the client
+		int game = 0;	// SETUPs received
+		int color = EMPTY;
+		final int[] board = new int[100];	// color of each square (x*10+y)
+		final int[] rank = new int[100];
+		final ArrayList<Integer> tray = new ArrayList<Integer>();
+		boolean placed = false;
+		boolean playing = false;
+		int turn = 0;
+		int made = 0;	// moves of this player in the game
+		int pending = EMPTY;	// square of the move waiting for its answer
+		int tries = 0;	// moves sent (see retry())
+		long sent;
+		boolean named = false;
+
+		long[] latencies = new long[1024];	// us
+		int nlatencies = 0;
+
+		Client(int i, String host, int port, String password, long seed) throws IOException
+		{
+			super("load-" + i);
+			setDaemon(true);
+			alias = "load" + i;
+			partner = "load" + (i ^ 1);
+			rnd = new Random(seed + i);
+			sock = new Socket(host, port);
+			sock.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+
+			out.writeInt(2);
+			out.writeInt(Message.PROTOCOL_MINOR_VERSION);
+			out.flush();
+			if (in.readInt() == Message.UPDATE.ordinal())
+				throw new IOException("the server doesn't accept version 2");
+			if (!password.equals(""))
+			{
+				String salt = Connection.decode(40, in);
+				out.write(Connection.encode(Hash.Sha1(salt + password)));
+				out.flush();
+			}
+		}
+
+		boolean inviter()
+		{
+			return alias.compareTo(partner) < 0;
+		}
+
+		// sends one packet of the ints (version 2)
+		synchronized void send(int... msg) throws IOException
+		{
+			out.writeInt(msg.length * 4);
+			for (int i: msg)
+				out.writeInt(i);
+			out.flush();
+			packetsOut.increment();
+			bytesOut.add(4 + msg.length * 4);
+		}
+
+		synchronized void cmd(String s) throws IOException
+		{
+			byte[] b = s.getBytes("ASCII");
+			out.writeInt(8 + b.length);
+			out.writeInt(Message.CMD.ordinal());
+			out.writeInt(b.length);
+			out.write(b);
+			out.flush();
+			packetsOut.increment();
+			bytesOut.add(12 + b.length);
+		}
+
+		public void run()
+		{
+			try
+			{
+				for (;;)
+				{
+					int len = in.readInt();
+					byte[] b = new byte[len];
+					in.readFully(b);
+					packetsIn.increment();
+					bytesIn.add(4 + len);
+					packet(new DataInputStream(new ByteArrayInputStream(b)));
+				}
+			}
+			catch (IOException e)
+			{
+				if (!sock.isClosed())
+					errors.increment();
+			}
+		}
+
+		private synchronized void packet(DataInputStream p) throws IOException
+		{
+			boolean moved = false;	// a square of the player to move was emptied
+			while (p.available() > 0)
+			{
+				int type = p.readInt();
+				switch (Message.get(type))
+				{
+				case SETUP:
+					setup(p.readInt());
+					break;
+				case GRID:
+					int sq = p.readInt() * 10 + p.readInt();
+					int c = p.readInt();
+					int r = p.readInt();
+					if (c >= 2)
+						c -= 2;	// shown
+					if (playing && board[sq] == turn && c == EMPTY)
+						moved = true;
+					if (sq == pending)
+						answered();
+					board[sq] = c;
+					rank[sq] = r;
+					break;
+				case TRAY:
+					p.readInt();
+					c = p.readInt();
+					r = p.readInt();
+					if (!placed && c == color && r != Rank.NIL.ordinal())
+						tray.add(r);
+					break;
+				case GAMEOVER:
+					p.readInt();
+					if (color == 0)
+						finished.increment();
+					ended();
+					break;
+				case DISC:
+					ended();
+					break;
+				case MSG:
+				case CMD:
+					String s = Connection.decode(p.readInt(), p);
+					if (s.startsWith("Username is now"))
+					{
+						named = true;
+						notifyAll();
+					}
+					else if (s.endsWith("is unavailable.\n"))
+						next(game);
+					break;
+				default:
+					return;	// not for a client
+				}
+			}
+
+			if (color == EMPTY)
+				return;
+			if (!placed && tray.size() == 40)
+				place();
+			if (!playing)
+			{
+				int pieces = 0;
+				for (int c: board)
+					if (c != EMPTY)
+						pieces++;
+				if (pieces == 80)
+				{
+					playing = true;
+					turn = 0;	// red
+					if (color == turn)
+						later();
+				}
+			}
+			else if (moved)
+			{
+				if (turn == color)
+				{
+					made++;
+					moves.increment();
+				}
+				turn = 1 - turn;
+				if (turn == color)
+					later();
+			}
+		}
+
+		private void setup(int c)
+		{
+			game++;
+			color = c;
+			Arrays.fill(board, EMPTY);
+			tray.clear();
+			placed = false;
+			playing = false;
+			made = 0;
+			pending = EMPTY;
+			if (c == 0)
+				games.increment();
+		}
+
+		// Places the pieces in random order, except the last,
+		// which PLAY places.  The other player can't see the
+		// last piece until PLAY is done, so it can't move
+		// before the game has started.
+		private void place() throws IOException
+		{
+			placed = true;
+			Collections.shuffle(tray, rnd);
+			ArrayList<Integer> squares = new ArrayList<Integer>();
+			for (int x=0;x<10;x++)
+			for (int y=color == 0 ? 0 : 6;y < (color == 0 ? 4 : 10);y++)
+				squares.add(x*10 + y);
+			Collections.shuffle(squares, rnd);
+			int[] msg = new int[(tray.size() - 1) * 6 + 1];
+			int n = 0;
+			for (int i=0;i<tray.size()-1;i++)
+			{
+				int sq = squares.get(i);
+				msg[n++] = Message.MOVE.ordinal();
+				msg[n++] = -1;
+				msg[n++] = -1;
+				msg[n++] = sq / 10;
+				msg[n++] = sq % 10;
+				msg[n++] = tray.get(i);
+			}
+			msg[n] = Message.PLAY.ordinal();
+			send(msg);
+		}
+
+		private void answered()
+		{
+			record((System.nanoTime() - sent) / 1000);
+			pending = EMPTY;
+		}
+
+		private void record(long us)
+		{
+			if (nlatencies == latencies.length)
+				latencies = Arrays.copyOf(latencies, nlatencies * 2);
+			latencies[nlatencies++] = us;
+		}
+
+		synchronized long[] latencies()
+		{
+			return Arrays.copyOf(latencies, nlatencies);
+		}
+
+		// the game is over: the inviter starts the next
+		private void ended()
+		{
+			playing = false;
+			color = EMPTY;
+			pending = EMPTY;
+			if (inviter())
+				next(game);
+		}
+
+		// starts a new game after RESTART, if none has
+		// started since game g
+		private void next(final int g)
+		{
+			timer.schedule(() -> {
+				synchronized (Client.this)
+				{
+					if (game == g && color == EMPTY)
+						restart();
+				}
+			}, RESTART, TimeUnit.MILLISECONDS);
+		}
+
+		void restart()
+		{
+			try
+			{
+				cmd("n 1 :" + partner);
+			}
+			catch (IOException e)
+			{
+				errors.increment();
+			}
+		}
+
+		// moves after the think time
+		private void later()
+		{
+			final int g = game;
+			if (think == 0)
+			{
+				move();
+				return;
+			}
+			timer.schedule(() -> {
+				synchronized (Client.this)
+				{
+					if (game == g)
+						move();
+				}
+			}, think, TimeUnit.MILLISECONDS);
+		}
+
+		private void move()
+		{
+			if (!playing || turn != color)
+				return;
+			if (made >= MAX_MOVES)
+			{
+				playing = false;
+				restart();
+				return;
+			}
+
+			ArrayList<int[]> legal = new ArrayList<int[]>();
+			for (int x=0;x<10;x++)
+			for (int y=0;y<10;y++)
+			{
+				int sq = x*10 + y;
+				if (board[sq] != color || rank[sq] == Rank.BOMB.ordinal()
+					|| rank[sq] == Rank.FLAG.ordinal())
+					continue;
+				for (int[] d: DIRS)
+				{
+					int tx = x + d[0], ty = y + d[1];
+					if (tx < 0 || tx > 9 || ty < 0 || ty > 9 || water(tx, ty)
+						|| board[tx*10 + ty] == color)
+						continue;
+					legal.add(new int[] { x, y, tx, ty });
+				}
+			}
+			if (legal.isEmpty())
+			{
+				// nothing to move: give up the game
+				playing = false;
+				restart();
+				return;
+			}
+
+			int[] m = legal.get(rnd.nextInt(legal.size()));
+			try
+			{
+				send(Message.MOVE.ordinal(), m[0], m[1], m[2], m[3], rank[m[0]*10 + m[1]]);
+			}
+			catch (IOException e)
+			{
+				errors.increment();
+				return;
+			}
+			pending = m[0]*10 + m[1];
+			sent = System.nanoTime();
+			retry(game, ++tries);
+		}
+
+		// If move t of game g is still unanswered after RETRY,
+		// the server ignored it, so another is made.
+		private void retry(final int g, final int t)
+		{
+			timer.schedule(() -> {
+				synchronized (Client.this)
+				{
+					if (game != g || tries != t || pending == EMPTY)
+						return;
+					ignored.increment();
+					pending = EMPTY;
+					move();
+				}
+			}, RETRY, TimeUnit.MILLISECONDS);
+		}
+
+		synchronized void waitForName() throws InterruptedException
+		{
+			long end = System.currentTimeMillis() + 10000;
+			while (!named && System.currentTimeMillis() < end)
+				wait(end - System.currentTimeMillis());
+		}
+
+		void close()
+		{
+			try
+			{
+				sock.close();
+			}
+			catch (IOException e) {}
+		}
+	}
+
+	static long percentile(long[] sorted, double p)
+	{
+		if (sorted.length == 0)
+			return 0;
+		return sorted[Math.min(sorted.length - 1, (int)(p * sorted.length))];
+	}
+
+	static String latency(ArrayList<Client> clients)
+	{
+		long[] all = new long[0];
+		for (Client c: clients)
+		{
+			long[] l = c.latencies();
+			int n = all.length;
+			all = Arrays.copyOf(all, n + l.length);
+			System.arraycopy(l, 0, all, n, l.length);
+		}
+		Arrays.sort(all);
+		return String.format("move latency (ms): p50 %.1f p90 %.1f p99 %.1f max %.1f (%d moves)",
+			percentile(all, 0.5) / 1000.0, percentile(all, 0.9) / 1000.0,
+			percentile(all, 0.99) / 1000.0, percentile(all, 1) / 1000.0, all.length);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int n = 100;
+		double rate = 1;
+		int seconds = 60;
+		long seed = 1;
+		String host = "127.0.0.1";
+		int port = 0;
+		String password = "";
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-clients"))
+				n = Integer.parseInt(args[++i]) & ~1;
+			else if (args[i].equals("-rate"))
+				rate = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-seconds"))
+				seconds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-host"))
+				host = args[++i];
+			else if (args[i].equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-password"))
+				password = args[++i];
+			else {
+				System.err.println("usage: LoadBenchmark [-clients n] [-rate moves/s] [-seconds s]"
+					+ " [-seed n] [-host host -port port [-password pw]]");
+				System.exit(2);
+			}
+		}
+		think = rate <= 0 ? 0 : (long)(1000 / rate);
+
+		boolean local = port == 0;
+		if (local) {
+			if (System.getProperty("stratego.journal") == null)
+				System.setProperty("stratego.journal",
+					Files.createTempDirectory("stratego-load").toString());
+			ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			port = free.getLocalPort();
+			free.close();
+			// the game server without the console controller
+			ServerController sc = new ServerController(port);
+			sc.setGameServer(new GameServer(sc, port));
+		}
+
+		long start = System.nanoTime();
+		ArrayList<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < n; i++) {
+			Client c = new Client(i, host, port, password, seed);
+			clients.add(c);
+			c.start();
+		}
+		for (Client c: clients)
+			c.cmd("u " + c.alias);
+		for (Client c: clients)
+			c.waitForName();
+		System.out.printf("%d clients connected in %d ms%n",
+			n, (System.nanoTime() - start) / 1000000);
+
+		for (Client c: clients)
+			if (c.inviter())
+				c.restart();
+
+		start = System.nanoTime();
+		long last = 0;
+		for (int t = 1; t <= seconds; t++) {
+			Thread.sleep(Math.max(0, start / 1000000 + t * 1000L - System.nanoTime() / 1000000));
+			if (t % 10 != 0 && t != seconds)
+				continue;
+			long m = moves.sum();
+			System.out.printf("%3ds: %d games, %d moves, %.1f moves/s%n",
+				t, games.sum(), m, (m - last) / (t % 10 == 0 ? 10.0 : t % 10));
+			last = m;
+		}
+		double s = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d clients, %s moves/s a game, %d s%n", n,
+			think == 0 ? "max" : String.valueOf(rate), seconds);
+		System.out.printf("games: %d started, %d finished%n", games.sum(), finished.sum());
+		System.out.printf("moves: %d, %.1f/s, %d ignored by the server%n",
+			moves.sum(), moves.sum() / s, ignored.sum());
+		System.out.println(latency(clients));
+		System.out.printf("client in:  %.1f packets/s, %.1f KB/s%n",
+			packetsIn.sum() / s, bytesIn.sum() / s / 1024);
+		System.out.printf("client out: %.1f packets/s, %.1f KB/s%n",
+			packetsOut.sum() / s, bytesOut.sum() / s / 1024);
+		if (errors.sum() != 0)
+			System.out.println(errors.sum() + " connection errors");
+		if (local) {
+			System.out.println("server:");
+			System.out.println(ServerMetrics.get().summary());
+		}
+		for (Client c: clients)
+			c.close();
+		System.exit(0);
+	}
+}
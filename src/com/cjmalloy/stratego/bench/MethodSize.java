@@ -0,0 +1,209 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+//
+// Checks the bytecode size of every method in the given
+// class files or directories.  HotSpot does not compile
+// methods larger than HugeMethodLimit (8000 bytes), so a hot
+// method that grows past it silently runs interpreted.
+//
+// usage: java com.cjmalloy.stratego.bench.MethodSize [-limit n] path...
+//
+// Prints the largest methods and exits with status 1
+// if any method exceeds the limit (see "make check").
+//
+public class MethodSize
+{
+	static final int HUGE_METHOD_LIMIT = 8000;
+	static final int SHOW = 10;
+
+	static class Method implements Comparable<Method>
+	{
+		String name;
+		int size;
+
+		Method(String name, int size)
+		{
+			this.name = name;
+			this.size = size;
+		}
+
+		public int compareTo(Method m)
+		{
+			return m.size - size;
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int limit = HUGE_METHOD_LIMIT;
+		ArrayList<Method> methods = new ArrayList<Method>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-limit"))
+				limit = Integer.parseInt(args[++i]);
+			else
+				scan(new File(args[i]), methods);
+		}
+
+		Collections.sort(methods);
+		int over = 0;
+		for (int i = 0; i < methods.size(); i++) {
+			Method m = methods.get(i);
+			if (m.size > limit)
+				over++;
+			else if (i >= SHOW)
+				break;
+			System.out.printf("%6d %s%s%n", m.size, m.name,
+				m.size > limit ? "  ** exceeds " + limit : "");
+		}
+		if (over != 0) {
+			System.out.println(over + " method(s) exceed " + limit + " bytes");
+			System.exit(1);
+		}
+	}
+
+	static void scan(File f, ArrayList<Method> methods) throws IOException
+	{
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			if (files != null)
+				for (File c : files)
+					scan(c, methods);
+		} else if (f.getName().endsWith(".class"))
+			read(f, methods);
+	}
+
+	// Reads the method names and code lengths from a class file
+	// (JVM specification, chapter 4).
+	static void read(File f, ArrayList<Method> methods) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			if (in.readInt() != 0xCAFEBABE)
+				throw new IOException(f + ": not a class file");
+			in.readUnsignedShort();	// minor
+			in.readUnsignedShort();	// major
+
+			int n = in.readUnsignedShort();
+			String[] utf8 = new String[n];
+			int[] classIndex = new int[n];
+			for (int i = 1; i < n; i++) {
+				int tag = in.readUnsignedByte();
+				switch (tag) {
+				case 1:	// Utf8
+					utf8[i] = in.readUTF();
+					break;
+				case 7:	// Class
+					classIndex[i] = in.readUnsignedShort();
+					break;
+				case 8:	// String
+				case 16:	// MethodType
+				case 19:	// Module
+				case 20:	// Package
+					in.readUnsignedShort();
+					break;
+				case 15:	// MethodHandle
+					in.readUnsignedByte();
+					in.readUnsignedShort();
+					break;
+				case 3:	// Integer
+				case 4:	// Float
+				case 9:	// Fieldref
+				case 10:	// Methodref
+				case 11:	// InterfaceMethodref
+				case 12:	// NameAndType
+				case 17:	// Dynamic
+				case 18:	// InvokeDynamic
+					in.readInt();
+					break;
+				case 5:	// Long
+				case 6:	// Double
+					in.readLong();
+					i++;
+					break;
+				default:
+					throw new IOException(f + ": bad constant tag " + tag);
+				}
+			}
+
+			in.readUnsignedShort();	// access flags
+			String className = utf8[classIndex[in.readUnsignedShort()]].replace('/', '.');
+			in.readUnsignedShort();	// super class
+			int interfaces = in.readUnsignedShort();
+			for (int i = 0; i < interfaces; i++)
+				in.readUnsignedShort();
+
+			int fields = in.readUnsignedShort();
+			for (int i = 0; i < fields; i++) {
+				in.readUnsignedShort();	// access flags
+				in.readUnsignedShort();	// name
+				in.readUnsignedShort();	// descriptor
+				skipAttributes(in);
+			}
+
+			int count = in.readUnsignedShort();
+			for (int i = 0; i < count; i++) {
+				in.readUnsignedShort();	// access flags
+				String name = utf8[in.readUnsignedShort()];
+				String desc = utf8[in.readUnsignedShort()];
+				int attributes = in.readUnsignedShort();
+				for (int j = 0; j < attributes; j++) {
+					String attr = utf8[in.readUnsignedShort()];
+					int len = in.readInt();
+					if (attr.equals("Code")) {
+						in.readUnsignedShort();	// max stack
+						in.readUnsignedShort();	// max locals
+						int size = in.readInt();
+						methods.add(new Method(className + "." + name + desc, size));
+						len -= 8;
+					}
+					skip(in, len);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	static void skipAttributes(DataInputStream in) throws IOException
+	{
+		int n = in.readUnsignedShort();
+		for (int i = 0; i < n; i++) {
+			in.readUnsignedShort();
+			skip(in, in.readInt());
+		}
+	}
+
+	static void skip(DataInputStream in, int n) throws IOException
+	{
+		while (n > 0) {
+			int s = in.skipBytes(n);
+			if (s <= 0)
+				throw new IOException("unexpected end of class file");
+			n -= s;
+		}
+	}
+}
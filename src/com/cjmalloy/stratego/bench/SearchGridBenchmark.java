@@ -0,0 +1,82 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.bench;
+
+import com.cjmalloy.stratego.Board;
+import com.cjmalloy.stratego.Grid;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.TestPiece;
+import com.cjmalloy.stratego.player.SearchGrid;
+import com.cjmalloy.stratego.player.TestingBoard;
+
+//
+// Compares the piece object graph (Grid + TestPiece)
+// with the color array of SearchGrid.
+//
+public class SearchGridBenchmark
+{
+	static final int[] dir = { -11, -1,  1, 11 };
+
+	public static void main(String[] args)
+	{
+		int iters = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		final TestingBoard tb = new TestingBoard(Bench.randomSetup(1));
+		final SearchGrid sg = tb.sgrid;
+
+		Bench.time("move gen: getPiece(t).getColor()", iters, () -> {
+			long n = 0;
+			for (int i = 12; i <= 120; i++) {
+				Piece fp = tb.getPiece(i);
+				if (fp == null || fp.getColor() != Board.RED)
+					continue;
+				for (int d : dir) {
+					Piece tp = tb.getPiece(i + d);
+					if (tp == null || tp.getColor() == Board.BLUE)
+						n++;
+				}
+			}
+			return n;
+		});
+		Bench.time("move gen: sgrid.isOpen(t)", iters, () -> {
+			long n = 0;
+			for (int i = 12; i <= 120; i++) {
+				if (sg.color(i) != Board.RED)
+					continue;
+				for (int d : dir)
+					if (sg.isOpen(Board.RED, i + d))
+						n++;
+			}
+			return n;
+		});
+
+		Bench.time("copy: Grid + TestPiece per piece", iters / 10, () -> {
+			Grid g = new Grid(tb.grid);
+			for (int i = 12; i <= 120; i++) {
+				Piece p = g.getPiece(i);
+				if (p != null && Grid.isValid(i))
+					g.setPiece(i, new TestPiece(p));
+			}
+			return g.pieceCount(Board.RED);
+		});
+		final SearchGrid copy = new SearchGrid(sg);
+		Bench.time("copy: SearchGrid.copyState", iters / 10, () -> {
+			copy.copyState(sg);
+			return copy.color(12);
+		});
+	}
+}
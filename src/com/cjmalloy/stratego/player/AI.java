@@ -20,18 +20,30 @@ package com.cjmalloy.stratego.player;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Collections;
 
 
 import javax.swing.JOptionPane;
 
+import com.cjmalloy.stratego.AsyncWriter;
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.BitGrid;
 import com.cjmalloy.stratego.Grid;
@@ -45,9 +57,57 @@ import com.cjmalloy.stratego.TTEntry;
 
 
 
-public class AI implements Runnable
+public class AI
 {
-	public static ReentrantLock aiLock = new ReentrantLock();
+	// Searches run on a shared pool rather than a thread per move,
+	// with a thread per core.  The pool is bounded; a search that
+	// cannot be queued fails (see getMoveAsync()).
+	// The state of a search is its own AI and board (including
+	// the colors, see Board.topColor), so the searches of
+	// different AIs run in parallel.
+	static private final int POOL_QUEUE = 256;
+	static private final ThreadPoolExecutor executor;
+	static {
+		int n = Runtime.getRuntime().availableProcessors();
+		executor = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(POOL_QUEUE),
+			new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "ai-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	static private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	// the shared pool, e.g. for admission control by a server
+	// that hosts AI games (see server.AIPlayer)
+	static public int getPoolSize()
+	{
+		return executor.getMaximumPoolSize();
+	}
+
+	// searches waiting for a thread
+	static public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	static public int getActiveSearches()
+	{
+		return executor.getActiveCount();
+	}
+
+	// Held while this AI searches.  A cancelled search may still
+	// be unwinding when the next one is queued, and both use
+	// the search board and tables of this AI.
+	private final ReentrantLock searchLock = new ReentrantLock();
+	private volatile boolean cancelled = false;
+	private CompletableFuture<Move> current = null;	// guarded by this
 	static final int MAX_PLY = 30;
 	private Board board = null;
 	private TestingBoard b = null;
@@ -55,6 +115,11 @@ public class AI implements Runnable
 	private PrintWriter log;
 	static final int PV = 1;
 	static final int DETAIL = 2;
+
+	// binary search tree trace (see SearchTrace), null if off
+	private SearchTrace trace = null;
+	private int traceSearch;	// number of the search in the trace
+	private boolean logMoves = false;	// logging(DETAIL) or trace
 	private Piece lastMovedPiece;
 
 	// Static move ordering takes precedence over dynamic
@@ -81,6 +146,9 @@ public class AI implements Runnable
 	int moveRoot = 0;
 	int completedDepth = 0;
 	int deepSearch = 0;
+	int bestMoveValue = 0;
+	SearchStats stats = new SearchStats();	// counters of the current search
+	private volatile SearchStats lastStats = new SearchStats();
 
 	enum MoveResult {
 		TWO_SQUARES,
@@ -116,21 +184,98 @@ public class AI implements Runnable
 		engine = u;
 	}
 	
-	public void getMove() 
+	// Searches for a move on the shared pool and returns it
+	// through CompControls.aiReturnMove().
+	// If the search fails (e.g. the pool queue is full), no move
+	// is returned; the failure is in the returned future.
+	public CompletableFuture<Move> getMove() 
+	{
+		CompletableFuture<Move> f = getMoveAsync();
+		f.thenAccept(m -> engine.aiReturnMove(m));
+		return f;
+	}
+
+	// Searches for a move on the shared pool.
+	// The future completes with the move, or null if the AI
+	// has no move.  Cancelling the future (or completing it
+	// by other means, such as orTimeout()) stops the search.
+	// The move is not made on the board.
+	public CompletableFuture<Move> getMoveAsync()
+	{
+		return getMoveAsync(0);
+	}
+
+	// As getMoveAsync(), but the search stops when it has a move
+	// after time ms instead of after its Settings.aiLevel time,
+	// so the caller sets the time of each search (e.g. by game).
+	// The time starts when the search starts, not while it
+	// waits in the pool queue (see getSearchStats() for
+	// the time it took).
+	public CompletableFuture<Move> getMoveAsync(final long time)
+	{
+		final CompletableFuture<Move> future = new CompletableFuture<Move>();
+		future.whenComplete((m, e) -> cancel(future));
+		try {
+			executor.execute(() -> {
+				searchLock.lock();
+				try {
+					begin(future);
+					if (future.isDone())
+						return;
+					int m = search(time);
+					if (m == -1)
+						future.completeExceptionally(
+							new IllegalStateException("no move found"));
+					else
+						future.complete(toMove(m));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					begin(null);
+					searchLock.unlock();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	// the search for future f is starting (or no future if null)
+	private synchronized void begin(CompletableFuture<Move> f)
 	{
-		new Thread(this).start();
+		current = f;
+		cancelled = f != null && f.isDone();
+	}
+
+	// stop the search if it is the search for future f
+	private synchronized void cancel(CompletableFuture<Move> f)
+	{
+		if (current == f)
+			cancelled = true;
+	}
+
+	// Statistics of the last completed search.
+	// (SearchStats.getTotal() has the totals of all searches.)
+	public SearchStats getSearchStats()
+	{
+		return lastStats;
 	}
 	
 	public void getBoardSetup() throws IOException
 	{
-		if (Settings.debugLevel != 0)
-			log = new PrintWriter("ai.out", "UTF-8");
+		if (Settings.debugLevel != 0 && log == null)
+			log = new PrintWriter(new AsyncWriter(
+				new OutputStreamWriter(new FileOutputStream("ai.out"), "UTF-8"),
+				"ai.out"));
+		if (Settings.searchTrace && trace == null)
+			trace = SearchTrace.get();
 	
 		File f = new File("ai.cfg");
 		BufferedReader cfg;
 		if(!f.exists()) {
 			// f.createNewFile();
-			InputStream is = Class.class.getResourceAsStream("/com/cjmalloy/stratego/resource/ai.cfg");
+			InputStream is = AI.class.getResourceAsStream("/com/cjmalloy/stratego/resource/ai.cfg");
 			InputStreamReader isr = new InputStreamReader(is);
 			cfg = new BufferedReader(isr);
 		} else
@@ -155,7 +300,7 @@ public class AI implements Runnable
 			try
 			{
 				if(!f.exists()) {
-					InputStream is = Class.class.getResourceAsStream(opts[0]);
+					InputStream is = AI.class.getResourceAsStream(opts[0]);
 					InputStreamReader isr = new InputStreamReader(is);
 					in = new BufferedReader(isr);
 				} else 
@@ -179,7 +324,7 @@ public class AI implements Runnable
 						throw new Exception();
 					
 					for (int k=0;k<board.getTraySize();k++)
-						if (board.getTrayPiece(k).getColor() == Settings.topColor)
+						if (board.getTrayPiece(k).getColor() == board.topColor)
 						{
 							engine.aiReturnPlace(board.getTrayPiece(k), new Spot(x, y));
 							break;
@@ -214,7 +359,7 @@ public class AI implements Runnable
 		{
 			Piece p = null;
 			for (int k=0;k<board.getTraySize();k++)
-				if (board.getTrayPiece(k).getColor() == Settings.topColor)
+				if (board.getTrayPiece(k).getColor() == board.topColor)
 				{
 					p = board.getTrayPiece(k);
 					break;
@@ -243,18 +388,51 @@ public class AI implements Runnable
 		// engine.play();
 	}
 
-	public void run() 
+	private Move toMove(int m)
+	{
+		if (m == 0)
+			return null;
+		return new Move(board.getPiece(Move.unpackFrom(m)), Move.unpackFrom(m), Move.unpackTo(m));
+	}
+
+	// Searches the board for the best move, for time ms
+	// if it is not 0, or for the Settings.aiLevel time.
+	// Returns the packed move, 0 if the AI has no move
+	// or -1 if the search failed to find a move.
+	// The caller holds searchLock.
+	private int search(long time)
 	{
 		long startTime = System.currentTimeMillis();
-		aiLock.lock();
+		long cpu = threads.getCurrentThreadCpuTime();
+		AIMoveEvent event = new AIMoveEvent();
+		event.begin();
+		boolean aborted = false;
+		int result = -1;
+		logMoves = logging(DETAIL) || trace != null;
+		if (trace != null)
+			traceSearch = trace.begin();
 		log("Settings.aiLevel:" + Settings.aiLevel);
 		log("Settings.twoSquares:" + Settings.twoSquares);
 		log("blufferRisk:" + board.blufferRisk);
-		stopTime = startTime
-			+ Settings.aiLevel * Settings.aiLevel * 10;
-
-		b = new TestingBoard(board);
-		log(b.getDebugInfo());
+		if (time != 0)
+			stopTime = startTime + time;
+		else
+			stopTime = startTime
+				+ Settings.aiLevel * Settings.aiLevel * 10;
+
+		stats = new SearchStats();
+		stats.searches = 1;
+		// The search works on a copy of the board (the TestingBoard),
+		// so the board is locked only while the copy is made.
+		board.lock.lock();
+		try {
+			b = new TestingBoard(board);
+		} finally {
+			board.lock.unlock();
+		}
+		System.arraycopy(b.phaseNanos, 0, stats.phaseNanos, 0, SearchStats.PHASES);
+		if (logging(DETAIL))
+			log(b.getDebugInfo());
                 try
                 {
 		// Settings tick marks:
@@ -275,6 +453,7 @@ public class AI implements Runnable
 			getBestMove();
 		} catch (InterruptedException e) {
 			log("time aborted");
+			aborted = true;
                 } catch (Exception e) {
 			log("exception aborted");
 			e.printStackTrace();
@@ -284,22 +463,40 @@ public class AI implements Runnable
 			long t = System.currentTimeMillis() - startTime;
 			t = System.currentTimeMillis() - startTime;
 			log("getBestMove() returned at " + t + "ms");
+			stats.searchMillis = t;
+			if (cpu != -1)
+				stats.cpuNanos = threads.getCurrentThreadCpuTime() - cpu;
+			stats.completedDepth = completedDepth;
+			lastStats = stats;
+			SearchStats.getTotal().add(stats);
+			if (logging(DETAIL))
+				log(stats.toString());
+			if (event.shouldCommit()) {
+				event.depth = completedDepth;
+				event.nodes = stats.getNodes();
+				event.qsNodes = stats.qsNodes;
+				event.bestMove = logBestMove(board, 0, bestMove);
+				event.score = bestMoveValue;
+				event.aborted = aborted;
+				event.commit();
+			}
 			System.runFinalization();
 
 		// note: no assertions here, because they overwrite
 		// earlier assertions
 
 			if (bestMove == 0)
-				engine.aiReturnMove(null);
+				result = 0;
 			else if (bestMove == -1)
 				log("bestMove is erroneously -1");
 			else if (board.getPiece(Move.unpackFrom(bestMove)) == null)
  				log("bestMove from " + Move.unpackFrom(bestMove) + " to " + Move.unpackTo(bestMove) + " but from piece is null?");
 			else {
 				logFlush("----");
-				log(PV, logMove(board, 0, bestMove));
+				if (logging(PV))
+					log(PV, logMove(board, 0, bestMove));
 				// return the actual board move
-				engine.aiReturnMove(new Move(board.getPiece(Move.unpackFrom(bestMove)), Move.unpackFrom(bestMove), Move.unpackTo(bestMove)));
+				result = bestMove;
 			}
 
 			logFlush("\n----");
@@ -307,8 +504,8 @@ public class AI implements Runnable
 			long t2 = System.currentTimeMillis() - startTime;
 			t2 = System.currentTimeMillis() - startTime;
 			log("exit getBestMove() at " + t2 + "ms");
-			aiLock.unlock();
 		}
+		return result;
 	}
 
 	private void addMove(ArrayList<Integer> moveList, int m)
@@ -405,17 +602,15 @@ public class AI implements Runnable
 	{
 		for (int d : dir ) {
 			int t = i + d ;
-			Piece p = b.getPiece(t);
-			if (p != null)
+			if (!b.sgrid.isEmpty(t))
 				continue;
 
 			do {
 				t += d;
-				p = b.getPiece(t);
-			} while (p == null);
+			} while (b.sgrid.isEmpty(t));
 
-			if (p.getColor() == 1 - b.bturn
-				&& b.isNineTarget(p))
+			if (b.sgrid.color(t) == 1 - b.bturn
+				&& b.isNineTarget(b.getPiece(t)))
 				addMove(moveList, i, t);
 		}
 	}
@@ -424,9 +619,7 @@ public class AI implements Runnable
 	{
 		for (int d : dir ) {
 			int t = i + d ;
-			Piece tp = b.getPiece(t);
-			if (tp == null
-				|| tp.getColor() == 1 - b.bturn)
+			if (b.sgrid.isOpen(b.bturn, t))
 				addMove(moveList, i, t);
 		} // d
 	}
@@ -508,7 +701,7 @@ public class AI implements Runnable
 	boolean genSafe(int i, boolean unsafe, BitGrid unprunedGrid)
 	{
 		int dir = -11;
-		if (b.bturn == Settings.bottomColor)
+		if (b.bturn == b.bottomColor)
 			dir = 11;
 			
 		Piece p = b.getPiece(i);
@@ -535,7 +728,7 @@ public class AI implements Runnable
 	{
 		final int[] lanes = { 111, 112, 115, 116, 119, 120 };
 		for (int lane : lanes) {
-			if (b.bturn == Settings.bottomColor)
+			if (b.bturn == b.bottomColor)
 				lane -= 99;
 			genSafe(lane, false, unprunedGrid);
 		}
@@ -650,7 +843,7 @@ public class AI implements Runnable
 		//
 		// Prior to version 9.6, all moves by valuable pieces
 		// were allowed:
-		// 	allowAll = allowAll || (fpcolor == Settings.topColor
+		// 	allowAll = allowAll || (fpcolor == b.topColor
 		//			&& unknownNinesAtLarge > 0
 		//			&& b.isNineTarget(fp)));
 		//
@@ -872,7 +1065,6 @@ public class AI implements Runnable
 	private void getBestMove() throws InterruptedException
 	{
 		int tmpM = 0;
-		int bestMoveValue = 0;
 		int ncount = 0;
 
 		// Because of substantial pre-processing before each move,
@@ -903,6 +1095,8 @@ public class AI implements Runnable
 		completedDepth = 0;
 
 		genDeepSearch();
+		if (deepSearch != 0)
+			stats.deepSearches++;
 
         // On non-dedicated computers, the amount of resource
         // available to the AI will vary from move to move
@@ -920,6 +1114,7 @@ public class AI implements Runnable
 		TTEntry entry = ttable[b.bturn][index];
 
         bestMove = 0;
+        bestMoveValue = 0;
 		if (entry != null
             && entry.hash == hashOrig
             && !lastMoveInfo()
@@ -936,8 +1131,15 @@ public class AI implements Runnable
 
 		Move killerMove = new Move(null, -1);
 		Move returnMove = new Move(null, -1);
-
-		log(DETAIL, "\n>>> pick best move");
+		SearchIterationEvent iteration = new SearchIterationEvent();
+		iteration.begin();
+		long nodes = 0;
+		boolean singular = false;
+		if (iteration.isEnabled())
+			nodes = stats.getNodes();
+
+		if (logging(DETAIL))
+			log(DETAIL, "\n>>> pick best move");
 		int vm = negamax(n, -22222, 22222, killerMove, returnMove); 
 
 		completedDepth = n;
@@ -1008,12 +1210,16 @@ public class AI implements Runnable
 		// best move or new best move.
 
 			log(">>> singular extension");
+			stats.singularExtensions++;
+			singular = true;
 
-			logMove(n+2, bestMovePly, b.getValue(), MoveType.SGE);
+			if (logMoves)
+				logMove(n+2, bestMovePly, b.getValue(), MoveType.SGE);
 			MoveResult mt = makeMove(bestMovePly);
 			vm = -negamax(n+1, -22222, 22222, killerMove, returnMove); 
 			b.undo();
-			log(DETAIL, " " + b.boardValue(vm));
+			if (logging(DETAIL))
+				log(DETAIL, " " + b.boardValue(vm));
 
 
 		// The new move is kept until the ply deepens beyond the depth
@@ -1031,8 +1237,11 @@ public class AI implements Runnable
 				bestMoveValue = vm;
 				ncount = 2;
 			} else {
-				log(PV, "\nPV:" + n + " " + vm + " < " + bestMoveValue + "," + bestMovePlyValue + ": best move discarded.\n");
+				if (logging(PV))
+					log(PV, "\nPV:" + n + " " + vm + " < " + bestMoveValue + "," + bestMovePlyValue + ": best move discarded.\n");
+				stats.singularDiscarded++;
 				log("<<< singular extension");
+				iterationEvent(iteration, n, nodes, bestMovePly, vm, true, true);
 				continue;
 			}
 
@@ -1042,11 +1251,27 @@ public class AI implements Runnable
 			hh[bestMove]+=n;
 		log("\n-+++-");
 
-		log(PV, "PV:" + n + " " + vm + "\n");
-		logPV(Settings.topColor, n);
+		if (logging(PV)) {
+			log(PV, "PV:" + n + " " + vm + "\n");
+			logPV(b.topColor, n);
+		}
+		iterationEvent(iteration, n, nodes, bestMove, bestMoveValue, singular, false);
 		} // iterative deepening
 	}
 
+	private void iterationEvent(SearchIterationEvent e, int n, long nodes, int move, int vm, boolean singular, boolean discarded)
+	{
+		if (!e.shouldCommit())
+			return;
+		e.depth = n;
+		e.nodes = stats.getNodes() - nodes;
+		e.bestMove = logBestMove(b, n, move);
+		e.score = vm;
+		e.singularExtension = singular;
+		e.discarded = discarded;
+		e.commit();
+	}
+
 	// Quiescence Search (qs)
 	// Deepening the tree to evaluate worthwhile captures
 	// and flee moves.  The search ends when the position becomes
@@ -1143,6 +1368,7 @@ public class AI implements Runnable
 
 	private int qs(int n, int alpha, int beta)
 	{
+		stats.qsNodes++;
 		int bvalue = b.boardValue(b.getValue());
         
 		if (n < 1)
@@ -1482,7 +1708,9 @@ public class AI implements Runnable
 		if ((entry.depth > n || bestmove == -1)
 			&& moveRoot == entry.moveRoot
 			&& entry.bestMove != -1) {
-			log(DETAIL, " collision " + index);
+			if (logging(DETAIL))
+				log(DETAIL, " collision " + index);
+			stats.ttCollisions++;
 			return;
 		}
 
@@ -1515,16 +1743,30 @@ public class AI implements Runnable
 			entry.exactValue = vm;
 		}
 
-		log(DETAIL, " " + entryFlags.toString().substring(0,1) + " " + index);
+		if (logging(DETAIL))
+			log(DETAIL, " " + entryFlags.toString().substring(0,1) + " " + index);
 	}
 
 	// Note: negamax is split into two parts
 	// Part 1: check transposition table and qs
 	// Part 2: check killer move and if necessary, iterate through movelist
+	// (negamax() itself only records the node in the trace, if on)
 
 	private int negamax(int n, int alpha, int beta, Move killerMove, Move returnMove) throws InterruptedException
 	{
-		if (bestMove != 0
+		if (trace == null)
+			return negamax1(n, alpha, beta, killerMove, returnMove);
+
+		trace.node(traceSearch, b.depth + 1, getHash(), alpha, beta);
+		int vm = negamax1(n, alpha, beta, killerMove, returnMove);
+		trace.value(traceSearch, b.depth + 1, vm, returnMove.getMove());
+		return vm;
+	}
+
+	private int negamax1(int n, int alpha, int beta, Move killerMove, Move returnMove) throws InterruptedException
+	{
+		if (cancelled
+			|| bestMove != 0
 			&& stopTime != 0
 			&& System.currentTimeMillis( ) > stopTime) {
 
@@ -1535,10 +1777,14 @@ public class AI implements Runnable
 			for (int i = 0; i <= depth; i++)
 				b.undo();
 
-			log(String.format("abort at %d", depth));
+			if (logging(DETAIL))
+				log(String.format("abort at %d", depth));
 			throw new InterruptedException();
 		}
 
+		stats.node(b.depth);
+		stats.ttProbes++;
+
 		long hashOrig = getHash();
 		int index = (int)(hashOrig % ttable[b.bturn].length);
 		TTEntry entry = ttable[b.bturn][index];
@@ -1585,12 +1831,15 @@ public class AI implements Runnable
 
 		} else if (entry.hash == hashOrig
 			&& moveRoot == entry.moveRoot) {
+			stats.ttHits++;
 			if (entry.depth >= n) {
 				if (entry.exactDepth >= n) {
 					returnMove.setMove(entry.bestMove);
 					if (entry.bestMove != 0)
 						killerMove.setMove(entry.bestMove);
-					log(DETAIL, " exact " + index + " " + b.boardValue(entry.exactValue));
+					if (logging(DETAIL))
+						log(DETAIL, " exact " + index + " " + b.boardValue(entry.exactValue));
+					stats.ttExactHits++;
 					return entry.exactValue;
 				} else {
 				if (entry.flags == TTEntry.Flags.LOWERBOUND)
@@ -1601,7 +1850,9 @@ public class AI implements Runnable
 					returnMove.setMove(entry.bestMove);
 					if (entry.bestMove != 0)
 						killerMove.setMove(entry.bestMove);
-					log(DETAIL, " cutoff " + index + " " + b.boardValue(entry.bestValue));
+					if (logging(DETAIL))
+						log(DETAIL, " cutoff " + index + " " + b.boardValue(entry.bestValue));
+					stats.ttCutoffs++;
 					return entry.bestValue;
 				}
 				}
@@ -1741,6 +1992,7 @@ public class AI implements Runnable
 		int bestValue = -22222;
 		Move kmove = new Move(null, -1);
 		int bestmove = -1;
+		int tried = 0;	// moves searched (see SearchStats.cutoff())
 
 		// Version 10.3 fixes a bug by skipping the TE and KM
 		// if they fall outside the pruning area.   This caused moves
@@ -1764,7 +2016,8 @@ public class AI implements Runnable
 
 			// assert isValidMove(ttMove) : n + ":" + ttMove + " bad tt entry";
 
-			logMove(n, ttMove, b.getValue(), MoveType.TE);
+			if (logMoves)
+				logMove(n, ttMove, b.getValue(), MoveType.TE);
 			MoveResult mt = makeMove(ttMove);
 			if (mt == MoveResult.OK) {
 
@@ -1772,11 +2025,14 @@ public class AI implements Runnable
 
 				b.undo();
 
-				log(DETAIL, " " + b.boardValue(vm));
+				if (logging(DETAIL))
+					log(DETAIL, " " + b.boardValue(vm));
 
 				alpha = Math.max(alpha, vm);
 
 				if (alpha >= beta) {
+					stats.cutoff(b.depth, tried);
+					stats.ttMoveCutoffs++;
 					hh[ttMove]+=n;
 					returnMove.setMove(ttMove);
 					if (ttMove != 0)
@@ -1786,7 +2042,8 @@ public class AI implements Runnable
 
 				bestValue = vm;
 				bestmove = ttMove;
-			} else
+				tried++;
+			} else if (logging(DETAIL))
 				log(DETAIL, " " + mt);
 
 		} // ttmove
@@ -1805,12 +2062,15 @@ public class AI implements Runnable
 		if (km != -1
 			&& km != ttMove
 			&& isValidMove(unpruned, km)) {
-			logMove(n, km, b.getValue(), MoveType.KM);
+			if (logMoves)
+				logMove(n, km, b.getValue(), MoveType.KM);
 			MoveResult mt = makeMove(km);
 			if (mt == MoveResult.OK) {
+				stats.killerMoves++;
 				int vm = -negamax(n-1, -beta, -alpha, kmove, returnMove);
 				b.undo();
-				log(DETAIL, " " + b.boardValue(vm));
+				if (logging(DETAIL))
+					log(DETAIL, " " + b.boardValue(vm));
 				
 				if (vm > bestValue) {
 					bestValue = vm;
@@ -1820,18 +2080,22 @@ public class AI implements Runnable
 				alpha = Math.max(alpha, vm);
 
 				if (alpha >= beta) {
+					stats.cutoff(b.depth, tried);
+					stats.killerCutoffs++;
 					hh[km]+=n;
 					returnMove.setMove(km);
 					return bestValue;
 				}
-			} else
+				tried++;
+			} else if (logging(DETAIL))
 				log(DETAIL, " " + mt);
 		} // killer move
 
 		if (b.depth == -1) {
 			if (isPruned) {
 
-			log(DETAIL, "\n>>> pick best pruned move");
+			if (logging(DETAIL))
+				log(DETAIL, "\n>>> pick best pruned move");
 
 		// If any moves were pruned off, choose the best looking one
 		// and then evaluate it along with the non-pruned moves
@@ -1894,7 +2158,8 @@ public class AI implements Runnable
 			int bestPrunedMove = -1;
 			for (int mo = 0; mo <= INACTIVE; mo++)
 			for (int move : moveList[mo]) {
-				logMove(2, move, 0, MoveType.PR);
+				if (logMoves)
+					logMove(2, move, 0, MoveType.PR);
 				MoveResult mt = makeMove(move);
 				if (mt == MoveResult.OK) {
 
@@ -1913,15 +2178,18 @@ public class AI implements Runnable
 						bestPrunedMove = move;
 					}
 					b.undo();
-					log(DETAIL, " " + b.boardValue(vm));
-				} else
+					if (logging(DETAIL))
+						log(DETAIL, " " + b.boardValue(vm));
+				} else if (logging(DETAIL))
 					log(DETAIL, " " + mt);
 			} // moves
-			log(DETAIL, "\n<< pick best pruned move\n");
+			if (logging(DETAIL))
+				log(DETAIL, "\n<< pick best pruned move\n");
 
 			if (bestPrunedMove != -1) {
 
-			logMove(n, bestPrunedMove, b.getValue(), MoveType.PR);
+			if (logMoves)
+				logMove(n, bestPrunedMove, b.getValue(), MoveType.PR);
 			MoveResult mt = makeMove(bestPrunedMove);
 			assert mt == MoveResult.OK : "Pruned move tested OK above?";
 
@@ -1929,7 +2197,8 @@ public class AI implements Runnable
 
 			b.undo();
 
-			log(DETAIL, " " + b.boardValue(vm));
+			if (logging(DETAIL))
+				log(DETAIL, " " + b.boardValue(vm));
 
 			if (vm > bestValue) {
 				bestValue = vm;
@@ -1938,11 +2207,13 @@ public class AI implements Runnable
 			alpha = Math.max(alpha, vm);
 
 			if (alpha >= beta) {
+				stats.cutoff(b.depth, tried);
 				hh[bestmove]+=n;
 				returnMove.setMove(bestmove);
 				return bestValue;
 			}
 
+			tried++;
 			} // pruned move found
 			} // isPruned
 
@@ -2017,10 +2288,12 @@ public class AI implements Runnable
 						|| max == km))
 					continue;
 
-				logMove(n, max, b.getValue(), MoveType.GE);
+				if (logMoves)
+					logMove(n, max, b.getValue(), MoveType.GE);
 				MoveResult mt = makeMove(max);
 				if (!(mt == MoveResult.OK)) {
-					log(DETAIL, " " + mt);
+					if (logging(DETAIL))
+						log(DETAIL, " " + mt);
 					continue;
 				}
 
@@ -2028,7 +2301,8 @@ public class AI implements Runnable
 
 				b.undo();
 
-				log(DETAIL, " " + b.boardValue(vm));
+				if (logging(DETAIL))
+					log(DETAIL, " " + b.boardValue(vm));
 
 				if (vm > bestValue) {
 					bestValue = vm;
@@ -2039,8 +2313,10 @@ public class AI implements Runnable
 
 				if (alpha >= beta) {
 					assert bestValue == vm : "bestvalue not vm?";
+					stats.cutoff(b.depth, tried);
 					break outerloop;
 				}
+				tried++;
 			} // moveList
 		} // move order
 
@@ -2076,6 +2352,15 @@ public class AI implements Runnable
 	}
 
 	private MoveResult makeMove(int tryMove)
+	{
+		MoveResult mt = makeMove2(tryMove);
+		stats.moveResult(mt);
+		if (trace != null && mt != MoveResult.OK)
+			trace.reject(traceSearch, b.depth + 1, tryMove, mt);
+		return mt;
+	}
+
+	private MoveResult makeMove2(int tryMove)
 	{
 		// NOTE: FORWARD TREE PRUNING (minor)
 		// isRepeatedPosition() discards repetitive moves.
@@ -2107,7 +2392,7 @@ public class AI implements Runnable
 		// even if box is not checked (AI plays nice).
 
 		if (Settings.twoSquares
-			|| b.bturn == Settings.topColor) {
+			|| b.bturn == b.topColor) {
 
 		// Note that a possible two squares result can occur
 		// even if the piece does not have an adjacent attacker.
@@ -2125,7 +2410,7 @@ public class AI implements Runnable
 			else {
                 if (b.depth > 1 && b.isPointlessChase(tryMove))
                     return MoveResult.POINTLESS_CHASE;
-				if (b.bturn == Settings.topColor) {
+				if (b.bturn == b.topColor) {
 
 	// Because isRepeatedPosition() is more restrictive
 	// than More Squares, the AI does not expect
@@ -2156,7 +2441,8 @@ public class AI implements Runnable
 					|| m.getPiece().getRank() == Rank.NINE)) {
 				Piece tp = b.getPiece(Move.unpackTo(tryMove));
 				if (tp == m.tp) {	// lost the attack
-                    log(DETAIL, " " + b.getValue());
+                    if (logging(DETAIL))
+                        log(DETAIL, " " + b.getValue());
 					b.undo();
 					return MoveResult.NEG;
 				}
@@ -2279,7 +2565,7 @@ public class AI implements Runnable
 		final int MAX_STEPS2 = 4;
 
 		BitGrid bg = new BitGrid();
-		b.grid.getMovablePieces(Settings.topColor, bg);
+		b.grid.getMovablePieces(b.topColor, bg);
 
 		for (int bi = 0; bi < 2; bi++) {
 			int k;
@@ -2313,14 +2599,14 @@ public class AI implements Runnable
 			if (fp.getRank() == Rank.NINE)
 				continue;
 
-			if (!b.grid.isCloseToEnemy(Settings.topColor, fp.getIndex(), MAX_STEPS))
+			if (!b.grid.isCloseToEnemy(b.topColor, fp.getIndex(), MAX_STEPS))
 				continue;
 
 			int attackers = 0;
 			int maxsteps = 0;
 
 			BitGrid tbg = new BitGrid();
-			b.grid.getMovablePieces(Settings.bottomColor, tbg);
+			b.grid.getMovablePieces(b.bottomColor, tbg);
 
 			for (int tbi = 0; tbi < 2; tbi++) {
 				int tk;
@@ -2384,7 +2670,7 @@ public class AI implements Runnable
 		// if the AI still has its Spy
 
 				if (tp.getRank() == Rank.ONE
-					&& b.hasSpy(Settings.topColor)
+					&& b.hasSpy(b.topColor)
 					&& !fp.isKnown())
 					continue;
 
@@ -2556,20 +2842,37 @@ public class AI implements Runnable
 	return s;
 	}
 
+	String logBestMove(Board b, int n, int move)
+	{
+		if (move == -1)
+			return "(none)";
+		return logMove(b, n, move);
+	}
+
 	void logMove(int n, int move, int valueB, MoveType mt)
 	{
-		if (Settings.debugLevel >= DETAIL)
+		if (trace != null)
+			trace.move(traceSearch, b.depth + 1, move, valueB, mt, b);
+		if (logging(DETAIL))
 			log.print( "\n" + n + ":" + logMove(b, n, move) + " " + valueB + " " + mt);
 	}
 
 	public void logMove(Move m)
 	{
-		log(PV, logMove(board, 0, m.getMove()) + "\n");
+		if (logging(PV))
+			log(PV, logMove(board, 0, m.getMove()) + "\n");
+	}
+
+	// Callers check logging() before building an expensive
+	// log string, so that nothing is built when the log is off.
+	private boolean logging(int level)
+	{
+		return Settings.debugLevel >= level && log != null;
 	}
 
 	private void log(int level, String s)
 	{
-		if (Settings.debugLevel >= level)
+		if (logging(level))
 			log.print(s);
 	}
 
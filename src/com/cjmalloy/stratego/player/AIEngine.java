@@ -18,8 +18,11 @@
 package com.cjmalloy.stratego.player;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Engine;
@@ -32,10 +35,30 @@ import com.cjmalloy.stratego.View;
 
 
 
+//
+// During play, the board is changed only by the writer thread.
+// User moves, undo and AI moves are queued to it in order,
+// so the UI thread never waits for the AI.  The AI searches
+// a copy of the board (see AI.search()), and the writer waits
+// for the AI move before it applies the next user move, so a
+// user move made while the AI is thinking is applied after
+// the AI move, as before.
+//
+// The writer only changes the board.  The view is told of the
+// changes on the event dispatch thread (as in Client), and reads
+// the board there under board.lock, which the board holds while
+// it changes.  The only view call on the writer is moveInit(),
+// which comes before the AI move is made (AITest answers it).
+//
 public class AIEngine extends Engine implements CompControls, UserControls
 {
 	private View view = null;
 	private AI ai = null;
+	private ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "board writer");
+		t.setDaemon(true);
+		return t;
+	});
 	
 	public AIEngine(View v)
 	{
@@ -58,8 +81,17 @@ public class AIEngine extends Engine implements CompControls, UserControls
 	public void play()
 	{
                 if (status == Status.PLAYING) {
-                        board.undoLastMove();
-                        update();
+			writer.execute(() -> {
+				if (status != Status.PLAYING)
+					return;
+				board.lock.lock();
+				try {
+					board.undoLastMove();
+				} finally {
+					board.lock.unlock();
+				}
+				update();
+			});
 			return;
                 }
 
@@ -90,7 +122,20 @@ public class AIEngine extends Engine implements CompControls, UserControls
 	private void requestCompMove()
 	{
 		assert (status == Status.PLAYING) : "requestCompMove but not playing?";
-		ai.getMove();
+		writer.execute(() -> compMove());
+	}
+
+	// runs on the writer thread
+	private void compMove()
+	{
+		Move m;
+		try {
+			m = ai.getMoveAsync().join();
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		aiReturnMove(m);
 	}
 	
 	public void requestUserMove(Move m)
@@ -103,30 +148,30 @@ public class AIEngine extends Engine implements CompControls, UserControls
 					setupPlacePiece(m.getPiece(), new Spot(m.getToX(), m.getToY()));
 		}
 		else
-		{
-			if (Settings.bShowAll)
-				board.showAll();
-			else if (!Settings.bNoHideAll)
-				board.hideAll();
+			writer.execute(() -> userMove(m));
+	}
 
-			// wait for the ai to finish
-			ai.aiLock.lock();
-			ai.aiLock.unlock();
+	// runs on the writer thread, after any AI move in progress
+	private void userMove(Move m)
+	{
+		if (Settings.bShowAll)
+			board.showAll();
+		else if (!Settings.bNoHideAll)
+			board.hideAll();
+
+		// perhaps the ai move finished the game
+		if (status != Status.PLAYING)
+			return;
 
-			// perhaps the ai move finished the game
+		ai.logMove(m);
+		if (requestMove(m, view.isActive())) {
+			// perhaps the move finished the game
 			if (status != Status.PLAYING)
 				return;
-
-			ai.logMove(m);
-			if (requestMove(m, view.isActive())) {
-				// perhaps the move finished the game
-				if (status != Status.PLAYING)
-					return;
-				update();
-				requestCompMove();
-			} else
-				ai.logFlush("ILLEGAL MOVE");
-		}
+			update();
+			compMove();
+		} else
+			ai.logFlush("ILLEGAL MOVE");
 	}
 
 	public void aiReturnMove(Move m)
@@ -136,8 +181,7 @@ public class AIEngine extends Engine implements CompControls, UserControls
 			ai.logFlush("AI trapped");
 			status = Status.STOPPED;
 			board.showAll();
-			view.setPlayMode();
-			view.gameOver(Settings.bottomColor);
+			gameOver(Settings.bottomColor);
 			return;
 		}
 
@@ -151,7 +195,7 @@ public class AIEngine extends Engine implements CompControls, UserControls
 			ai.logFlush("<--ILLEGAL MOVE");
 		}
 
-		view.moveComplete(m);
+		viewLater(() -> view.moveComplete(m));
 	}
 	
 	public void aiReturnPlace(Piece p, Spot s)
@@ -164,15 +208,31 @@ public class AIEngine extends Engine implements CompControls, UserControls
 	@Override
 	protected void gameOver(int winner)
 	{
-		view.setPlayMode();
-		view.gameOver(winner);
+		SwingUtilities.invokeLater(() -> {
+			view.setPlayMode();
+			view.gameOver(winner);
+		});
 	}
 
 	@Override
 	protected void update()
 	{
-                board.lock.lock();
-		view.update();
-                board.lock.unlock();
+		viewLater(() -> view.update());
+	}
+
+	// Runs a view call that reads the board on the event dispatch
+	// thread.  The view copies the pieces into its buttons under
+	// the lock, so it sees no half made move, and paints them
+	// later without it.
+	private void viewLater(Runnable r)
+	{
+		SwingUtilities.invokeLater(() -> {
+			board.lock.lock();
+			try {
+				r.run();
+			} finally {
+				board.lock.unlock();
+			}
+		});
 	}
 }
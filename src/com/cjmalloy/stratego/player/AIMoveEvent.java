@@ -0,0 +1,61 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//
+// Java Flight Recorder event for an AI move (AI.run()).
+// Like the other Stratego events, it is disabled by default;
+// enable it with a JFR settings file or
+// -XX:StartFlightRecording:settings=... so that slow moves
+// can be correlated with GC and CPU activity in the same recording.
+//
+@Name("com.cjmalloy.stratego.AIMove")
+@Label("AI Move")
+@Category({"Stratego", "AI"})
+@Description("Search for one AI move")
+@Enabled(false)
+@StackTrace(false)
+class AIMoveEvent extends Event
+{
+	@Label("Completed Depth")
+	int depth;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("QS Nodes")
+	long qsNodes;
+
+	@Label("Best Move")
+	String bestMove;
+
+	@Label("Score")
+	int score;
+
+	@Label("Aborted")
+	@Description("The search ran out of time")
+	boolean aborted;
+}
@@ -19,6 +19,9 @@ package com.cjmalloy.stratego.player;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
 
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Move;
@@ -28,17 +31,57 @@ import com.cjmalloy.stratego.Spot;
 import com.cjmalloy.stratego.server.shared.ClientConnection;
 import com.cjmalloy.stratego.server.shared.Connection;
 import com.cjmalloy.stratego.server.shared.Message;
-import com.cjmalloy.stratego.server.shared.MessageHandler;
-
+import com.cjmalloy.stratego.server.shared.PacketHandler;
 
-public class Client implements MessageHandler
+//
+// The board of a network game is sent as GRID and TRAY
+// messages, all 180 of them at the start of a game and the few
+// that changed after a move (see Game.update()).  The reading
+// thread decodes them into cells, the code of each square and
+// tray slot ((color + 1) << 8 | rank, as the server codes
+// them), and at the end of the packet the cells that changed are
+// applied to the view in one task on the event dispatch thread.
+// So a packet is shown all at once, only the buttons of the
+// changed cells are redrawn, and the view is only touched on
+// the event dispatch thread.
+//
+// The other messages are run on the event dispatch thread too,
+// after the board changes read before them.
+//
+public class Client implements PacketHandler
 {
+	static private final int TRAY = 100;	// then 40 slots of each color
+	static private final int CELLS = TRAY + 80;
+	static private final int UNSENT = -1;
+
+	static private final Rank[] ranks = Rank.values();
+	static private final Spot[] spots = new Spot[100];
+	static
+	{
+		for (int i=0;i<100;i++)
+			spots[i] = new Spot(i/10, i%10);
+	}
+
 	private WView view = null;
 	private Connection conn = ClientConnection.getInstance();
+
+	// read by the reading thread only
+	private final int[] cells = new int[CELLS];
+	private final boolean[] dirty = new boolean[CELLS];
+	private final int[] changed = new int[CELLS];	// dirty cells, in order
+	private int nchanged = 0;
+
+	private final Runnable disconnected = new Runnable() {
+		public void run()
+		{
+			view.gameOver(-1);
+		}
+	};
 	
 	public Client(WView v)
 	{
 		view = v;
+		Arrays.fill(cells, UNSENT);
 		attach();
 	}
 	
@@ -48,33 +91,43 @@ public class Client implements MessageHandler
 		{
 			int x, y, color, rank;
 
-			switch (Message.values()[type])
+			switch (Message.get(type))
 			{
 			case SETUP:
-				x = in.readInt();
-				view.setColor(x);
+				final int c = in.readInt();
+				later(new Runnable() {
+					public void run()
+					{
+						view.setColor(c);
+					}
+				});
+				// a new game: its whole board follows
+				Arrays.fill(cells, UNSENT);
 				return true;
 			case GRID:
 				x = in.readInt();
 				y = in.readInt();
 				color = in.readInt();
 				rank = in.readInt();
-				// view.update(new Spot(x, y), new Piece(0, color, Rank.values()[rank]));
-				view.update(new Spot(x, y), new Piece(color, Rank.values()[rank]));
+				change(x*10 + y, color, rank);
 				return true;
 			case TRAY:
 				x = in.readInt();
 				color = in.readInt();
 				rank = in.readInt();
-				// view.update(Board.IN_TRAY, new Piece(x, color, Rank.values()[rank]));
-				view.update(Board.IN_TRAY, new Piece(color, Rank.values()[rank]));
+				change(TRAY + (color & 1)*40 + x, color, rank);
 				return true;
 			case GAMEOVER:
-				x = in.readInt();
-				view.gameOver(x);
+				final int winner = in.readInt();
+				later(new Runnable() {
+					public void run()
+					{
+						view.gameOver(winner);
+					}
+				});
 				return true;
 			case DISC:
-				bye();
+				later(disconnected);
 				return true;
 			default:
 				return false;
@@ -86,6 +139,64 @@ public class Client implements MessageHandler
 			return true; // stop message propagation
 		}
 	}
+
+	private void change(int cell, int color, int rank)
+	{
+		int code = (color + 1) << 8 | rank;
+		if (cells[cell] == code)
+			return;
+		cells[cell] = code;
+		if (!dirty[cell])
+		{
+			dirty[cell] = true;
+			changed[nchanged++] = cell;
+		}
+	}
+
+	public void endPacket()
+	{
+		if (nchanged == 0)
+			return;
+		final int[] c = new int[nchanged];
+		for (int i=0;i<nchanged;i++)
+		{
+			c[i] = changed[i] << 16 | cells[changed[i]];
+			dirty[changed[i]] = false;
+		}
+		nchanged = 0;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run()
+			{
+				apply(c);
+			}
+		});
+	}
+
+	// runs r on the event dispatch thread, after the changes
+	// read before it
+	private void later(Runnable r)
+	{
+		endPacket();
+		SwingUtilities.invokeLater(r);
+	}
+
+	// on the event dispatch thread
+	private void apply(int[] c)
+	{
+		for (int change: c)
+		{
+			int cell = change >>> 16;
+			int color = (change >> 8 & 0xff) - 1;
+			Rank rank = ranks[change & 0xff];
+			// the view takes the id of a tray piece as its slot
+			// (so Grid.UniqueID, the ids of the engine's
+			// pieces, is left alone)
+			if (cell < TRAY)
+				view.update(spots[cell], new Piece(0, color, rank));
+			else
+				view.update(Board.IN_TRAY, new Piece((cell - TRAY)%40, color, rank));
+		}
+	}
 	
 	public void attach()
 	{
@@ -97,9 +208,10 @@ public class Client implements MessageHandler
 		conn.unregister(this);
 	}
 	
+	// (on any thread)
 	public void bye()
 	{
-		view.gameOver(-1);
+		SwingUtilities.invokeLater(disconnected);
 	}
 	
 	public void newGame()
@@ -0,0 +1,42 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//
+// Java Flight Recorder event for a TestingBoard
+// pre-processing phase (see SearchStats.PHASE_*).
+//
+@Name("com.cjmalloy.stratego.Preprocess")
+@Label("Preprocess")
+@Category({"Stratego", "AI"})
+@Description("TestingBoard pre-processing phase")
+@Enabled(false)
+@StackTrace(false)
+class PreprocessEvent extends Event
+{
+	@Label("Phase")
+	String phase;
+}
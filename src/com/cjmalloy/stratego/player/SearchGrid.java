@@ -0,0 +1,99 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import com.cjmalloy.stratego.Grid;
+import com.cjmalloy.stratego.Piece;
+
+//
+// SearchGrid is the grid used by TestingBoard during the search.
+//
+// Each getPiece(i).getColor() is a pointer chase from the grid
+// to a TestPiece object, and the pieces are scattered on the heap.
+// Move generation only needs to know whether a square is empty
+// or whose piece is on it, so SearchGrid keeps the color of each
+// square in a primitive array, updated when a piece is placed
+// or removed.  The color of a piece never changes, so the array
+// cannot go stale when a piece is changed in place.
+//
+public class SearchGrid extends Grid
+{
+	// color() of an empty square; water squares are -1
+	static public final int EMPTY = 2;
+
+	protected byte[] color = new byte[133];
+
+	public SearchGrid(Grid g)
+	{
+		super(g);
+		for (int i = 0; i < 133; i++)
+			color[i] = EMPTY;
+		for (int i = 0; i < 133; i++)
+			load(i, g.getPiece(i));
+	}
+
+	public SearchGrid(SearchGrid g)
+	{
+		super(g);
+		copyState(g);
+	}
+
+	// Copies only the primitive piece state.
+	public void copyState(SearchGrid g)
+	{
+		System.arraycopy(g.color, 0, color, 0, 133);
+	}
+
+	private void load(int i, Piece p)
+	{
+		if (p == null)
+			color[i] = EMPTY;
+		else
+			color[i] = (byte)p.getColor();
+	}
+
+	@Override
+	public void setPiece(int i, Piece p)
+	{
+		super.setPiece(i, p);
+		load(i, p);
+	}
+
+	@Override
+	public void clearPiece(int i)
+	{
+		super.clearPiece(i);
+		load(i, null);
+	}
+
+	public int color(int i)
+	{
+		return color[i];
+	}
+
+	public boolean isEmpty(int i)
+	{
+		return color[i] == EMPTY;
+	}
+
+	// true if the square is empty or holds an opponent piece
+	public boolean isOpen(int turn, int i)
+	{
+		return color[i] == EMPTY || color[i] == 1 - turn;
+	}
+}
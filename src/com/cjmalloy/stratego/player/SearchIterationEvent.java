@@ -0,0 +1,59 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//
+// Java Flight Recorder event for an iteration of
+// iterative deepening in AI.getBestMove() (see AIMoveEvent).
+//
+@Name("com.cjmalloy.stratego.SearchIteration")
+@Label("Search Iteration")
+@Category({"Stratego", "AI"})
+@Description("One iteration of iterative deepening")
+@Enabled(false)
+@StackTrace(false)
+class SearchIterationEvent extends Event
+{
+	@Label("Depth")
+	int depth;
+
+	@Label("Nodes")
+	@Description("Nodes searched by the iteration")
+	long nodes;
+
+	@Label("Best Move")
+	String bestMove;
+
+	@Label("Score")
+	int score;
+
+	@Label("Singular Extension")
+	boolean singularExtension;
+
+	@Label("Discarded")
+	@Description("The singular extension discarded the new best move")
+	boolean discarded;
+}
@@ -0,0 +1,263 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.ObjectName;
+
+//
+// Search statistics.
+//
+// The AI counts into a SearchStats of its own during a search,
+// so the counters are plain fields incremented by the search
+// thread.  When the search ends, the counters are published
+// as the last search (AI.getSearchStats()) and added to
+// the totals (SearchStats.getTotal()), which are also
+// registered as a JMX MBean (see SearchStatsMXBean).
+//
+// Plies are numbered from the root (ply 0 is the AI move).
+//
+public class SearchStats implements SearchStatsMXBean
+{
+	static public final int PLIES = AI.MAX_PLY + 4;
+	static public final int CUTOFF_INDEXES = 16;
+
+	// TestingBoard pre-processing phases
+	static public final int PHASE_SUSPECTED = 0;	// genSuspectedRank, markWeakPieces
+	static public final int PHASE_PIECES = 1;	// piece copy and plans
+	static public final int PHASE_VALUES = 2;	// piece values and stealth
+	static public final int PHASE_FLAG = 3;		// unknown rank and flag safety
+	static public final int PHASE_RANKS = 4;	// invincible, flee and weak ranks
+	static public final int PHASE_CHASE = 5;	// chase, bombs and lanes
+	static public final int PHASE_UNMOVED = 6;	// unmoved values
+	static public final int PHASES = 7;
+	static final String[] phaseNames = {
+		"suspected", "pieces", "values", "flag",
+		"ranks", "chase", "unmoved"
+	};
+
+	static private final AI.MoveResult[] results = AI.MoveResult.values();
+	static private final SearchStats total = new SearchStats();
+	static private boolean registered = false;
+
+	long searches;
+	long[] nodes = new long[PLIES];
+	long qsNodes;
+	long ttProbes;
+	long ttHits;
+	long ttExactHits;
+	long ttCutoffs;
+	long ttCollisions;
+	long[] betaCutoffs = new long[PLIES];
+	long[] cutoffIndex = new long[CUTOFF_INDEXES];
+	long ttMoveCutoffs;
+	long killerMoves;
+	long killerCutoffs;
+	long[] moveResults = new long[results.length];
+	long singularExtensions;
+	long singularDiscarded;
+	long deepSearches;
+	long completedDepth;
+	long searchMillis;
+	long cpuNanos;	// thread CPU time of the searches
+	long[] phaseNanos = new long[PHASES];
+
+	// totals of all searches since the last reset
+	public static SearchStats getTotal()
+	{
+		register();
+		return total;
+	}
+
+	static synchronized void register()
+	{
+		if (registered)
+			return;
+		registered = true;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(total,
+				new ObjectName("com.cjmalloy.stratego:type=SearchStats"));
+		} catch (Exception e) {
+			// JMX is optional (e.g. not permitted by a security manager)
+		}
+	}
+
+	static int ply(int depth)
+	{
+		return Math.min(depth + 1, PLIES - 1);
+	}
+
+	void node(int depth)
+	{
+		nodes[ply(depth)]++;
+	}
+
+	// i is the number of moves tried at the node before
+	// the move that caused the cutoff
+	void cutoff(int depth, int i)
+	{
+		betaCutoffs[ply(depth)]++;
+		cutoffIndex[Math.min(i, CUTOFF_INDEXES - 1)]++;
+	}
+
+	void moveResult(AI.MoveResult mt)
+	{
+		moveResults[mt.ordinal()]++;
+	}
+
+	synchronized void add(SearchStats s)
+	{
+		searches += s.searches;
+		add(nodes, s.nodes);
+		qsNodes += s.qsNodes;
+		ttProbes += s.ttProbes;
+		ttHits += s.ttHits;
+		ttExactHits += s.ttExactHits;
+		ttCutoffs += s.ttCutoffs;
+		ttCollisions += s.ttCollisions;
+		add(betaCutoffs, s.betaCutoffs);
+		add(cutoffIndex, s.cutoffIndex);
+		ttMoveCutoffs += s.ttMoveCutoffs;
+		killerMoves += s.killerMoves;
+		killerCutoffs += s.killerCutoffs;
+		add(moveResults, s.moveResults);
+		singularExtensions += s.singularExtensions;
+		singularDiscarded += s.singularDiscarded;
+		deepSearches += s.deepSearches;
+		completedDepth = Math.max(completedDepth, s.completedDepth);
+		searchMillis += s.searchMillis;
+		cpuNanos += s.cpuNanos;
+		add(phaseNanos, s.phaseNanos);
+	}
+
+	static private void add(long[] a, long[] b)
+	{
+		for (int i = 0; i < a.length; i++)
+			a[i] += b[i];
+	}
+
+	static private long sum(long[] a)
+	{
+		long n = 0;
+		for (long v : a)
+			n += v;
+		return n;
+	}
+
+	public synchronized SearchStats copy()
+	{
+		SearchStats s = new SearchStats();
+		s.add(this);
+		return s;
+	}
+
+	public synchronized void reset()
+	{
+		SearchStats s = new SearchStats();
+		searches = 0;
+		nodes = s.nodes;
+		qsNodes = 0;
+		ttProbes = 0;
+		ttHits = 0;
+		ttExactHits = 0;
+		ttCutoffs = 0;
+		ttCollisions = 0;
+		betaCutoffs = s.betaCutoffs;
+		cutoffIndex = s.cutoffIndex;
+		ttMoveCutoffs = 0;
+		killerMoves = 0;
+		killerCutoffs = 0;
+		moveResults = s.moveResults;
+		singularExtensions = 0;
+		singularDiscarded = 0;
+		deepSearches = 0;
+		completedDepth = 0;
+		searchMillis = 0;
+		cpuNanos = 0;
+		phaseNanos = s.phaseNanos;
+	}
+
+	public synchronized long getSearches() { return searches; }
+	public synchronized long getNodes() { return sum(nodes); }
+	public synchronized long getQsNodes() { return qsNodes; }
+	public synchronized long[] getNodesPerPly() { return nodes.clone(); }
+	public synchronized long getTtProbes() { return ttProbes; }
+	public synchronized long getTtHits() { return ttHits; }
+	public synchronized long getTtExactHits() { return ttExactHits; }
+	public synchronized long getTtCutoffs() { return ttCutoffs; }
+	public synchronized long getTtCollisions() { return ttCollisions; }
+	public synchronized long getBetaCutoffs() { return sum(betaCutoffs); }
+	public synchronized long[] getBetaCutoffsPerPly() { return betaCutoffs.clone(); }
+	public synchronized long[] getCutoffsByMoveIndex() { return cutoffIndex.clone(); }
+	public synchronized long getTtMoveCutoffs() { return ttMoveCutoffs; }
+	public synchronized long getKillerMoves() { return killerMoves; }
+	public synchronized long getKillerCutoffs() { return killerCutoffs; }
+	public synchronized long getSingularExtensions() { return singularExtensions; }
+	public synchronized long getSingularExtensionsDiscarded() { return singularDiscarded; }
+	public synchronized long getDeepSearches() { return deepSearches; }
+	public synchronized long getMaxCompletedDepth() { return completedDepth; }
+	public synchronized long getSearchMillis() { return searchMillis; }
+	public synchronized long getCpuMillis() { return cpuNanos / 1000000; }
+
+	// number of moves rejected by makeMove(), by reason
+	// (OK is the number of moves accepted)
+	public synchronized Map<String, Long> getMoveResults()
+	{
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < results.length; i++)
+			m.put(results[i].toString(), moveResults[i]);
+		return m;
+	}
+
+	public synchronized Map<String, Long> getPreprocessingNanos()
+	{
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < PHASES; i++)
+			m.put(phaseNames[i], phaseNanos[i]);
+		return m;
+	}
+
+	public synchronized String toString()
+	{
+		long n = sum(nodes);
+		String s = "nodes:" + n + " qs:" + qsNodes
+			+ " depth:" + completedDepth
+			+ " ms:" + searchMillis
+			+ " cpu ms:" + cpuNanos / 1000000
+			+ "\ntt probes:" + ttProbes + " hits:" + ttHits
+			+ " exact:" + ttExactHits + " cutoffs:" + ttCutoffs
+			+ " collisions:" + ttCollisions
+			+ "\nbeta cutoffs:" + sum(betaCutoffs)
+			+ " tt move:" + ttMoveCutoffs
+			+ " killer:" + killerCutoffs + "/" + killerMoves
+			+ " by index:";
+		for (int i = 0; i < CUTOFF_INDEXES; i++)
+			s += " " + cutoffIndex[i];
+		s += "\nnodes by ply:";
+		for (int i = 0; i < PLIES && nodes[i] != 0; i++)
+			s += " " + nodes[i];
+		s += "\nmoves:" + getMoveResults()
+			+ "\nsingular extensions:" + singularExtensions
+			+ " discarded:" + singularDiscarded
+			+ " deep searches:" + deepSearches
+			+ "\npre-processing ns:" + getPreprocessingNanos();
+		return s;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.util.Map;
+
+//
+// JMX view of the search statistics (see SearchStats).
+// The counters are the totals of all searches since the
+// last reset, registered as com.cjmalloy.stratego:type=SearchStats.
+//
+public interface SearchStatsMXBean
+{
+	long getSearches();
+	long getNodes();
+	long getQsNodes();
+	long[] getNodesPerPly();
+	long getTtProbes();
+	long getTtHits();
+	long getTtExactHits();
+	long getTtCutoffs();
+	long getTtCollisions();
+	long getBetaCutoffs();
+	long[] getBetaCutoffsPerPly();
+	long[] getCutoffsByMoveIndex();
+	long getTtMoveCutoffs();
+	long getKillerMoves();
+	long getKillerCutoffs();
+	Map<String, Long> getMoveResults();
+	long getSingularExtensions();
+	long getSingularExtensionsDiscarded();
+	long getDeepSearches();
+	long getMaxCompletedDepth();
+	long getSearchMillis();
+	long getCpuMillis();
+	Map<String, Long> getPreprocessingNanos();
+	void reset();
+}
@@ -0,0 +1,295 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+
+//
+// Binary search tree trace.
+//
+// The ai.out text trace is too slow to leave on in real games.
+// SearchTrace records the search tree as fixed size binary
+// records in a memory mapped file that is used as a ring
+// buffer, so recording a record is a handful of stores
+// into the page cache, and the file holds the most recent
+// records of the most recent searches.
+//
+// The search records four kinds of events:
+//	MOVE	a move is tried (type is the MoveType)
+//	REJECT	makeMove() rejected the move (type is the MoveResult)
+//	NODE	negamax() is entered (hash, alpha, beta)
+//	VALUE	negamax() returns (value, best move)
+//
+// Each NODE is closed by a VALUE, and the MOVE preceding a NODE
+// is the move that led to it, so the tree can be rebuilt
+// from the order of the records (see main()).
+//
+// There is one trace per process (see get()), shared by every AI,
+// so AIs do not truncate each other's file.  Each search gets its
+// own number from begin() and tags its records with it.  Searches
+// can run at the same time, so their records may be interleaved
+// in the file, but the records of one search are in order.
+//
+// File layout (big endian):
+//	header (HEADER bytes)
+//		int magic, int version, int record size, int capacity,
+//		long records written
+//	records (RECORD bytes each), record n at n % capacity
+//		long hash, int move, int a, int b, int value,
+//		int search, byte ply, byte type, byte event, byte unused
+//
+// For MOVE, a is the board value and b is the from and to ranks
+// (ordinal + 1, 0 if none).  For VALUE, a is the best move.
+//
+// usage: java com.cjmalloy.stratego.player.SearchTrace [file [search]]
+//
+public class SearchTrace
+{
+	static public final String FILE = "ai.trace";
+	static public final int DEFAULT_CAPACITY = 1 << 19;	// 16MB of records
+
+	static final int MAGIC = 0x53545452;	// "STTR"
+	static final int VERSION = 1;
+	static final int HEADER = 64;
+	static final int RECORD = 32;
+
+	static final int MOVE = 0;
+	static final int REJECT = 1;
+	static final int NODE = 2;
+	static final int VALUE = 3;
+
+	static private SearchTrace trace = null;
+
+	private MappedByteBuffer buf;
+	private int capacity;
+	private long written;
+	private AtomicInteger search = new AtomicInteger();
+
+	// the trace of this process, created in FILE on first use
+	static public synchronized SearchTrace get() throws IOException
+	{
+		if (trace == null)
+			trace = new SearchTrace(FILE, DEFAULT_CAPACITY);
+		return trace;
+	}
+
+	public SearchTrace(String fn, int capacity) throws IOException
+	{
+		this.capacity = capacity;
+		RandomAccessFile f = new RandomAccessFile(fn, "rw");
+		try {
+			f.setLength(0);
+			buf = f.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				0, HEADER + (long)capacity * RECORD);
+		} finally {
+			f.close();	// the mapping remains valid
+		}
+		buf.putInt(0, MAGIC);
+		buf.putInt(4, VERSION);
+		buf.putInt(8, RECORD);
+		buf.putInt(12, capacity);
+		buf.putLong(16, 0);
+	}
+
+	// start of a new search (a new AI move), returns its number
+	public int begin()
+	{
+		return search.incrementAndGet();
+	}
+
+	private synchronized void put(int search, int event, int ply, int type,
+		long hash, int move, int a, int b, int value)
+	{
+		int p = HEADER + (int)(written % capacity) * RECORD;
+		buf.putLong(p, hash);
+		buf.putInt(p + 8, move);
+		buf.putInt(p + 12, a);
+		buf.putInt(p + 16, b);
+		buf.putInt(p + 20, value);
+		buf.putInt(p + 24, search);
+		buf.put(p + 28, (byte)ply);
+		buf.put(p + 29, (byte)type);
+		buf.put(p + 30, (byte)event);
+		written++;
+		buf.putLong(16, written);
+	}
+
+	static private int rank(Piece p)
+	{
+		if (p == null)
+			return 0;
+		return p.getRank().ordinal() + 1;
+	}
+
+	public void move(int search, int ply, int move, int value, AI.MoveType mt, TestingBoard b)
+	{
+		int ranks = 0;
+		if (move != 0)
+			ranks = rank(b.getPiece(Move.unpackFrom(move)))
+				| rank(b.getPiece(Move.unpackTo(move))) << 8;
+		put(search, MOVE, ply, mt.ordinal(), 0, move, value, ranks, 0);
+	}
+
+	public void reject(int search, int ply, int move, AI.MoveResult mt)
+	{
+		put(search, REJECT, ply, mt.ordinal(), 0, move, 0, 0, 0);
+	}
+
+	public void node(int search, int ply, long hash, int alpha, int beta)
+	{
+		put(search, NODE, ply, 0, hash, 0, alpha, beta, 0);
+	}
+
+	public void value(int search, int ply, int value, int bestmove)
+	{
+		put(search, VALUE, ply, 0, 0, 0, bestmove, 0, value);
+	}
+
+	//
+	// Decoder
+	//
+
+	static String square(int x, int y)
+	{
+		return "" + (char)(x + 97) + (y + 1);
+	}
+
+	static String move(int move, int ranks)
+	{
+		if (move == 0)
+			return "(null)";
+		if (move == -1)
+			return "(none)";
+		Rank[] r = Rank.values();
+		int fr = ranks & 0xff;
+		int tr = (ranks >> 8) & 0xff;
+		String s = (fr == 0 ? "" : r[fr-1].value)
+			+ square(Move.unpackFromX(move), Move.unpackFromY(move));
+		if (tr == 0)
+			return s + "-" + square(Move.unpackToX(move), Move.unpackToY(move));
+		return s + "x" + r[tr-1].value
+			+ square(Move.unpackToX(move), Move.unpackToY(move));
+	}
+
+	static String indent(int ply)
+	{
+		String s = "";
+		for (int i = 0; i < ply; i++)
+			s += "  ";
+		return s;
+	}
+
+	// Prints the tree of a search (by default, the last one
+	// in the file).  Records that were overwritten in the ring
+	// are lost, so the first search in the file may be partial.
+	public static void main(String[] args) throws IOException
+	{
+		String fn = args.length > 0 ? args[0] : FILE;
+		RandomAccessFile f = new RandomAccessFile(new File(fn), "r");
+		MappedByteBuffer in;
+		try {
+			in = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+		} finally {
+			f.close();
+		}
+		if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION
+			|| in.getInt(8) != RECORD) {
+			System.err.println(fn + ": not a search trace");
+			System.exit(1);
+		}
+		int capacity = in.getInt(12);
+		long written = in.getLong(16);
+		long first = Math.max(0, written - capacity);
+		if (written == 0)
+			return;
+
+		int search;
+		if (args.length > 1)
+			search = Integer.parseInt(args[1]);
+		else
+			search = in.getInt(HEADER + (int)((written - 1) % capacity) * RECORD + 24);
+
+		AI.MoveResult[] results = AI.MoveResult.values();
+		AI.MoveType[] types = AI.MoveType.values();
+		StringBuilder out = new StringBuilder();
+		String pending = null;	// MOVE not yet followed by its NODE
+		int depth = 0;
+		long nodes = 0;
+		for (long n = first; n < written; n++) {
+			int p = HEADER + (int)(n % capacity) * RECORD;
+			if (in.getInt(p + 24) != search)
+				continue;
+			long hash = in.getLong(p);
+			int move = in.getInt(p + 8);
+			int a = in.getInt(p + 12);
+			int b = in.getInt(p + 16);
+			int value = in.getInt(p + 20);
+			int ply = in.get(p + 28);
+			int type = in.get(p + 29);
+			int event = in.get(p + 30);
+			switch (event) {
+			case MOVE:
+				if (pending != null)
+					out.append(pending).append('\n');
+				pending = indent(ply) + ply + ":" + move(move, b)
+					+ " " + types[type] + " " + a;
+				break;
+			case REJECT:
+				if (pending == null)
+					pending = indent(ply) + ply + ":" + move(move, 0);
+				out.append(pending).append(" ").append(results[type]).append('\n');
+				pending = null;
+				break;
+			case NODE:
+				if (pending == null)
+					pending = indent(ply) + ply + ":";
+				out.append(pending).append(" [").append(a).append(',')
+					.append(b).append("] ").append(Long.toHexString(hash))
+					.append('\n');
+				pending = null;
+				depth++;
+				nodes++;
+				break;
+			case VALUE:
+				if (pending != null) {
+					out.append(pending).append('\n');
+					pending = null;
+				}
+				out.append(indent(ply)).append("= ").append(value)
+					.append(" ").append(move(a, 0)).append('\n');
+				depth--;
+				break;
+			}
+		}
+		if (pending != null)
+			out.append(pending).append('\n');
+		System.out.print(out);
+		System.out.println("search " + search + ": " + nodes + " nodes"
+			+ (first != 0 ? " (ring wrapped, earlier records lost)" : "")
+			+ (depth != 0 ? " (incomplete)" : ""));
+	}
+}
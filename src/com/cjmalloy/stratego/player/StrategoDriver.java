@@ -37,6 +37,8 @@ public class StrategoDriver
 			Settings.debugLevel = 1;
 		    else if (arg.equals("-vv"))
 			Settings.debugLevel = 2;
+		    else if (arg.equals("-trace"))
+			Settings.searchTrace = true;
 		    else if (arg.substring(0,2).equals("-l"))
 			Settings.aiLevel = Integer.parseInt(arg.substring(2));
 		    else if (arg.equals("-t")) {
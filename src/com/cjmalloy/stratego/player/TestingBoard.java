@@ -206,6 +206,10 @@ public class TestingBoard extends Board
 	private static final int DEST_PRIORITY_LOW = 1;
 
 	private static final int DEST_VALUE_NIL = 9999;
+	// genDestTmpCommon() queue size: each dequeued square queues
+	// at most its four neighbors, and a guarded square can be
+	// dequeued again after it is reset.
+	private static final int DEST_QUEUE = 5 * 121;
 	private static final int GUARDED_OPEN = 0;
 	private static final int GUARDED_UNKNOWN = 1;
 	private static final int GUARDED_OPEN_CAUTIOUS = 2;
@@ -231,6 +235,11 @@ public class TestingBoard extends Board
 	protected int dangerousUnknownRank;
 	protected int[] unknownRank = new int[2];
 	public int depth = -1;
+	public SearchGrid sgrid;	// primitive piece state (see SearchGrid)
+	protected WinFightTable fightTable = null;	// winFight() outcomes
+	public long[] phaseNanos = new long[SearchStats.PHASES];	// pre-processing time
+	private PreprocessEvent phaseEvent;
+	private int[] destQueue = new int[DEST_QUEUE];	// genDestTmpCommon() scratch
     protected ArrayList<Piece> ghostPieceStack = new ArrayList<Piece>();
     protected Piece ghostPiece = null;
 
@@ -276,6 +285,12 @@ public class TestingBoard extends Board
 	{
 		super(t);
 
+		long ns = System.nanoTime();
+		phaseEvent = new PreprocessEvent();
+		phaseEvent.begin();
+		sgrid = new SearchGrid(grid);
+		grid = sgrid;
+
         // super(t) makes a copy of the board info
         // but not the suspected rank analysis
         // so it is called again
@@ -288,6 +303,7 @@ public class TestingBoard extends Board
 		// markWeakPieces() depends on weakRanks()
 		// which depends on genSuspectedRank
 		markWeakPieces();
+		ns = phase(SearchStats.PHASE_SUSPECTED, ns);
 
 		value = 0;
 		hashTest = boardHistory.hash;	// for debugging (see move)
@@ -342,6 +358,8 @@ public class TestingBoard extends Board
             }
         }
 
+		ns = phase(SearchStats.PHASE_PIECES, ns);
+
 		adjustPieceValues();
 		genDangerousRanks();
 		genForay();	// depends on sumValues, dangerousUnknownRank
@@ -354,16 +372,19 @@ public class TestingBoard extends Board
 		valuePieces();
 		genValueStealth();	// depends on valuePieces
 		genDefactoInvincibleRank();	// depends on stealth
+		ns = phase(SearchStats.PHASE_VALUES, ns);
 
 		genUnknownRank();   // first pass
 		genDestFlag();      // depends on unknown rank (actualValue)
 		aiFlagSafety(); // depends on genDestFlag, valueStealth, values
+		ns = phase(SearchStats.PHASE_FLAG, ns);
 
 		// The following code depends on values[] and valueStealth[]
 		// and unknownRank[]
 
 		adjustInvincibleRanks();
 		genFleeRankandWeak();
+		ns = phase(SearchStats.PHASE_RANKS, ns);
 
 		scouts[0] = new ArrayList<Piece>();
 		scouts[1] = new ArrayList<Piece>();
@@ -385,7 +406,7 @@ public class TestingBoard extends Board
 				if (p.isFlagBomb() || isForaySquare(1-p.getColor(), p.getIndex())) {
 					attackBomb(p);
                     if (p.targetValue == 0)
-                        p.targetValue = pieceValue(Settings.topColor, 8);
+                        p.targetValue = pieceValue(topColor, 8);
                 }
 				continue;
 			}
@@ -408,11 +429,33 @@ public class TestingBoard extends Board
 
 		}
 		attackLanes();
+		ns = phase(SearchStats.PHASE_CHASE, ns);
 
 		// setunmovedValues depends on neededPiece:
 		// chase()
 		setUnmovedValues();
-		assert flag[Settings.topColor] != 0 : "AI flag unknown";
+		assert flag[topColor] != 0 : "AI flag unknown";
+
+		// Pre-processing changes the values that winFight()
+		// depends on, so outcomes are cached only from here on.
+
+		fightTable = new WinFightTable();
+		phase(SearchStats.PHASE_UNMOVED, ns);
+	}
+
+	// Adds the time since start to pre-processing phase p
+	// and returns the current time.
+	private long phase(int p, long start)
+	{
+		long ns = System.nanoTime();
+		phaseNanos[p] += ns - start;
+		if (phaseEvent.shouldCommit()) {
+			phaseEvent.phase = SearchStats.phaseNames[p];
+			phaseEvent.commit();
+		}
+		phaseEvent = new PreprocessEvent();
+		phaseEvent.begin();
+		return ns;
 	}
 
 	int missingValue(int c, int r)
@@ -529,7 +572,7 @@ public class TestingBoard extends Board
         // but this depends on the remaining pieces, because in an endgame with
 		// Ones on the board, the Spy can be the critical piece to win the game.
 
-                if (c == Settings.bottomColor)
+                if (c == bottomColor)
                     valueStealth[c][9] /= 2; // TBD: depends on remaining pieces
 
         }
@@ -591,7 +634,7 @@ public class TestingBoard extends Board
 	{
 		for (lowestUnknownNotSuspectedRank = 1;
 			lowestUnknownNotSuspectedRank != Rank.UNKNOWN.ordinal()
-                && unknownNotSuspectedRankAtLarge(Settings.bottomColor, lowestUnknownNotSuspectedRank) == 0;
+                && unknownNotSuspectedRankAtLarge(bottomColor, lowestUnknownNotSuspectedRank) == 0;
 			lowestUnknownNotSuspectedRank++);
 
 		// dangerousUnknownRank is set when an opponent
@@ -609,17 +652,17 @@ public class TestingBoard extends Board
 		dangerousKnownRank = 99;
 		for (int rank = 1; rank <= 9; rank++) {
 
-			if ((rank == 1 && !hasSpy(Settings.topColor))
+			if ((rank == 1 && !hasSpy(topColor))
 				|| rank != 1) {
-				if (unknownRankAtLarge(Settings.bottomColor, rank) != 0
+				if (unknownRankAtLarge(bottomColor, rank) != 0
 					&& dangerousUnknownRank == 99)
 					dangerousUnknownRank = rank;
-				else if (knownRankAtLarge(Settings.bottomColor, rank) != 0
+				else if (knownRankAtLarge(bottomColor, rank) != 0
 					&& dangerousKnownRank == 99)
 					dangerousKnownRank = rank;
 
 			}
-			if (unknownRankAtLarge(Settings.topColor, rank) != 0)
+			if (unknownRankAtLarge(topColor, rank) != 0)
 				break;
 		}
 	}
@@ -882,7 +925,7 @@ public class TestingBoard extends Board
             v += Math.min(v/3, Math.max(0, v * (4*vulnerable / values[c][r]) / (unknownDefenders + 3)));
 			v = v / 9;
 
-			if (c == Settings.bottomColor) {
+			if (c == bottomColor) {
 
 		// If the opponent has a dangerous unknown rank,
 		// and the AI suspects which piece it is,
@@ -979,10 +1022,10 @@ public class TestingBoard extends Board
         // and the AI is unable to defend them.
         // TBD: this needs to be solved!
 
-        valueStealth[Settings.topColor][Rank.BOMB.ordinal()-1] =
-            (valueStealth[Settings.topColor][Rank.FOUR.ordinal()-1]
-            + valueStealth[Settings.topColor][Rank.FIVE.ordinal()-1]) / 2;
-        valueStealth[Settings.bottomColor][Rank.BOMB.ordinal()-1] = valueStealth[Settings.topColor][Rank.EIGHT.ordinal()-1]/2;
+        valueStealth[topColor][Rank.BOMB.ordinal()-1] =
+            (valueStealth[topColor][Rank.FOUR.ordinal()-1]
+            + valueStealth[topColor][Rank.FIVE.ordinal()-1]) / 2;
+        valueStealth[bottomColor][Rank.BOMB.ordinal()-1] = valueStealth[topColor][Rank.EIGHT.ordinal()-1]/2;
 
 		// If a player has a movable piece count majority, excess
 		// expendable pieces just get in the way.
@@ -995,19 +1038,19 @@ public class TestingBoard extends Board
         // because it had more stealth due to a lacking piece count).
         // So Version 12 adds a fixed bonus to the stealth values.
 
-		int u = grid.pieceCount(Settings.topColor)
-            - rankAtLarge(Settings.topColor, Rank.BOMB)
-			- (grid.pieceCount(Settings.bottomColor)
-            - rankAtLarge(Settings.bottomColor, Rank.BOMB));
+		int u = grid.pieceCount(topColor)
+            - rankAtLarge(topColor, Rank.BOMB)
+			- (grid.pieceCount(bottomColor)
+            - rankAtLarge(bottomColor, Rank.BOMB));
 
 		int c;
 		if (u > 0) {
-			c = Settings.bottomColor;
-            if (isWinning(Settings.topColor) >= VALUE_THREE)
+			c = bottomColor;
+            if (isWinning(topColor) >= VALUE_THREE)
                 u *= 2;
 		} else {
-			c = Settings.topColor;
-            if (isWinning(Settings.bottomColor) >= VALUE_THREE)
+			c = topColor;
+            if (isWinning(bottomColor) >= VALUE_THREE)
                 u *= 2;
         }
 		u = Math.min(Math.abs(u), 10);
@@ -1093,28 +1136,28 @@ public class TestingBoard extends Board
 	// such as unmoved pieces or those that appear to be
 	// avoiding discovery.
 	//
-	// if (sumValues[Settings.topColor] == 0) and
+	// if (sumValues[topColor] == 0) and
 	// its flag is bombed and the opponent has an 8
 	// the ai should surrender
 	//
 	void valuePieces()
 	{
 		// Not sure how this can happen anymore
-		if (sumValues[Settings.topColor] == 0)
+		if (sumValues[topColor] == 0)
 			return;
 
-		// int vb = sumValues[Settings.bottomColor] * grid.movablePieceCount(Settings.bottomColor);
-		// int vt = sumValues[Settings.topColor] * grid.movablePieceCount(Settings.topColor);
-		int vb = sumValues[Settings.bottomColor];
-		int vt = sumValues[Settings.topColor];
+		// int vb = sumValues[bottomColor] * grid.movablePieceCount(bottomColor);
+		// int vt = sumValues[topColor] * grid.movablePieceCount(topColor);
+		int vb = sumValues[bottomColor];
+		int vt = sumValues[topColor];
 
 		for (int rank = 1; rank <= 10; rank++) {
-			int v1 = values[Settings.topColor][rank]/2;
+			int v1 = values[topColor][rank]/2;
 			long v2 = v1;
 			v2 *= vb;
 			v2 /= vt;
 			v2 = Math.min(v2, v1);
-			values[Settings.topColor][rank] = v1 + (int)v2;
+			values[topColor][rank] = v1 + (int)v2;
 		}
 	}
 
@@ -1144,7 +1187,7 @@ public class TestingBoard extends Board
 		for (int c = RED; c <= BLUE; c++) {
             int lowUnknownRank = 1;
             for (int rank = 2; rank<9;rank++) {
-                if (valueStealth[Settings.topColor][lowUnknownRank-1] * 8 / 10 > values[1-c][rank])
+                if (valueStealth[topColor][lowUnknownRank-1] * 8 / 10 > values[1-c][rank])
                     invincibleRank[1-c][rank-1] = true;
                     
                 if (unknownNotSuspectedRankAtLarge(c, rank) > 0)
@@ -1218,10 +1261,10 @@ public class TestingBoard extends Board
     // exchange its low ranks if possible,
     // thus preventing them from loss by the dangerous rank.
 
-                    || (c == Settings.bottomColor
+                    || (c == bottomColor
                         && (rank > dangerousUnknownRank
                             || rank > dangerousKnownRank
-                            || isWinning(Settings.topColor) > VALUE_THREE)
+                            || isWinning(topColor) > VALUE_THREE)
                         && rank <= 4)) {
                     values[c][rank] += values[1-c][unknownRank[1-c]]/2;
 
@@ -1250,21 +1293,21 @@ public class TestingBoard extends Board
                     fleetmp[c][j] = DEST_VALUE_NIL;
                 for (int i : attacklanes[lane]) {
                     int y = 0;
-                    if (bombedLane(Settings.bottomColor, lane) == 2)
+                    if (bombedLane(bottomColor, lane) == 2)
                         y = 2;    // start above the bombs
                     for (; y < 6; y++)
-                        fleetmp[c][Grid.side(c, i - y*11)] = 6 - y;
+                        fleetmp[c][side(c, i - y*11)] = 6 - y;
                 }
             }
 
 		// All pieces (except eights) flee the lane
 		// if front opponent pieces are likely bombs.
 
-            if (bombedLane(Settings.bottomColor, lane) == 2) {
+            if (bombedLane(bottomColor, lane) == 2) {
                     for (int r = 1; r <= 10; r++) {
                             if (r == 8)
                                     continue;
-                            genPlanAll(fleetmp[Settings.topColor], Settings.topColor, r, DEST_PRIORITY_LANE);
+                            genPlanAll(fleetmp[topColor], topColor, r, DEST_PRIORITY_LANE);
                     }
                     continue;
                 }
@@ -1282,8 +1325,8 @@ public class TestingBoard extends Board
 		// ranks are often more aggressive)
 
 			int[] lowRank = new int[2];
-			lowRank[Settings.bottomColor] = lowestUnknownExpendableRank + 1;
-			lowRank[Settings.topColor] = 99;
+			lowRank[bottomColor] = lowestUnknownExpendableRank + 1;
+			lowRank[topColor] = 99;
 			TestPiece aiInvinciblePiece = null;
             TestPiece lowPiece = null;
             TestPiece highPiece = null;
@@ -1298,7 +1341,7 @@ public class TestingBoard extends Board
 				if (rank.ordinal() < lowRank[p.getColor()])
 					lowRank[p.getColor()] = rank.ordinal();
 
-				if (p.getColor() == Settings.bottomColor)
+				if (p.getColor() == bottomColor)
 					continue;
 
 				if (isInvincible(p)
@@ -1322,8 +1365,8 @@ public class TestingBoard extends Board
 
                 if (y < 3
                     && isChased(j)
-                    && lowerRankCount[Settings.bottomColor][rank.ordinal()-1] > 1) {
-                    setPlan(false, p, fleetmp[Settings.topColor], DEST_PRIORITY_LANE);
+                    && lowerRankCount[bottomColor][rank.ordinal()-1] > 1) {
+                    setPlan(false, p, fleetmp[topColor], DEST_PRIORITY_LANE);
                     continue;
                 }
 
@@ -1369,9 +1412,9 @@ public class TestingBoard extends Board
             if (lowPiece != null
                 && highPiece != null)
                 for (int rank = lowPiece.getRank().ordinal(); rank <= highPiece.getRank().ordinal(); rank++) {
-                    for (TestPiece pp : planPiece[Settings.topColor][rank-1])
+                    for (TestPiece pp : planPiece[topColor][rank-1])
                             if (pp != null && pp != lowPiece && pp != highPiece)
-                                setPlan(pp, fleetmp[Settings.topColor], DEST_PRIORITY_LANE);
+                                setPlan(pp, fleetmp[topColor], DEST_PRIORITY_LANE);
 
                 }
 
@@ -1392,9 +1435,9 @@ public class TestingBoard extends Board
         // until a path to the flag has been identified.
 
 			if (aiInvinciblePiece != null
-				&& isStealthy(aiInvinciblePiece, lowRank[Settings.bottomColor])) {
+				&& isStealthy(aiInvinciblePiece, lowRank[bottomColor])) {
                 if (!hasPlan(aiInvinciblePiece))
-					setPlan((TestPiece)aiInvinciblePiece, fleetmp[Settings.topColor], DEST_PRIORITY_LANE);
+					setPlan((TestPiece)aiInvinciblePiece, fleetmp[topColor], DEST_PRIORITY_LANE);
 			}
 
 		// It is tempting to make guarding the lanes high priority,
@@ -1415,7 +1458,7 @@ public class TestingBoard extends Board
 		// ranks.
 
 			if (lowerRankCount[c][8] <= 3
-				|| (c == Settings.topColor
+				|| (c == topColor
 					&& dangerousKnownRank != 99))
 				continue;
 
@@ -1428,7 +1471,7 @@ public class TestingBoard extends Board
         // of own pieces and if suspected bomb blocking the lane
         // is actually a piece, then it cannot pass
 
-                    int goal = (bombedLane(Settings.bottomColor, lane) == 1 ? i - 22 : i - 11);
+                    int goal = (bombedLane(bottomColor, lane) == 1 ? i - 22 : i - 11);
 					int ranksNeeded = 2;
 					for (int r = oppRank; ranksNeeded > 0 && r > 1; r--)
                         ranksNeeded -= genDefenderPlan(c,r,goal,oppRank);
@@ -1437,9 +1480,9 @@ public class TestingBoard extends Board
 
 		// Spy flees the lane if the opponent one is not known
 
-			if (knownRankAtLarge(Settings.bottomColor, Rank.ONE) == 0
-				&& rankAtLarge(Settings.bottomColor, Rank.ONE) != 0) {
-				genPlanAll(fleetmp[Settings.topColor], Settings.topColor, 10, DEST_PRIORITY_LANE);
+			if (knownRankAtLarge(bottomColor, Rank.ONE) == 0
+				&& rankAtLarge(bottomColor, Rank.ONE) != 0) {
+				genPlanAll(fleetmp[topColor], topColor, 10, DEST_PRIORITY_LANE);
 			}
 
 		} // lane
@@ -1481,7 +1524,7 @@ public class TestingBoard extends Board
         for (int d : dir) {
             int n = i + d;
             if (!Grid.isValid(n)
-                || Grid.getY(n) == Grid.yside(p.getColor(), 0))
+                || Grid.getY(n) == yside(p.getColor(), 0))
                     continue;
             Piece np = getPiece(n);
             if (np == null
@@ -1554,7 +1597,7 @@ public class TestingBoard extends Board
 			if (p == null
                 || (!p.hasMoved()
                     && !p.isKnown())
-                || p.getColor() == Settings.bottomColor)
+                || p.getColor() == bottomColor)
 				continue;
 
             if (p.getRank() != Rank.BOMB
@@ -1580,12 +1623,12 @@ public class TestingBoard extends Board
             int color = p.getColor();
             Rank rank = p.getRank();
 
-            if (color != Settings.topColor) {
+            if (color != topColor) {
                 unmovedValue[i] += Math.min(
-                    valueStealth[Settings.bottomColor][Rank.BOMB.ordinal()-1],
-                    stealthValue(Settings.bottomColor, unknownRank[Settings.bottomColor]));
+                    valueStealth[bottomColor][Rank.BOMB.ordinal()-1],
+                    stealthValue(bottomColor, unknownRank[bottomColor]));
                 if (isUnmovedFlagBombProtector(p))
-                    unmovedValue[i] = Math.max(unmovedValue[i], pieceValue(Settings.topColor, Rank.NINE));
+                    unmovedValue[i] = Math.max(unmovedValue[i], pieceValue(topColor, Rank.NINE));
                 continue;
             }
 
@@ -1767,7 +1810,7 @@ public class TestingBoard extends Board
             int tmp[] = genDestTmpGuardedOpen(color, i, Rank.toRank(r));
             for (TestPiece pp : planPiece[1-color][r-1]) {
                 if (pp != null) {
-                    if (color == Settings.bottomColor) {
+                    if (color == bottomColor) {
                         move(Move.packMove(pp.getIndex(), i), false);
                         int vm = value;
                         undo();
@@ -1963,7 +2006,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
             if (chasedRank == 1
                 && p.isKnown()
                 && hasSpy(1-p.getColor())
-                && (p.getColor() == Settings.topColor
+                && (p.getColor() == topColor
                         || weakRanks(p.getColor()) <= 4
                         || p.getIndex() <= 65)) {
                 int destTmp2[] = genDestTmpGuardedRank(p.getColor(), i, Rank.SPY);
@@ -2272,8 +2315,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
                 if (isInvincibleDefender(1-p.getColor(), j)
                     || p.isKnown()
-                    || (p.getColor() == Settings.bottomColor
-                        && !isPossibleUnknownSpyXOne(planPiece[Settings.topColor][j-1][0], p))) {
+                    || (p.getColor() == bottomColor
+                        && !isPossibleUnknownSpyXOne(planPiece[topColor][j-1][0], p))) {
                     int priority = DEST_PRIORITY_CHASE;
                     boolean neededNear = false;
                     if (isInvincible(p)
@@ -2359,7 +2402,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		Piece flagp = getPiece(flagi);
 		int color = flagp.getColor();
 
-		if (color == Settings.topColor
+		if (color == topColor
 			&& flagi != flag[color])
 			return;
 
@@ -2394,7 +2437,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// those moved pieces and perhaps they pose no obstacle.
 
 			int destTmpAttacker[] =
-                (color == Settings.bottomColor) ? destTmp :
+                (color == bottomColor) ? destTmp :
                     genDestTmpGuarded(color, side, null);
 			int stepsAttacker = 99;
 			Piece pAttacker = null;
@@ -2560,7 +2603,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// so R7 moves up, and unknown Blue moves down.
 
             if (pAttacker != null
-                && color == Settings.topColor
+                && color == topColor
                 && Grid.steps(pAttacker.getIndex(), pDefender.getIndex()) <= 2) {
                 setDefender(pDefender, destTmp, DEST_PRIORITY_DEFEND_FLAG_STAY);
             }
@@ -2569,7 +2612,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         }
 
         if (pAttacker != null
-            && color == Settings.topColor) {
+            && color == topColor) {
 
 		// Even if the unbombed flag is not known, call up
 		// the closest defender, even if it means moving
@@ -2631,7 +2674,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	{
 		int color = flagp.getColor();
 		int flagi = flagp.getIndex();
-		assert color == Settings.topColor : "flagBombTarget only for AI";
+		assert color == topColor : "flagBombTarget only for AI";
 
 		// Determine if any bomb is subject to attack
 		// and take defensive measures.
@@ -2759,12 +2802,12 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	private void aiFlagSafety()
 	{
-		int flagi = flag[Settings.topColor];
+		int flagi = flag[topColor];
 		Piece pflag = getPiece(flagi);
 		int color = pflag.getColor();
 
 		assert pflag.getRank() == Rank.FLAG : "aiFlag is " + pflag.getRank() + " at " + flagi +"?";
-		assert color == Settings.topColor : "flag routines only for ai flag";
+		assert color == topColor : "flag routines only for ai flag";
 		// initially all bombs are worthless (0)
 		// value remaining bombs around ai flag
 
@@ -2795,7 +2838,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		// opponent color eights are now expendable
 
-			setExpendableEights(Settings.bottomColor);
+			setExpendableEights(bottomColor);
 
 		// Setting the flag to always known is questionable
 		// because its location is almost never
@@ -2825,7 +2868,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// flag is indeed known but if the distance is less than
 		// the maximum search ply, it prevents the horizon effect.
 
-			defendFlag(flag[Settings.topColor]);
+			defendFlag(flag[topColor]);
 		}
 
 		// Always protect any remaining bombs in the
@@ -2977,7 +3020,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
                 || (maybe_count[c] <= 3 && 
                     (maybe_count[c] - open_count[c] - 1 <= opponentEightsAtLarge));
 
-            if (c == Settings.bottomColor
+            if (c == bottomColor
                 && isBombedFlag[c]
                 && sendMiner)
                 for (int d : dir) {
@@ -3010,7 +3053,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// plus VALUE_MOVED (5), which leads Red to attack.
 
             for (int x = 0; x < 10; x++) {
-                int i = Grid.getIndex(x, Grid.yside(c, 0));
+                int i = Grid.getIndex(x, yside(c, 0));
                 Piece p = getPiece(i);
                 if (p == null || p.getRank().ordinal() <= 4)
                     continue;
@@ -3114,17 +3157,23 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         Rank attackRank = Rank.NIL;
         if (attackPiece != null)
             attackRank = attackPiece.getRank();
-			
+
 		int[] destTmp = new int[121];
 		for (int j = 0; j <= 120; j++)
 			destTmp[j] = DEST_VALUE_NIL;
 
 		destTmp[to] = 1;
-		ArrayList<Integer> queue = new ArrayList<Integer>();
-		queue.add(to);
+
+		// A square is queued when its destTmp value is set.
+		// A guarded square is reset to DEST_VALUE_NIL when it
+		// is dequeued, so it can be queued again by each
+		// of its other neighbors (see DEST_QUEUE).
+		int[] queue = destQueue;
+		int size = 0;
+		queue[size++] = to;
 		int count = 0;
-		while (count < queue.size()) {
-			int j = queue.get(count++);
+		while (count < size) {
+			int j = queue[count++];
 			if (!Grid.isValid(j))
 				continue;
 			int n = destTmp[j];
@@ -3242,7 +3291,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 					continue;
 
 				destTmp[i] = n + 1;
-				queue.add(i);
+				queue[size++] = i;
 			} // d
 		} // while
 		return destTmp;
@@ -3434,7 +3483,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	protected int setProtector(int aito, Piece p, int to)
 	{
         int color = p.getColor();
-        assert color == Settings.topColor :  "setProtector() for AI pieces only";
+        assert color == topColor :  "setProtector() for AI pieces only";
 		if (!grid.hasAttack(color, to))
 			return 0;
 
@@ -3521,7 +3570,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	protected int setAdjacentProtector(int to, int i)
 	{
-		if (!grid.hasAttack(Settings.bottomColor, i))
+		if (!grid.hasAttack(bottomColor, i))
 			return 0;
 
         // Find an AI piece that that opp piece on "i" is attacking
@@ -3550,7 +3599,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		for (int d : dir) {
 			Piece tp = getPiece(i + d);
 			if (tp == null
-                || tp.getColor() != Settings.topColor
+                || tp.getColor() != topColor
                 || !tp.hasMoved())
 				continue;
             int vm = setProtector(to, tp, i+d);
@@ -3578,7 +3627,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// can be determined about its rank during the search.
 
 			Rank tprank = tp.getRank();
-			if (color == Settings.bottomColor) { // tp is topColor
+			if (color == bottomColor) { // tp is topColor
 				if (tp.isKnown())
 					continue;
 				tprank = Rank.UNKNOWN;
@@ -3631,7 +3680,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		lowestUnknownExpendableRank = 0;
 		for (int r = 1; r <= 9; r++)
-			if (unknownNotSuspectedRankAtLarge(Settings.bottomColor, r) > 0) {
+			if (unknownNotSuspectedRankAtLarge(bottomColor, r) > 0) {
 				lowestUnknownExpendableRank = r;
 				if (r >= 5)
 					break;
@@ -3639,8 +3688,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		if (lowestUnknownExpendableRank == 0
 			|| (lowestUnknownExpendableRank < 5
-			&& rankAtLarge(Settings.topColor, Rank.ONE) == 0)
-			&& unknownNotSuspectedRankAtLarge(Settings.bottomColor, Rank.SPY) > 0)
+			&& rankAtLarge(topColor, Rank.ONE) == 0)
+			&& unknownNotSuspectedRankAtLarge(bottomColor, Rank.SPY) > 0)
 			lowestUnknownExpendableRank = 10;
 
 
@@ -3874,7 +3923,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// or suspected Bomb or Flag (can win any piece),
 		// the piece rank does not change.
 
-		if (p.getColor() == Settings.topColor
+		if (p.getColor() == topColor
 			|| (newRank != Rank.UNKNOWN && !isSuspected)
 			|| newRank == Rank.NINE
 			|| newRank == Rank.BOMB
@@ -4113,8 +4162,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 			assert flag[1-fpcolor] != 0;
             if (fp.getMoves() - fp.boardPiece().getMoves() == 0) {
-                int fy = Grid.yside(fpcolor, Grid.getY(from));
-                int ty = Grid.yside(fpcolor, Grid.getY(to));
+                int fy = yside(fpcolor, Grid.getY(from));
+                int ty = yside(fpcolor, Grid.getY(to));
                 if (fy != ty) {
                     if ((fy < 7 && fy < ty)
                         || (fy > 7 && fy > ty))
@@ -4229,7 +4278,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// because then both sides are trying desperately
 		// to determine piece ranks through these kinds of movements.
 
-					if (randomBluff != 0 && fpcolor == Settings.topColor) {
+					if (randomBluff != 0 && fpcolor == topColor) {
                         if (oppRank == Rank.UNKNOWN) {
                             if (hasLowValue(fp)
                                 && !isForay(to))
@@ -4246,7 +4295,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 			UndoMove m2 = getLastMove(2);
 
-			if (fpcolor == Settings.topColor) {
+			if (fpcolor == topColor) {
 
 		// If the AI moved an unknown piece on its prior move
 		// adjacent to an opponent known piece of the same rank,
@@ -4372,7 +4421,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
             fp.setMoved();
 			setPiece(fp, to);
 
-        if (fpcolor == Settings.topColor) {
+        if (fpcolor == topColor) {
 			if (fp.isKnown())
                 vm -= setProtector(to, fp, to);
             if (m2 != UndoMove.NullMove) {
@@ -4502,7 +4551,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// as inevitable.  But if Blue turns out to be a Six or
 		// Seven, then Red Five would regain the exchange.
 
-				if (fpcolor == Settings.bottomColor) {
+				if (fpcolor == bottomColor) {
 
 		// If the opponent piece is unknown,
 		// the AI mave have guessed wrong,
@@ -4541,7 +4590,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 					if (!fp.isKnown()) {
 						vm += apparentWinValue(fp, fprank, unknownScoutFarMove, tp, stealthValue(tp))
-                             - stealthValue(Settings.bottomColor, tprank.ordinal());
+                             - stealthValue(bottomColor, tprank.ordinal());
 
 		// While the AI always gains the stealth value of the
 		// unknown opponent piece, it may have guessed wrong.
@@ -4780,7 +4829,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 			case LOSES :
 
-				if (fpcolor == Settings.topColor) {
+				if (fpcolor == topColor) {
 
 					if (!tp.isKnown()) {
 
@@ -5040,7 +5089,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// the opponent plays consistently, and if the opponent
 		// is reckless, then it will ultimately lose anyway.
 		//
-				if (fpcolor == Settings.topColor) {
+				if (fpcolor == topColor) {
 
 		// If a piece is a possible bomb (or flag)
 		// and an AI piece (except Eight) attacks it and wins,
@@ -5214,7 +5263,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 						vm += tpvalue * risk / 100;
 
 		  				vm = vm / distanceFactor(tp, fp, scoutFarMove);
-						vm = makePositive(vm, values[Settings.topColor][unknownRank[Settings.topColor]]/2);
+						vm = makePositive(vm, values[topColor][unknownRank[topColor]]/2);
 
 						if (risk == 10) {
 
@@ -5301,7 +5350,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		// fp or tp is unknown
 
-				if (fpcolor == Settings.topColor) {
+				if (fpcolor == topColor) {
 
 		// AI IS ATTACKER (fp)
 
@@ -5914,7 +5963,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		} // else attack
 
-		if (fpcolor == Settings.topColor)
+		if (fpcolor == topColor)
 			value += vm;
 		else
 			value -= vm;
@@ -6032,7 +6081,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		depth--;
 		bturn = 1 - bturn;
 
-		UndoMove um = undoList.remove(undoList.size()-1);
+		UndoMove um = undoList.removeLast();
         Piece tp = null;
 		if (um != UndoMove.NullMove
             && um != UndoMove.FleeMove) {
@@ -6141,7 +6190,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	public boolean isEffectiveBluff(Piece fp, Piece tp)
 	{
-		assert fp.getColor() == Settings.topColor : "AI only";
+		assert fp.getColor() == topColor : "AI only";
 
 		if (fp.isKnown()
 			|| isExpendable(tp)
@@ -6151,10 +6200,10 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 				&& fp.getActingRankFleeLow() != Rank.UNKNOWN
 				&& tp.getRank() != Rank.ONE	// Spy flees from any other piece
 				&& tp.getRank() != Rank.UNKNOWN
-				&& pieceValue(Settings.bottomColor, fp.getActingRankFleeHigh()) > stealthValue(Settings.topColor, tp.getRank().ordinal()-1) * 4 / 3)
+				&& pieceValue(bottomColor, fp.getActingRankFleeHigh()) > stealthValue(topColor, tp.getRank().ordinal()-1) * 4 / 3)
 			|| (!fp.hasMoved()
 				&& isFlagBombAtRisk(tp))
-			|| grid.movablePieceCount(Settings.bottomColor) == 0)
+			|| grid.movablePieceCount(bottomColor) == 0)
 			return false;
 
 		return true;
@@ -6337,7 +6386,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	protected int valueBluff(int m, Piece fp, Piece tp)
 	{
-		assert fp.getColor() == Settings.topColor : "valueBluff only for AI";
+		assert fp.getColor() == topColor : "valueBluff only for AI";
 
 		// (note that getLastMove(2) is called to get the prior
 		// move, because the current move is already on the
@@ -6495,7 +6544,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	protected int valueBluff(Piece oppPiece, Piece aiPiece)
 	{
-		assert aiPiece.getColor() == Settings.topColor : "valueBluff only for AI";
+		assert aiPiece.getColor() == topColor : "valueBluff only for AI";
 
         // Version 12 allows bluffs on weaker pieces
         // but returns a positive value equal to half the piece value,
@@ -6591,7 +6640,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// TBD: And Blue Two was trapped by unknown two expendable pieces,
 		// an approach by either expendable piece would also be counterproductive.
 
-		int valueBluff = values[Settings.topColor][unknownRank[Settings.topColor]]/2;
+		int valueBluff = values[topColor][unknownRank[topColor]]/2;
 
 		return -valueBluff;
 	}
@@ -6632,7 +6681,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 			if (aiRank == Rank.SPY && oppRank == Rank.ONE)
 				return -VALUE_BLUFF;
 
-			int valueBluff = values[Settings.topColor][unknownRank[Settings.topColor]]/2;
+			int valueBluff = values[topColor][unknownRank[topColor]]/2;
 			return valueBluff;
 		}
 
@@ -6658,7 +6707,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	protected int valueBluffLoses(Piece oppPiece, Piece aiPiece)
 	{
         if (grid.hasAttack(oppPiece)) {
-			int valueBluff = values[Settings.topColor][unknownRank[Settings.topColor]]/2;
+			int valueBluff = values[topColor][unknownRank[topColor]]/2;
 			return valueBluff;
         }
 		return valueBluff(oppPiece, aiPiece);
@@ -6676,7 +6725,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
     public int boardValue(int qs)
     {
-        if (bturn == Settings.topColor)
+        if (bturn == topColor)
             return qs;
         else
             return -qs;
@@ -6699,9 +6748,9 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		Rank rank = p.getRank();
 
-        if (p.getColor() == Settings.topColor) {
+        if (p.getColor() == topColor) {
 
-            int actualStealth = stealthValue(Settings.topColor, rank);
+            int actualStealth = stealthValue(topColor, rank);
 
             if (isWeakAggressive(p)
                 || rank != Rank.NINE)
@@ -6782,7 +6831,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         // opponent has a lot of Scouts
         // (2) increased probability of revealing a superior rank
 
-            if (weakRanks(Settings.bottomColor) > rankAtLarge(Settings.topColor, Rank.NINE))
+            if (weakRanks(bottomColor) > rankAtLarge(topColor, Rank.NINE))
                 v /= 3;
             return vu + v/2;
         }
@@ -6796,7 +6845,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	private void makeFlagKnown(Piece pflag)
 	{
 		int c = pflag.getColor();
-		if (c == Settings.bottomColor
+		if (c == bottomColor
 			|| invincibleWinRank[1-c] >= invincibleWinRank[c]) {
 			pflag.makeKnown();
 		}
@@ -6877,7 +6926,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	private int aiBombValue(Piece p)
 	{
         int color = p.getColor();
-        int value = pieceValue(Settings.topColor, 8) * 4/3 + grid.defenderCount(color, p.getIndex())*VALUE_MOVED;
+        int value = pieceValue(topColor, 8) * 4/3 + grid.defenderCount(color, p.getIndex())*VALUE_MOVED;
 
         // If a bomb in the AI flag structure is known
         // (which can happen either by attack or by being the last structure on the board)
@@ -6886,7 +6935,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         // This is significant when the opponent still has an unknown
         // rank less than the defender.
 
-        if (color == Settings.topColor
+        if (color == topColor
             && p.isFlagBomb()
             && p.isKnown())
             return Math.max(value, isWinning(color)*3/2);
@@ -6932,8 +6981,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		if ((pflag.isKnown()
             || isBombedFlag[color])
-			&& (color == Settings.topColor
-				|| unknownBombs[Settings.bottomColor] == 0))
+			&& (color == topColor
+				|| unknownBombs[bottomColor] == 0))
 			v = VALUE_ONE * 2;
 		else {
 
@@ -6978,7 +7027,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	int apparentRisk(Piece fp, Rank fprank, boolean unknownScoutFarMove, Piece tp)
 	{
 		assert !tp.isKnown() : "tp " + tp.getRank() + " should be unknown";
-        assert tp.getColor() == Settings.topColor : "apparentRisk for AI only";
+        assert tp.getColor() == topColor : "apparentRisk for AI only";
 
         // Risk of Scout attack must be estimated correctly, because
         // the AI can drop pieces trying to avoid possible Scout attacks.
@@ -7186,7 +7235,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 	protected int apparentWinValue(Piece fp, Rank fprank, boolean unknownScoutFarMove, Piece tp, int v)
 	{
-		assert fp.getColor() == Settings.bottomColor : "apparentWinValue only for opponent attacker";
+		assert fp.getColor() == bottomColor : "apparentWinValue only for opponent attacker";
 
 		// if the target is known, attacker
 		// sees the actual value of the piece
@@ -7300,7 +7349,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
 		int color = p.getColor();
 		Rank rank = p.getRank();
-		if (color == Settings.topColor
+		if (color == topColor
 			|| (p.isKnown() && !p.isSuspectedRank())
 			|| rank == Rank.SPY
 			|| rank == Rank.BOMB
@@ -7388,6 +7437,28 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	}
 
 	public int winFight(Piece fp, Piece tp)
+	{
+		if (fightTable == null)
+			return winFightState(fp, tp);
+
+		int fc = fightTable.classOf(fp);
+		int tc = fightTable.classOf(tp);
+		if (fc == WinFightTable.NONE || tc == WinFightTable.NONE)
+			return winFightState(fp, tp);
+
+		int result = fightTable.get(fc, tc);
+		if (result < 0) {
+			result = winFightState(fp, tp);
+			fightTable.put(fc, tc, result);
+		}
+		return result;
+	}
+
+	// winFight() outcome computed from the piece state.
+	// The result must depend only on Piece.getFightKey()
+	// of the two pieces and on pre-processing results
+	// (see WinFightTable).
+	protected int winFightState(Piece fp, Piece tp)
 	{
 		Rank fprank = fp.getRank();
 		Rank tprank = tp.getRank();
@@ -7452,7 +7523,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		//
 		// Note: Prior to version 10.1, this was qualified by
 		//
-		// && (flag[Settings.topColor].isKnown()
+		// && (flag[topColor].isKnown()
 		//	|| fprank == Rank.UNKNOWN)) {
 		//
 		// But if the attacker becomes a known unknown during
@@ -7475,7 +7546,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// AI IS DEFENDER (tp)
 
 		if (!fp.isKnown()
-			&& tp.getColor() == Settings.topColor) {
+			&& tp.getColor() == topColor) {
 
             if (tprank == Rank.BOMB) {
                 if (fp.isMaybeEight()
@@ -7702,7 +7773,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 			boolean riskExpendable =
 				(isExpendable(tp)
 				&& !tp.isKnown()
-				&& isWinning(Settings.topColor) >= VALUE_FIVE);
+				&& isWinning(topColor) >= VALUE_FIVE);
 
 		// If the attacker does not have a suspected rank,
 		// but it does has a chase rank, it must have
@@ -7776,7 +7847,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
                     } // fp UNKNOWN rank
 
 		} else if (!tp.isKnown()
-			&& fp.getColor() == Settings.topColor) {
+			&& fp.getColor() == topColor) {
 
 		// AI IS ATTACKER (fp)
 
@@ -7993,7 +8064,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
                     continue;
 
             // unk could be rank because rank would have attacked
-                if (stealthValue(Settings.topColor, rank) * 5 / 4 > values[Settings.topColor][lowfleeRank.ordinal()])
+                if (stealthValue(topColor, rank) * 5 / 4 > values[topColor][lowfleeRank.ordinal()])
                     break;
 
             // unk should not be rank because rank did not attack
@@ -8100,7 +8171,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 		// but it does happen.
 
             || (rank == Rank.NINE
-                && p.getColor() == Settings.bottomColor))
+                && p.getColor() == bottomColor))
             return true;
 
         if (p.isKnown())
@@ -8254,7 +8325,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	// If the AI has guessed the location of the Spy, the AI One is safe
 	// from any unknown piece.
 
-		if (!hasUnsuspectedSpy(Settings.bottomColor))
+		if (!hasUnsuspectedSpy(bottomColor))
 			return false;
 
 	// A piece that fled from the One is not the Spy
@@ -8265,7 +8336,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         // If the opponent is not winning by much and does not have
         // any dangerous ranks, then the AI One remains conservative.
 
-		if (isWinning(Settings.bottomColor) < values[Settings.topColor][3]) {
+		if (isWinning(bottomColor) < values[topColor][3]) {
 			if (dangerousKnownRank == 99 && dangerousUnknownRank == 99)
 				return true;
         }
@@ -8303,7 +8374,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
         // If the opponent is not winning by much, the AI remains conservative
 
-		if (isWinning(Settings.bottomColor) < values[Settings.topColor][3])
+		if (isWinning(bottomColor) < values[topColor][3])
             return true;
 
 	// The AI is losing badly and must become even more aggressive,
@@ -8333,7 +8404,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 	// between the ranks as well as the value of the AI piece at risk.
 	int riskOfLoss(Piece fp, Piece tp)
 	{
-		assert fp.getColor() == Settings.topColor : "fp must be top color.  Rank " + fp.getRank() + " color " + fp.getColor() + " at " + fp.getIndex() + " tpRank " + tp.getRank() + " color " + tp.getColor() + " at " + tp.getIndex();
+		assert fp.getColor() == topColor : "fp must be top color.  Rank " + fp.getRank() + " color " + fp.getColor() + " at " + fp.getIndex() + " tpRank " + tp.getRank() + " color " + tp.getColor() + " at " + tp.getIndex();
 		Rank fprank = fp.getRank();
 		Rank tprank = tp.getRank();
 
@@ -8498,7 +8569,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
     int riskOfWin(int fpvalue, Piece fp, Piece tp, boolean maybeBomb)
     {
-        assert fp.getColor() == Settings.topColor : "riskOfWin only for AI";
+        assert fp.getColor() == topColor : "riskOfWin only for AI";
         assert !tp.isKnown() : "riskOfWin: opponent piece must be unknown";
         Rank fprank = fp.getRank();
         assert !(maybeBomb && fprank == Rank.EIGHT);
@@ -8670,7 +8741,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         int c = 1 - oppPiece.getColor();
 
         int up;
-        if (c == Settings.topColor)
+        if (c == topColor)
             up = -11;
         else
             up = 11;
@@ -8772,7 +8843,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
         // Did the piece expose another piece?
         int down;
-        if (c == Settings.topColor)
+        if (c == topColor)
             down = -11;
         else
             down = 11;
@@ -8828,7 +8899,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
         for (int lane = 0; lane < 3; lane++)
         for (int x = 0; x < 2; x++) {
-            Piece p = getSetupPiece(Grid.getIndex(lane*4+x, Grid.yside(1-c, 3)));
+            Piece p = getSetupPiece(Grid.getIndex(lane*4+x, yside(1-c, 3)));
             p.set(Piece.WEAK);
             p.setMaybeEight(false);
         }
@@ -8837,7 +8908,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         // guessing that most opponents do not bury strong pieces
 
         for (int x = 0; x < 10; x++)
-            getSetupPiece(Grid.getIndex(x, Grid.yside(1-c, 0))).set(Piece.WEAK);
+            getSetupPiece(Grid.getIndex(x, yside(1-c, 0))).set(Piece.WEAK);
 
         } // c
 
@@ -8845,9 +8916,9 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
         // while the AI One is unknown and the opponent Two
         // is unknown.
 
-        if (unknownRankAtLarge(Settings.topColor, Rank.ONE) == 0
-            && unknownRankAtLarge(Settings.bottomColor, Rank.TWO) == 0
-            && weakRanks(Settings.topColor) <= 4
+        if (unknownRankAtLarge(topColor, Rank.ONE) == 0
+            && unknownRankAtLarge(bottomColor, Rank.TWO) == 0
+            && weakRanks(topColor) <= 4
             && blufferRisk != 5) {
             UndoMove um = getLastMove(1);
             if (um != UndoMove.NullMove
@@ -8879,7 +8950,7 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
 
     boolean isForay(int i)
     {
-            return lotto || isForaySquare(Settings.topColor, i);
+            return lotto || isForaySquare(topColor, i);
     }
 
     // Return a result between 0 and v, depending on the value vm.
@@ -8935,8 +9006,8 @@ assert p.getRank() != Rank.UNKNOWN : "Unknown cannot be known or suspected " + p
             s += i + ",";
         s += "\n";
 
-        s += "Foray lane: " + forayLane[Settings.topColor] + "\n";
-        if (forayLane[Settings.topColor] != 0) {
+        s += "Foray lane: " + forayLane[topColor] + "\n";
+        if (forayLane[topColor] != 0) {
             for (int i=12; i <= 120; i++)
                 if (isForay(i))
                     s += i + ",";
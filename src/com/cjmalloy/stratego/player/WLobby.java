@@ -66,8 +66,8 @@ public class WLobby implements MessageHandler
 	private JTextField txtCmd = null;
 	private JScrollPane scMain = null;
 	private JTextArea txtMain = null;
-	private JList lstUsers = null;
-	private DefaultListModel listModel = null;
+	private JList<String> lstUsers = null;
+	private DefaultListModel<String> listModel = null;
 	private JSplitPane jSplitPane = null;
 	private PopupMenu popUser = null;
 	private MenuItem mStartGame = null;
@@ -87,7 +87,7 @@ public class WLobby implements MessageHandler
 	
 	private WLobby()
 	{
-		listModel = new DefaultListModel();
+		listModel = new DefaultListModel<String>();
 		conn.register(this);
 	}
 	
@@ -143,7 +143,7 @@ public class WLobby implements MessageHandler
 	{
 		try
 		{
-			switch (Message.values()[type])
+			switch (Message.get(type))
 			{
 			case MSG:
 				print(Connection.decode(in.readInt(), in));
@@ -152,9 +152,24 @@ public class WLobby implements MessageHandler
 				Scanner cmd = new Scanner(Connection.decode(in.readInt(), in));
 				while (cmd.hasNext())
 				{
-					switch (cmd.next().charAt(0))
+					String c = cmd.next();
+					if (c.equals("u+"))
 					{
-					case 'u':
+						// users joined (see GameServer)
+						int len = cmd.nextInt();
+						for (int i=0;i<len;i++)
+							addUser(cmd.next());
+					}
+					else if (c.equals("u-"))
+					{
+						// users left
+						int len = cmd.nextInt();
+						for (int i=0;i<len;i++)
+							listModel.removeElement(cmd.next());
+					}
+					else if (c.equals("u"))
+					{
+						// the whole list
 						int len = cmd.nextInt();
 						ArrayList<String> sorter = new ArrayList<String>();
 						for (int i=0;i<len;i++)
@@ -187,7 +202,6 @@ public class WLobby implements MessageHandler
 						{
 							listModel.remove(i);
 						}
-						break;
 					}
 				}
 				return true;
@@ -202,6 +216,16 @@ public class WLobby implements MessageHandler
 		}
 	}
 	
+	// adds a user to the sorted list, unless it is there already
+	private void addUser(String user)
+	{
+		int i = 0;
+		while (i < listModel.size() && user.compareTo(listModel.get(i).toString()) > 0)
+			i++;
+		if (i == listModel.size() || !listModel.get(i).equals(user))
+			listModel.add(i, user);
+	}
+	
 	private void print(String s)
 	{
 		//TODO: fix it so that you can scroll with out it harassing you
@@ -414,11 +438,11 @@ public class WLobby implements MessageHandler
 		return txtMain;
 	}
 
-	private JList getLstUsers()
+	private JList<String> getLstUsers()
 	{
 		if (lstUsers == null)
 		{
-			lstUsers = new JList(listModel);
+			lstUsers = new JList<String>(listModel);
 			lstUsers.setCellRenderer(new ColorListCellRenderer());
 			lstUsers.addKeyListener(setFocus);
 			lstUsers.addMouseListener(new MouseAdapter()
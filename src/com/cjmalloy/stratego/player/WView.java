@@ -96,24 +96,18 @@ public class WView extends View implements MoveListener
 		//resize();
 	}
 	
+	// a square or, if s is IN_TRAY, the tray slot p.getID()
+	// (see Client.apply())
 	public void update(Spot s, Piece p)
 	{
 		if (s == Board.IN_TRAY)
 		{
+			// the user's tray holds the bottom color, as in updateTray()
+			PieceButton[] tray = p.getColor()%2 == Settings.bottomColor ? trayUser : trayComp;
 			if (p.getRank().equals(Rank.NIL))
-			{
-				if (p.getColor()%2 == 1)
-					trayUser[p.getID()].setPiece(null);
-				else
-					trayComp[p.getID()].setPiece(null);
-			}
+				tray[p.getID()].setPiece(null);
 			else
-			{
-				if (p.getColor()%2 == 1)
-					trayUser[p.getID()].setPiece(p);
-				else
-					trayComp[p.getID()].setPiece(p);
-			}
+				tray[p.getID()].setPiece(p);
 		}
 		else
 		{
@@ -0,0 +1,101 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.player;
+
+import com.cjmalloy.stratego.Piece;
+
+//
+// Outcome table for TestingBoard.winFight(Piece, Piece).
+//
+// The outcome of winFight() depends on the state of the two
+// pieces (see Piece.getFightKey()) and on the pre-processing
+// results of the TestingBoard (piece values, invincible ranks,
+// lowest expendable rank and so on), which do not change during
+// the search.  So for one search root, the outcome is a function
+// of the two piece states alone.
+//
+// The piece states seen during a search are few,
+// so each distinct state is given a small class number, which
+// is cached in the Piece until its state changes.
+// The outcome of each pair of classes is computed once
+// and then winFight() is a single array load.
+//
+// A new table is created with each TestingBoard, which is
+// when the suspected ranks are guessed again.
+//
+class WinFightTable
+{
+	static final int MAX_CLASSES = 256;
+	static final int NONE = -1;
+
+	// open addressing hash of piece state keys to classes
+	private static final int HASH_SIZE = MAX_CLASSES * 4;
+	private long[] keys = new long[HASH_SIZE];
+	private short[] classes = new short[HASH_SIZE];
+	private int nClasses = 0;
+
+	// outcome + 1 of each attacker class x defender class,
+	// 0 if not yet computed
+	private byte[] outcome = new byte[MAX_CLASSES * MAX_CLASSES];
+
+	// Returns the class of the piece, or NONE if the table is full.
+	int classOf(Piece p)
+	{
+		int c = p.getFightClass();
+		if (c >= 0)
+			return c;
+
+		long key = p.getFightKey();
+		int h = (int)(key ^ (key >>> 29)) * 0x9E3779B9;
+		for (int i = (h >>> 22) & (HASH_SIZE - 1); ; i = (i + 1) & (HASH_SIZE - 1)) {
+
+		// key 0 is not possible because (color + 1) is never 0
+
+			if (keys[i] == key) {
+				c = classes[i];
+				break;
+			}
+			if (keys[i] == 0) {
+				if (nClasses == MAX_CLASSES)
+					return NONE;
+				keys[i] = key;
+				c = nClasses++;
+				classes[i] = (short)c;
+				break;
+			}
+		}
+		p.setFightClass(c);
+		return c;
+	}
+
+	// Returns the cached outcome or -1 if not yet computed.
+	int get(int fc, int tc)
+	{
+		return outcome[fc * MAX_CLASSES + tc] - 1;
+	}
+
+	void put(int fc, int tc, int result)
+	{
+		outcome[fc * MAX_CLASSES + tc] = (byte)(result + 1);
+	}
+
+	int size()
+	{
+		return nClasses;
+	}
+}
@@ -0,0 +1,233 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.cjmalloy.stratego.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Settings;
+import com.cjmalloy.stratego.Spot;
+import com.cjmalloy.stratego.player.AI;
+import com.cjmalloy.stratego.player.CompControls;
+import com.cjmalloy.stratego.player.SearchStats;
+import com.cjmalloy.stratego.server.shared.Message;
+
+//
+// An AI opponent hosted by the server.
+//
+// AIPlayer stands in for the connection of the AI player of
+// a game (like LocalConnection for the console), so a game
+// against the AI is a Game like any other.  What the game
+// sends it is dropped: the AI plays on the board of the game
+// (see ServerEngine.getBoard()).  The AI plays the top color,
+// player 0.
+//
+// Every AI game has an AI of its own, but the searches run on
+// the shared AI pool (see AI.getMoveAsync()), a thread per core,
+// so the number of threads searching is fixed however many
+// games there are.  A move has a time budget counted from when
+// its search starts, so every move gets the search time of its
+// level, and a busy server delays moves instead: the player
+// waits for the move in the pool queue and then for the search.
+// The two are reported separately (see status()), and
+// GameServer admits no new AI games while the pool is a round
+// of searches behind.
+//
+// The move is made on a connection worker, not on the AI pool,
+// because making a move may pause (Engine.move() shows an
+// attacker for a while).
+//
+public class AIPlayer extends ServerConnection implements CompControls
+{
+	static public final int MAX_LEVEL = 10;
+	static public final int DEFAULT_LEVEL = 5;
+
+	static private final AtomicInteger count = new AtomicInteger();
+	static private final AtomicLong moves = new AtomicLong();
+	static private final AtomicLong waited = new AtomicLong();	// ms
+	static private final AtomicLong maxWait = new AtomicLong();	// ms
+	static private final AtomicLong queued = new AtomicLong();	// ms
+	static private final AtomicLong maxQueued = new AtomicLong();	// ms
+
+	private final int level;
+	private final long budget;	// ms per move
+	private Game game = null;
+	private ServerEngine engine = null;
+	private AI ai = null;
+	private CompletableFuture<Move> search = null;	// guarded by game
+	private volatile boolean stopped = false;
+
+	// the AI of Settings.aiLevel level: level^2 * 10 ms a move
+	public AIPlayer(int level)
+	{
+		level = Math.max(1, Math.min(level, MAX_LEVEL));
+		this.level = level;
+		budget = level * level * 10;
+		alias = "AI-" + count.incrementAndGet();
+		version = Message.PROTOCOL_MAJOR_VERSION;
+	}
+
+	// called by Game.start(), with the game lock held
+	void start(Game g, ServerEngine e)
+	{
+		game = g;
+		engine = e;
+		ai = new AI(engine.getBoard(), this);
+		try
+		{
+			ai.getBoardSetup();
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+		}
+		engine.play(Settings.topColor);
+	}
+
+	// takes over a game rebuilt from its journal (see Game.recover())
+	void resume(Game g, ServerEngine e)
+	{
+		game = g;
+		engine = e;
+		ai = new AI(engine.getBoard(), this);
+	}
+
+	int getLevel()
+	{
+		return level;
+	}
+
+	// Starts a search if it is the AI's turn
+	// (called with the game lock held).
+	void turn()
+	{
+		if (stopped || search != null || !engine.isPlaying()
+			|| engine.getTurn() != Settings.topColor)
+			return;
+
+		final long start = System.currentTimeMillis();
+		final CompletableFuture<Move> f = ai.getMoveAsync(budget);
+		search = f;
+		f.whenCompleteAsync((m, e) -> moved(f, m, e, start), workers);
+	}
+
+	private void moved(CompletableFuture<Move> f, Move m, Throwable e, long start)
+	{
+		synchronized (game)
+		{
+			if (search != f)
+				return;
+			search = null;
+			if (stopped)
+				return;
+
+			// the time from the request, and the part of it
+			// waiting in the pool queue (all of it if the search
+			// never ran)
+			long t = System.currentTimeMillis() - start;
+			long q = t;
+			if (e == null)
+				q = Math.max(0, t - ai.getSearchStats().getSearchMillis());
+			moves.incrementAndGet();
+			waited.addAndGet(t);
+			maxWait.accumulateAndGet(t, Math::max);
+			queued.addAndGet(q);
+			maxQueued.accumulateAndGet(q, Math::max);
+
+			// an AI without a move (or a search that failed)
+			// loses, as in AIEngine
+			if (e == null && m != null && m.getPiece() != null)
+				engine.requestMove(m, Settings.topColor);
+			if (engine.isPlaying() && engine.getTurn() == Settings.topColor)
+				engine.resign(Settings.topColor);
+			game.update();
+		}
+	}
+
+	// the game is over
+	void stop()
+	{
+		stopped = true;
+		CompletableFuture<Move> f = search;
+		if (f != null)
+			f.cancel(false);
+	}
+
+	public void aiReturnMove(Move m) {}
+
+	public void aiReturnPlace(Piece p, Spot s)
+	{
+		// AI.getBoardSetup() also fills in the other side
+		if (p.getColor() == Settings.topColor)
+			engine.place(p, s);
+	}
+
+	public void play() {}
+
+	// Status of the AI games of the server: the pool, the searches
+	// waiting for it, the average and longest time a player
+	// waited for a move and how much of it was in the pool queue
+	// (the rest is the search), and the CPU time of the searches
+	// (also as a share of the pool since the server started).
+	static String status(int games)
+	{
+		long n = moves.get();
+		long cpu = SearchStats.getTotal().getCpuMillis();
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		return games + " AI games, "
+			+ AI.getActiveSearches() + "/" + AI.getPoolSize() + " AI threads busy, "
+			+ AI.getQueueDepth() + " searches queued"
+			+ "\n" + n + " AI moves, "
+			+ (n == 0 ? 0 : waited.get() / n) + "ms average ("
+			+ (n == 0 ? 0 : queued.get() / n) + "ms queued), "
+			+ maxWait.get() + "ms longest ("
+			+ maxQueued.get() + "ms longest queued), "
+			+ "AI cpu " + cpu / 1000 + "." + cpu / 100 % 10 + "s ("
+			+ 100 * cpu / Math.max(1, uptime * AI.getPoolSize()) + "% of the pool)";
+	}
+
+	// what the game sends is dropped
+	public boolean connected()
+	{
+		return false;
+	}
+
+	public void startSending() {}
+
+	public void stopSending() {}
+
+	public synchronized void writeInt(int i) {}
+
+	public synchronized void println(String s) {}
+
+	public synchronized void print(String s) {}
+
+	public void disconnect() {}
+
+	public void bye() {}
+
+	public String status()
+	{
+		return alias + " (" + budget + "ms a move)";
+	}
+}
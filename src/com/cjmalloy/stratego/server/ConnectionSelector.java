@@ -0,0 +1,122 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//
+// ConnectionSelector reads all of the server connections
+// on one thread.
+//
+// Connection.startReading() blocks a thread per connection
+// in readInt(), so every idle player in the lobby used to cost
+// a thread.  After the handshake, a ServerConnection switches
+// its socket channel to non-blocking mode and registers it here.
+// The selector thread reads whatever has arrived and the
+// connection splits it into packets (the same int length and
+// packet framing as Connection.read()), which it dispatches
+// to its MessageHandlers on a worker thread.  Packets that could
+// not be written at once are written here when the socket
+// becomes writable again (see ServerConnection).
+//
+public class ConnectionSelector implements Runnable
+{
+	static private ConnectionSelector me = null;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<ServerConnection> registering
+		= new ConcurrentLinkedQueue<ServerConnection>();
+
+	private ConnectionSelector() throws IOException
+	{
+		selector = Selector.open();
+		Thread t = new Thread(this, "connection selector");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public static synchronized ConnectionSelector get() throws IOException
+	{
+		if (me == null)
+			me = new ConnectionSelector();
+		return me;
+	}
+
+	// A channel cannot be registered while the selector thread
+	// is blocked in select(), so the selector thread does it.
+	public void register(ServerConnection c)
+	{
+		registering.add(c);
+		selector.wakeup();
+	}
+
+	// interest ops changed by another thread
+	public void wakeup()
+	{
+		selector.wakeup();
+	}
+
+	public int size()
+	{
+		return selector.keys().size();
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				selector.select();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				continue;
+			}
+
+			ServerConnection c;
+			while ((c = registering.poll()) != null)
+				c.registered(selector);
+
+			Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+			while (i.hasNext())
+			{
+				SelectionKey key = i.next();
+				i.remove();
+				c = (ServerConnection)key.attachment();
+				try
+				{
+					if (key.isValid() && key.isWritable())
+						c.writable();
+					if (key.isValid() && key.isReadable())
+						c.readable();
+				}
+				catch (CancelledKeyException e)
+				{
+					// closed by another thread
+				}
+			}
+		}
+	}
+}
@@ -66,7 +66,7 @@ public class Controller implements MessageHandler
 
 	public boolean read(int type, DataInputStream in)
 	{
-		switch(Message.values()[type])
+		switch(Message.get(type))
 		{
 		case CMD:
 			try
@@ -184,6 +184,38 @@ public class Controller implements MessageHandler
 						}
 					}
 					break;
+				case 'b': //new game against the AI
+				case 'B':
+					if (input.endsWith("?"))
+					{
+						if (owner.getGameServer().isAIAvailable())
+							println("The AI is available for a game.");
+						else
+							println("The server is too busy for a game against the AI.");
+						break;
+					}
+					
+					int level = AIPlayer.DEFAULT_LEVEL;
+					if (kbd.hasNextInt())
+						level = kbd.nextInt();
+					owner.newAIGame(conn, level);
+					break;
+				case 'w': //watch a game
+				case 'W':
+					if (!kbd.hasNextInt())
+					{
+						owner.getGameServer().unwatch(conn);
+						println("Not watching a game.");
+					}
+					else
+					{
+						int id = kbd.nextInt();
+						if (owner.getGameServer().watch(conn, id))
+							println("Watching game " + id + ".");
+						else
+							println("Game " + id + " can't be watched.");
+					}
+					break;
 				case 's': //status
 				case 'S':
 					conn.startSending();
@@ -191,6 +223,8 @@ public class Controller implements MessageHandler
 					{
 						conn.println(owner.getGameServer().status());
 						conn.println(owner.getGameServer().idle());
+						conn.println(owner.getGameServer().ai());
+						conn.println(Log.status());
 						conn.println("Port " + owner.getGameServer().getPort());
 						conn.println("IP   " + getIP());
 						if (owner.getGameServer().isIgnoring())
@@ -239,6 +273,23 @@ public class Controller implements MessageHandler
 						println("Restarted.");
 					}
 					break;
+				case 'm': //metrics [scrape port]
+				case 'M':
+					if (privilege > 1) break;
+
+					if (kbd.hasNextInt())
+					{
+						int mport = kbd.nextInt();
+						if (!ServerMetrics.listen(mport))
+							println("Can't serve metrics on port " + mport + ".");
+						else if (mport == 0)
+							println("Not serving metrics.");
+						else
+							println("Serving metrics on 127.0.0.1:" + ServerMetrics.getPort() + ".");
+						break;
+					}
+					println(ServerMetrics.get().summary());
+					break;
 				case 'p': //port #####
 				case 'P':
 					if (privilege > 1) break;
@@ -251,7 +302,7 @@ public class Controller implements MessageHandler
 				case 'I':
 					if (privilege > 1)
 					{
-						conn.ignore = !conn.ignore;
+						owner.getGameServer().ignore(conn, !conn.ignore);
 					}
 					else
 					{
@@ -360,6 +411,13 @@ public class Controller implements MessageHandler
 						conn.println("\tusage: n? #users user1 user2 ... user#" +
 								"\n\texample: n? 2 mike kim (is either mike or kim available?)" +
 								"\n\texample: n? 0 (is anyone available?)");
+						conn.println("b - new game against the AI");
+						conn.println("\tusage: b [level]" +
+								"\n\texample: b 5 (the AI thinks up to .25 seconds a move, levels 1 to 10)");
+						conn.println("b? - can the AI play a game now?");
+						conn.println("w - watch a game (see g), or stop watching");
+						conn.println("\tusage: w [game]" +
+								"\n\texample: w 12");
 						conn.println("u - change username");
 						conn.println("\tusage: u username");
 						conn.println("u? - what's my username?");
@@ -367,6 +425,9 @@ public class Controller implements MessageHandler
 						conn.println("g - list games");
 						conn.println("c - (admin) list controllers");
 						conn.println("r - (admin) restart (kills all games)");
+						conn.println("m - (admin) metrics, or serve them for scraping on a local port (0 stops)");
+						conn.println("\tusage: m [port]" +
+								"\n\texample: m 9404");
 						conn.println("p - (admin) change port");
 						conn.println("\tusage: p port" +
 								"\n\texample: p 12345");
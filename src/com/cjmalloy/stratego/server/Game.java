@@ -19,6 +19,10 @@ package com.cjmalloy.stratego.server;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Move;
@@ -27,6 +31,7 @@ import com.cjmalloy.stratego.Rank;
 import com.cjmalloy.stratego.Spot;
 import com.cjmalloy.stratego.server.shared.Message;
 import com.cjmalloy.stratego.server.shared.MessageHandler;
+import com.cjmalloy.stratego.server.shared.SharedPacket;
 
 
 public class Game
@@ -44,28 +49,35 @@ public class Game
 		
 		public void disconnect()
 		{
-			game.player[player].unregister(this);
+			if (game.player[player] != null)
+				game.player[player].unregister(this);
 		}
 
 		public void bye()
 		{
-			game.player[(player+1)%2].startSending();
-			try
-			{
-				game.player[(player+1)%2].writeInt(Message.DISC.ordinal());
-			}
-			finally
-			{
-				game.player[(player+1)%2].stopSending();
-			}
+			sendDisc((player+1)%2);
+			broadcast(Message.DISC.ordinal());
 			gameServer.gameOver(game);
 		}
 
+		// The two players are read on different threads, so
+		// the moves of a game are applied one at a time.
 		public boolean read(int type, DataInputStream in)
+		{
+			synchronized (game)
+			{
+				boolean r = apply(type, in);
+				if (bot != null)
+					bot.turn();
+				return r;
+			}
+		}
+
+		private boolean apply(int type, DataInputStream in)
 		{
 			try
 			{
-				switch (Message.values()[type])
+				switch (Message.get(type))
 				{
 				case MOVE:
 					int x1, x2, y1, y2, rank;
@@ -79,8 +91,7 @@ public class Game
 					if (x1 < 0)
 					{
 						from = Board.IN_TRAY;
-						// p = new Piece(0, 0, Rank.values()[rank]);
-						p = new Piece(0, Rank.values()[rank]);
+						p = new Piece(0, 0, Rank.values()[rank]);
 					}
 					else
 					{
@@ -110,25 +121,111 @@ public class Game
 		}
 	}
 
+	static private final AtomicInteger ids = new AtomicInteger();
+
+	public final int id;
 	private ServerEngine engine = null;
+	private Journal journal = null;
 	public ServerConnection player[] = new ServerConnection[2];
 	private Mailbox mailboxes[] = new Mailbox[2];
+	private AIPlayer bot = null;	// player 0 of a game against the AI
 	private GameServer gameServer = null;
 
+	// what each player was last sent (see update())
+	static private final int TRAY = 100;	// first tray slot
+	static private final int UNSENT = -1;
+	private int sent[][] = new int[3][TRAY + 80];
+	private int now[] = new int[TRAY + 80];
+
+	//
+	// Spectators.
+	//
+	// A spectator sees neither player's side of the board, only
+	// the pieces that both players have seen (the shown pieces),
+	// so all of the spectators see the same thing.  The changes
+	// are written once into a SharedPacket and the same encoded
+	// buffer is sent to every spectator (see Connection.send()).
+	//
+	// The sends don't block, but a spectator that doesn't read
+	// its socket piles up a send queue.  Once its queue is over
+	// SPECTATOR_BACKLOG, it gets no more changes, only a whole
+	// board (a snapshot) every SNAPSHOT_INTERVAL once its queue
+	// has drained, so a slow spectator costs the server a
+	// bounded queue and never holds up the game.
+	//
+	static private final int SPECTATOR = 2;	// the view (see code())
+	static private final int SPECTATOR_BACKLOG = 1 << 16;	// bytes
+	static private final long SNAPSHOT_INTERVAL = 2000;	// ms
+
+	static private class Spectator
+	{
+		final ServerConnection conn;
+		boolean lagging = true;	// the first thing it gets is a snapshot
+		long snapshot = 0;	// when it was sent the last one
+
+		Spectator(ServerConnection c)
+		{
+			conn = c;
+		}
+	}
+
+	private CopyOnWriteArrayList<Spectator> spectators = new CopyOnWriteArrayList<Spectator>();
+
 	public Game(GameServer gs, ServerConnection p1, ServerConnection p2)
 	{
+		this(gs, ids.incrementAndGet(), p1, p2);
+	}
+
+	private Game(GameServer gs, int i, ServerConnection p1, ServerConnection p2)
+	{
+		id = i;
 		gameServer = gs;
+		Arrays.fill(sent[0], UNSENT);
+		Arrays.fill(sent[1], UNSENT);
+		Arrays.fill(sent[SPECTATOR], UNSENT);
 		
 		player[0] = p1;
 		player[1] = p2;
 		mailboxes[0] = new Mailbox(this, 0);
 		mailboxes[1] = new Mailbox(this, 1);
-		player[0].register(mailboxes[0]);
-		player[1].register(mailboxes[1]);
 	}
 
-	public void start()
+	// a game of p against the AI
+	public Game(GameServer gs, AIPlayer ai, ServerConnection p)
+	{
+		this(gs, (ServerConnection)ai, p);
+		bot = ai;
+	}
+
+	// A game rebuilt from its journal (see recover()).  The
+	// players are null until they come back (see rejoin()),
+	// except the AI.
+	Game(GameServer gs, Journal j, AIPlayer ai)
+	{
+		this(gs, j.id, ai, null);
+		ids.accumulateAndGet(j.id, Math::max);
+		bot = ai;
+		journal = j;
+	}
+
+	AIPlayer getAI()
 	{
+		return bot;
+	}
+
+	// the alias of player i (also of a player who hasn't come back)
+	String getPlayer(int i)
+	{
+		if (journal != null)
+			return journal.players[i];
+		return player[i] == null ? null : player[i].alias;
+	}
+
+	// the mailboxes wait for the engine (see Mailbox.read())
+	public synchronized void start()
+	{
+		player[0].register(mailboxes[0]);
+		player[1].register(mailboxes[1]);
 		for (int i=0;i<2;i++)
 		{
 			player[i].startSending();
@@ -145,17 +242,177 @@ public class Game
 		
 		engine = new ServerEngine(this);
 		engine.newGame();
+		journal = Journal.create(id, player[0].alias, player[1].alias,
+			bot != null ? bot.getLevel() : 0);
+		engine.setJournal(journal);
+		if (bot != null)
+			bot.start(this, engine);
 		update();
 	}
 
-	public void gameOver(int c)
+	// Rebuilds the game from its journal.  Returns false if the
+	// game was over (its journal is closed).
+	synchronized boolean recover() throws IOException
+	{
+		engine = new ServerEngine(this);
+		engine.newGame();
+		engine.replay(journal);
+		journal.resume();
+		if (journal.isEnded() || engine.isOver())
+		{
+			journal.end(engine.getWinner());
+			return false;
+		}
+		engine.setJournal(journal);
+		if (bot != null)
+		{
+			bot.resume(this, engine);
+			bot.turn();
+		}
+		return true;
+	}
+
+	// Puts c back in the game it was playing as c.alias, if
+	// its place is empty.  It is sent the whole board.
+	public synchronized boolean rejoin(ServerConnection c)
 	{
-		update();
 		for (int i=0;i<2;i++)
 		{
-			player[i].writeInt(Message.GAMEOVER.ordinal());
-			player[i].writeInt(c);
+			if (player[i] != null || !c.alias.equals(getPlayer(i)))
+				continue;
+			player[i] = c;
+			c.register(mailboxes[i]);
+			c.startSending();
+			try
+			{
+				c.writeInt(Message.SETUP.ordinal());
+				c.writeInt(i);
+			}
+			finally
+			{
+				c.stopSending();
+			}
+			sync(i);
+			return true;
+		}
+		return false;
+	}
+
+	// a player who didn't come back ends the game
+	public void abandon()
+	{
+		synchronized (this)
+		{
+			for (int i=0;i<2;i++)
+				sendDisc(i);
+			broadcast(Message.DISC.ordinal());
 		}
+		disc();
+	}
+
+	// the game is over for the server (see GameServer.gameOver())
+	void close()
+	{
+		if (journal != null)
+			journal.end(engine != null ? engine.getWinner() : -1);
+	}
+
+	// tells player i that the game is over without a winner
+	private void sendDisc(int i)
+	{
+		if (player[i] == null || player[i] == bot)
+			return;
+		player[i].startSending();
+		try
+		{
+			player[i].writeInt(Message.DISC.ordinal());
+		}
+		finally
+		{
+			player[i].stopSending();
+		}
+	}
+
+	public synchronized void gameOver(int c)
+	{
+		update(true);
+		for (int i=0;i<2;i++)
+		{
+			if (player[i] == null || player[i] == bot)
+				continue;
+			// in a packet of its own: written outside of one,
+			// it was thrown away by the next startSending()
+			player[i].startSending();
+			try
+			{
+				player[i].writeInt(Message.GAMEOVER.ordinal());
+				player[i].writeInt(c);
+			}
+			finally
+			{
+				player[i].stopSending();
+			}
+		}
+		broadcast(Message.GAMEOVER.ordinal(), c);
+	}
+
+	// sends a message to all of the spectators
+	private void broadcast(int... msg)
+	{
+		if (spectators.isEmpty())
+			return;
+		SharedPacket p = new SharedPacket();
+		for (int i: msg)
+			p.writeInt(i);
+		for (Spectator s: spectators)
+			s.conn.send(p);
+	}
+
+	// Adds c to the spectators of the game.  The clients draw the
+	// board of player 0, and the moves of a spectator go nowhere
+	// because it has no mailbox.
+	public synchronized boolean watch(ServerConnection c)
+	{
+		if (engine == null)
+			return false;
+		for (Spectator s: spectators)
+			if (s.conn == c)
+				return true;
+
+		c.startSending();
+		try
+		{
+			c.writeInt(Message.SETUP.ordinal());
+			c.writeInt(0);
+		}
+		finally
+		{
+			c.stopSending();
+		}
+		spectators.add(new Spectator(c));
+		update();
+		return true;
+	}
+
+	public synchronized void unwatch(ServerConnection c)
+	{
+		for (Spectator s: spectators)
+			if (s.conn == c)
+				spectators.remove(s);
+	}
+
+	public int getSpectators()
+	{
+		return spectators.size();
+	}
+
+	// the connections watching the game (see GameServer.gameOver())
+	ArrayList<ServerConnection> getWatchers()
+	{
+		ArrayList<ServerConnection> r = new ArrayList<ServerConnection>();
+		for (Spectator s: spectators)
+			r.add(s.conn);
+		return r;
 	}
 	
 	public void disc()
@@ -166,100 +423,178 @@ public class Game
 		gameServer.gameOver(this);
 	}
 
-	public void update()
+	// The code of what player i (or SPECTATOR) sees of a piece:
+	// (color + 1) << 8 | rank, where color is -1 for an empty
+	// square and 2 or 3 for a piece that is shown.
+	private int code(Piece p, int i)
+	{
+		if (p == null || p.getColor() < 0)
+			return Rank.NIL.ordinal();
+		if (p.isShown())
+			return (p.getColor()+3) << 8 | p.getActualRank().ordinal();
+		if (p.getColor() == i)
+			return (p.getColor()+1) << 8 | p.getActualRank().ordinal();
+		return (p.getColor()+1) << 8 | Rank.UNKNOWN.ordinal();
+	}
+
+	// Sends player i the whole board, e.g. when its client
+	// has lost track of it.
+	public synchronized void sync(int i)
+	{
+		Arrays.fill(sent[i], UNSENT);
+		update();
+	}
+
+	// Each player is sent only the squares and tray slots that
+	// changed since its last update.  A move changes two or
+	// three of them, so this is much smaller than the full board
+	// of 100 GRID and 80 TRAY messages.
+	public synchronized void update()
+	{
+		update(false);
+	}
+
+	// final: the game is over, so the lagging spectators get
+	// the last position whatever their queues
+	private void update(boolean fin)
 	{
 		for (int i=0;i<2;i++)
 		{
+			if (player[i] == null || player[i] == bot)
+				continue;
+
+			view(i);
+			int changed = 0;
+			for (int n=0;n<now.length;n++)
+				if (now[n] != sent[i][n])
+					changed++;
+			if (changed == 0)
+				continue;
+
 			player[i].startSending();
 			try
 			{
-				for (int j=0;j<10;j++)
-				for (int k=0;k<10;k++)
+				for (int n=0;n<now.length;n++)
 				{
-					player[i].writeInt(Message.GRID.ordinal());
+					if (now[n] == sent[i][n])
+						continue;
+					sent[i][n] = now[n];
 
-					player[i].writeInt(j);
-					player[i].writeInt(k);
-					if (engine.getBoardPiece(j, k) == null || engine.getBoardPiece(j, k).getColor() < 0)
+					if (n < TRAY)
 					{
-						player[i].writeInt(-1);
-						player[i].writeInt(Rank.NIL.ordinal());
+						player[i].writeInt(Message.GRID.ordinal());
+						player[i].writeInt(n/10);
+						player[i].writeInt(n%10);
 					}
 					else
 					{
-						if (engine.getBoardPiece(j, k).isShown())
-						{
-							player[i].writeInt(engine.getBoardPiece(j, k).getColor()+2);
-							player[i].writeInt(engine.getBoardPiece(j, k).getActualRank().ordinal());
-						}
-						else
-						{
-							player[i].writeInt(engine.getBoardPiece(j, k).getColor());
-							if (engine.getBoardPiece(j, k).getColor() == i)
-								player[i].writeInt(engine.getBoardPiece(j, k).getActualRank().ordinal());
-							else
-								player[i].writeInt(Rank.UNKNOWN.ordinal());
-						}
+						player[i].writeInt(Message.TRAY.ordinal());
+						player[i].writeInt((n-TRAY)%40);
 					}
+					player[i].writeInt((now[n] >> 8) - 1);
+					player[i].writeInt(now[n] & 0xff);
 				}
+			}
+			finally
+			{
+				player[i].stopSending();
+			}
+		}
 
-				int p = 0,
-					q = 0;
-				for (int j=0;j<engine.getTraySize();j++)
-				{
-					player[i].writeInt(Message.TRAY.ordinal());
-
-					if (engine.getTrayPiece(j).getColor() == 0)
-					{
-						player[i].writeInt(p);
-						p++;
-					}
-					else
-					{
-						player[i].writeInt(q);
-						q++;
-					}
-					if (engine.getTrayPiece(j).isShown())
-					{
-						player[i].writeInt(engine.getTrayPiece(j).getColor()+2);
-						player[i].writeInt(engine.getTrayPiece(j).getActualRank().ordinal());
-					}
-					else
-					{
-						player[i].writeInt(engine.getTrayPiece(j).getColor());
-						if (engine.getTrayPiece(j).getColor() == i)
-							player[i].writeInt(engine.getTrayPiece(j).getActualRank().ordinal());
-						else
-							player[i].writeInt(Rank.UNKNOWN.ordinal());
-					}
-				}
+		if (!spectators.isEmpty())
+			updateSpectators(fin);
+	}
 
-				for (;p<40;p++)
-				{
-					player[i].writeInt(Message.TRAY.ordinal());
-					player[i].writeInt(p);
-					player[i].writeInt(0);
-					player[i].writeInt(Rank.NIL.ordinal());
-				}
+	private void updateSpectators(boolean fin)
+	{
+		view(SPECTATOR);
+		SharedPacket changes = null;
+		for (int n=0;n<now.length;n++)
+		{
+			if (now[n] == sent[SPECTATOR][n])
+				continue;
+			sent[SPECTATOR][n] = now[n];
+			if (changes == null)
+				changes = new SharedPacket();
+			write(changes, n);
+		}
 
-				for (;q<40;q++)
+		SharedPacket snapshot = null;
+		long t = System.currentTimeMillis();
+		for (Spectator s: spectators)
+		{
+			if (!s.lagging && s.conn.backlog() > SPECTATOR_BACKLOG)
+				s.lagging = true;
+			if (s.lagging)
+			{
+				if (!fin && (s.conn.backlog() != 0 || t - s.snapshot < SNAPSHOT_INTERVAL))
+					continue;
+				if (snapshot == null)
 				{
-					player[i].writeInt(Message.TRAY.ordinal());
-					player[i].writeInt(q);
-					player[i].writeInt(1);
-					player[i].writeInt(Rank.NIL.ordinal());
+					snapshot = new SharedPacket();
+					for (int n=0;n<now.length;n++)
+						write(snapshot, n);
 				}
+				s.conn.send(snapshot);
+				s.lagging = false;
+				s.snapshot = t;
 			}
-			finally
-			{
-				player[i].stopSending();
-			}
+			else if (changes != null)
+				s.conn.send(changes);
+		}
+	}
+
+	// what player i sees of the board and the tray, into now
+	private void view(int i)
+	{
+		for (int j=0;j<10;j++)
+		for (int k=0;k<10;k++)
+			now[j*10+k] = code(engine.getBoardPiece(j, k), i);
+
+		// the tray slots of each color are filled in order,
+		// then the rest are empty
+		int slot[] = { 0, 0 };
+		for (int j=0;j<engine.getTraySize();j++)
+		{
+			Piece p = engine.getTrayPiece(j);
+			int c = p.getColor() == 0 ? 0 : 1;
+			now[TRAY + c*40 + slot[c]++] = code(p, i);
+		}
+		for (int c=0;c<2;c++)
+		for (;slot[c]<40;slot[c]++)
+			now[TRAY + c*40 + slot[c]] = (c+1) << 8 | Rank.NIL.ordinal();
+	}
 
+	// the GRID or TRAY message of square or tray slot n
+	private void write(SharedPacket p, int n)
+	{
+		if (n < TRAY)
+		{
+			p.writeInt(Message.GRID.ordinal());
+			p.writeInt(n/10);
+			p.writeInt(n%10);
 		}
+		else
+		{
+			p.writeInt(Message.TRAY.ordinal());
+			p.writeInt((n-TRAY)%40);
+		}
+		p.writeInt((now[n] >> 8) - 1);
+		p.writeInt(now[n] & 0xff);
 	}
 	
+	private String status(int i)
+	{
+		if (player[i] == null)
+			return getPlayer(i) + " (not back yet)";
+		return player[i].status();
+	}
+
 	public String status()
 	{
-		return "Player 1: " + player[0].status() + "\nPlayer 2: " + player[1].status();
+		String s = "Player 1: " + status(0) + "\nPlayer 2: " + status(1);
+		if (!spectators.isEmpty())
+			s += "\n" + spectators.size() + " spectators";
+		return s;
 	}
 }
@@ -17,135 +17,443 @@
 
 package com.cjmalloy.stratego.server;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cjmalloy.stratego.player.AI;
 
 import com.cjmalloy.stratego.server.shared.Message;
+import com.cjmalloy.stratego.server.shared.SharedPacket;
 
+//
+// The game server has no lock of its own, so one user starting,
+// stopping or renaming doesn't wait for the others.
+//
+// The idle players are the connections set, every user is
+// indexed by alias and every game by id, in concurrent maps.
+// A player moves between the idle set and a game (see join()
+// and leave()) with the lock of its connection held, together
+// with the presence events of the move, so the events of a
+// player are in the order of what happened to it.
+//
+// "n 0" (any opponent) is matched from a lock free queue of
+// the idle players in the order they became idle.  An entry
+// is only a hint: the player is claimed by removing it from
+// the idle set, and entries of players that are no longer
+// idle are dropped when they come up (a player is queued
+// again when it becomes idle).
+//
 public class GameServer extends Server
 {
-	private ArrayList<Game> games = new ArrayList<Game>();
-	private boolean closing = false;
-	private GameServer me = null;
+	private ConcurrentHashMap<Integer, Game> games = new ConcurrentHashMap<Integer, Game>();
+	private ConcurrentHashMap<String, ServerConnection> aliases = new ConcurrentHashMap<String, ServerConnection>();
+	private ConcurrentLinkedQueue<ServerConnection> waiting = new ConcurrentLinkedQueue<ServerConnection>();
+	private volatile boolean closing = false;
+
+	// Games against the AI (see AIPlayer) are admitted while there
+	// are fewer than AI_GAMES_PER_THREAD for each thread of the
+	// AI pool (a thread per core) and the pool has less than
+	// a round of searches waiting, so the moves of the AI games
+	// already running wait at most about a search in the queue.
+	static private final int AI_GAMES_PER_THREAD = 8;
+	private AtomicInteger aiGames = new AtomicInteger();
+
+	// The games the server was playing when it stopped are
+	// rebuilt from their journals when it starts (see Journal),
+	// once for the process (not by a restart command, whose old
+	// games are still running).  A player rejoins a game by
+	// taking the alias it played as; a game whose players haven't
+	// all come back within RECONNECT_TIMEOUT is abandoned.
+	static private final long RECONNECT_TIMEOUT = 10 * 60 * 1000;	// ms
+	static private boolean recovered = false;
+	private ConcurrentHashMap<String, Game> orphans = new ConcurrentHashMap<String, Game>();
 	private boolean userListChanged = false;
+
+	//
+	// Lobby presence.
+	//
+	// The user list of a client has an entry for every
+	// connection: IDLE_PREFIX + alias for a player waiting for a
+	// game, GAME_PREFIX + alias for a player in a game.
+	// Every change is queued as a presence event:
+	//	u+ n entry...	entries added (a join, a game ending)
+	//	u- n entry...	entries removed (a leave, a game starting)
+	// (a new alias is a removal and an addition).  The user list
+	// thread sends the events that queued up since its last round
+	// as one CMD packet, written and encoded once and shared by
+	// all of the clients (see SharedPacket), so the lobby traffic
+	// is proportional to the changes, not to the number of users
+	// times the changes.  A client that just connected gets the
+	// whole list instead:
+	//	u n entry...
+	// and so do version 2 clients after every change, because
+	// they don't know about the events.
+	//
+	// The whole list is taken after the events are drained, so it
+	// includes everything those events did.  An event queued
+	// meanwhile may be sent again in the next round, which the
+	// clients ignore.
+	//
+	static private final int COALESCE = 250;	// ms to collect events
+	private ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<String>();
+
 	private Thread sendUserList = new Thread()
 	{
 		public void run()
 		{
+			ArrayList<ServerConnection> recipients = new ArrayList<ServerConnection>();
+			StringBuilder batch = new StringBuilder();
 			while (!closing)
 			{
 				try
 				{
-					sleep(2000);
 					synchronized (sendUserList)
 					{
-						if (!userListChanged)  wait();
+						while (!userListChanged)
+							sendUserList.wait();
+						userListChanged = false;
 					}
+					sleep(COALESCE);
 				}
 				catch (InterruptedException e) {}
-				userListChanged = false;
 
-				String s = "u " + (connections.size() + 2*games.size());
-				for (ServerConnection c: connections)
-					s += " " + Message.IDLE_PREFIX + c.alias;
+				// players who left while queued (they are never
+				// idle again, so nothing else takes them out)
+				waiting.removeIf(c -> !c.connected());
 
-				for (Game g: games)
-					s += " " + Message.GAME_PREFIX + g.player[0].alias
-					   + " " + Message.GAME_PREFIX + g.player[1].alias;
+				batch.setLength(0);
+				String e;
+				while ((e = events.poll()) != null)
+					batch.append(e);
 
-				synchronized (me)
-				{
-					for (ServerConnection c: connections)
+				String list = null;
+				recipients.clear();
+				recipients.addAll(aliases.values());
+				for (ServerConnection c: recipients)
+					if (c.getVersion() < 3 || !c.listed)
 					{
-						c.startSending();
-						try
-						{
-							c.cmd(s);
-						}
-						finally
-						{
-							c.stopSending();
-						}
+						list = userList();
+						break;
 					}
-	
-					for (int i=0;i<2;i++)
-					for (Game g: games)
+
+				SharedPacket changes = null;
+				if (batch.length() != 0)
+				{
+					changes = new SharedPacket();
+					changes.cmd(batch.toString());
+				}
+				SharedPacket all = null;
+				if (list != null)
+				{
+					all = new SharedPacket();
+					all.cmd(list);
+				}
+
+				for (ServerConnection c: recipients)
+				{
+					if (c.getVersion() < 3 || !c.listed)
 					{
-						g.player[i].startSending();
-						try
-						{
-							g.player[i].cmd(s);
-						}
-						finally
-						{
-							g.player[i].stopSending();
-						}
+						c.send(all);
+						c.listed = true;
 					}
+					else if (changes != null)
+						c.send(changes);
 				}
 			}
 		}
 	};
+
+	// the whole user list
+	private String userList()
+	{
+		StringBuilder s = new StringBuilder();
+		int n = 0;
+		for (ServerConnection c: aliases.values())
+		{
+			if (c.game != null)
+				s.append(' ').append(Message.GAME_PREFIX).append(c.alias);
+			else if (connections.contains(c))
+				s.append(' ').append(Message.IDLE_PREFIX).append(c.alias);
+			else
+				continue;
+			n++;
+		}
+		return "u " + n + s;
+	}
+
+	// queues a presence event
+	private void presence(String event, char prefix, String... names)
+	{
+		StringBuilder s = new StringBuilder(event).append(' ').append(names.length);
+		for (String alias: names)
+			s.append(' ').append(prefix).append(alias);
+		events.add(s.append(' ').toString());
+		sendUserList();
+	}
 	
 	public GameServer(ServerController sc, int p)
 	{
 		super(sc, p);
 		
-		me = this;
 		closing = false;
 		sendUserList.start();
+		recover();
 	}
-	
-	public synchronized boolean newGame(ServerConnection c, ArrayList<String> users)
+
+	private void recover()
 	{
-		for (int i=0;i<connections.size();i++)
+		synchronized (GameServer.class)
 		{
-			if (!connections.get(i).ignore &&
-				 connections.get(i) != c)
+			if (recovered)
+				return;
+			recovered = true;
+		}
+		File[] files = Journal.live();
+		if (files.length == 0)
+			return;
+
+		long start = System.currentTimeMillis();
+		int n = 0;
+		for (File f: files)
+		{
+			try
+			{
+				Journal j = Journal.open(f);
+				AIPlayer ai = j.level != 0 ? new AIPlayer(j.level) : null;
+				Game g = new Game(this, j, ai);
+				if (!g.recover())
+					continue;
+				games.put(g.id, g);
+				if (ai != null)
+					aiGames.incrementAndGet();
+				for (int i=0;i<2;i++)
+					if (g.player[i] == null)
+						orphans.putIfAbsent(g.getPlayer(i), g);
+				n++;
+			}
+			catch (IOException e)
 			{
-				if (users == null)
+				System.err.println("journal " + f + ": " + e.getMessage());
+			}
+		}
+		owner.println("Recovered " + n + " games from " + files.length
+			+ " journals in " + (System.currentTimeMillis() - start) + "ms.");
+		if (n == 0)
+			return;
+
+		Thread expire = new Thread("journal-expire")
+		{
+			public void run()
+			{
+				try
 				{
-					startGame(c, connections.get(i));
-					return true;
+					sleep(RECONNECT_TIMEOUT);
 				}
-				else
+				catch (InterruptedException e) {}
+				for (Game g: new HashSet<Game>(orphans.values()))
 				{
-					for (String s: users)
-						if (connections.get(i).alias.equals(s))
-						{
-							startGame(c, connections.get(i));
-							return true;
-						}
+					orphans.values().removeIf(o -> o == g);
+					if (games.containsKey(g.id))
+						g.abandon();
 				}
 			}
+		};
+		expire.setDaemon(true);
+		expire.start();
+	}
+
+	// puts c back in a recovered game it was playing
+	private void rejoin(ServerConnection c)
+	{
+		Game g = orphans.remove(c.alias);
+		if (g == null)
+			return;
+		if (!games.containsKey(g.id) || !join(c, g))
+			return;
+		if (!g.rejoin(c))
+			leave(c, g);
+	}
+	// puts c in the matchmaking queue, unless it is already there
+	private void offer(ServerConnection c)
+	{
+		if (!c.ignore && c.queued.compareAndSet(false, true))
+			waiting.add(c);
+	}
+
+	// takes c from the idle players into g
+	private boolean join(ServerConnection c, Game g)
+	{
+		synchronized (c)
+		{
+			if (!connections.remove(c))
+				return false;
+			c.game = g;
+			presence("u-", Message.IDLE_PREFIX, c.alias);
+			presence("u+", Message.GAME_PREFIX, c.alias);
 		}
+		unwatch(c);
+		return true;
+	}
+
+	// Makes c a spectator of game id (see Game.watch()).
+	// A player can't watch a game, and a spectator watches
+	// one game at a time.  The games are not locked while c is.
+	public boolean watch(ServerConnection c, int id)
+	{
+		Game g = games.get(id);
+		if (g == null)
+			return false;
+		Game old;
+		synchronized (c)
+		{
+			if (c.game != null || !connections.contains(c))
+				return false;
+			old = c.watching;
+			c.watching = g;
+		}
+		if (old != null && old != g)
+			old.unwatch(c);
+		if (g.watch(c))
+			return true;
+		unwatch(c);
 		return false;
 	}
-	
-	private synchronized void startGame(ServerConnection a, ServerConnection b)
+
+	public void unwatch(ServerConnection c)
 	{
-		Game g = new Game(this, a, b);
-		games.add(g);
-		connections.remove(a);
-		connections.remove(b);
-		g.start();
-		sendUserList();
+		Game g;
+		synchronized (c)
+		{
+			g = c.watching;
+			c.watching = null;
+		}
+		if (g != null)
+			g.unwatch(c);
 	}
 
-	public synchronized void stopGame(ServerConnection u)
+	// takes c out of g, back to the idle players if it is connected
+	private void leave(ServerConnection c, Game g)
 	{
-		for (Game g: games)
+		if (c == null)
+			return;
+		synchronized (c)
 		{
-			if (g.player[0] == u || g.player[1] == u)
+			if (c.game != g)
+				return;
+			c.game = null;
+			presence("u-", Message.GAME_PREFIX, c.alias);
+			if (!c.connected())
 			{
-				stopGame(g);
+				aliases.remove(c.alias, c);
 				return;
 			}
+			connections.add(c);
+			presence("u+", Message.IDLE_PREFIX, c.alias);
 		}
+		offer(c);
 	}
-	public synchronized void stopGame(Game g)
+	
+	public boolean newGame(ServerConnection c, ArrayList<String> users)
+	{
+		if (users == null)
+			return match(c);
+
+		for (String s: users)
+		{
+			ServerConnection o = aliases.get(s);
+			if (o != null && o != c && !o.ignore && startGame(c, o))
+				return true;
+		}
+		return false;
+	}
+
+	// starts a game of c and the longest waiting idle player
+	private boolean match(ServerConnection c)
+	{
+		boolean requeue = false;
+		ServerConnection o;
+		while ((o = waiting.poll()) != null)
+		{
+			o.queued.set(false);
+			if (o == c)
+			{
+				requeue = true;
+				continue;
+			}
+			if (o.ignore || !connections.contains(o))
+				continue;
+			if (startGame(c, o))
+				return true;
+			if (!connections.contains(c))
+				return true;	// c was taken by another game meanwhile
+		}
+		if (requeue)
+			offer(c);
+		return false;
+	}
+	
+	private boolean startGame(ServerConnection a, ServerConnection b)
+	{
+		Game g = new Game(this, a, b);
+		if (!join(b, g))
+			return false;
+		if (!join(a, g))
+		{
+			leave(b, g);
+			return false;
+		}
+		games.put(g.id, g);
+		g.start();
+		return true;
+	}
+
+	public boolean isAIAvailable()
+	{
+		return aiGames.get() < AI_GAMES_PER_THREAD * AI.getPoolSize()
+			&& AI.getQueueDepth() < AI.getPoolSize();
+	}
+
+	// starts a game of c against the AI, if there is room for it
+	public boolean newAIGame(ServerConnection c, int level)
+	{
+		int n;
+		do
+		{
+			n = aiGames.get();
+			if (n >= AI_GAMES_PER_THREAD * AI.getPoolSize()
+				|| AI.getQueueDepth() >= AI.getPoolSize())
+				return false;
+		}
+		while (!aiGames.compareAndSet(n, n+1));
+
+		Game g = new Game(this, new AIPlayer(level), c);
+		if (!join(c, g))
+		{
+			aiGames.decrementAndGet();
+			return false;
+		}
+		games.put(g.id, g);
+		g.start();
+		return true;
+	}
+
+	public void stopGame(ServerConnection u)
+	{
+		Game g = u.game;
+		if (g != null)
+			stopGame(g);
+	}
+	public void stopGame(Game g)
 	{
 		for (int i=0;i<2;i++)
 		{
-			if (g.player[i].connected())
+			// a recovered game may have a player that is not back
+			if (g.player[i] != null && g.player[i].connected())
 			{
 				g.player[i].startSending();
 				try
@@ -161,16 +469,25 @@ public class GameServer extends Server
 		g.disc();
 	}
 	
-	public synchronized void gameOver(Game g)
+	public void gameOver(Game g)
 	{
-		games.remove(g);
-		if (g.player[0].connected())
+		if (games.remove(g.id) == null)
+			return;
+		g.close();
+		if (g.getAI() != null)
 		{
-			connections.add(g.player[0]);
+			g.getAI().stop();
+			aiGames.decrementAndGet();
 		}
-		if (g.player[1].connected())
+		leave(g.player[0], g);
+		leave(g.player[1], g);
+		for (ServerConnection c: g.getWatchers())
 		{
-			connections.add(g.player[1]);
+			synchronized (c)
+			{
+				if (c.watching == g)
+					c.watching = null;
+			}
 		}
 		
 		if (closing && games.size() <= 1)
@@ -178,8 +495,6 @@ public class GameServer extends Server
 			close();
 			System.exit(0);
 		}
-		
-		sendUserList();
 	}
 	
 	public void closeWhenEmpty(boolean b)
@@ -198,84 +513,98 @@ public class GameServer extends Server
 		return closing;
 	}
 	
-	protected synchronized void add(ServerConnection sc)
+	protected void add(ServerConnection sc)
 	{
-		super.add(sc);
-		sendUserList();
+		aliases.put(sc.alias, sc);
+		synchronized (sc)
+		{
+			super.add(sc);
+			presence("u+", Message.IDLE_PREFIX, sc.alias);
+		}
+		offer(sc);
+	}
+
+	protected void remove(ServerConnection sc)
+	{
+		synchronized (sc)
+		{
+			// a player in a game keeps its alias until the game is over
+			if (sc.game == null)
+				aliases.remove(sc.alias, sc);
+			if (connections.remove(sc))
+				presence("u-", Message.IDLE_PREFIX, sc.alias);
+		}
+		unwatch(sc);
 	}
 	
-	public synchronized boolean addAlias(ServerConnection conn, String s)
+	public boolean addAlias(ServerConnection conn, String s)
 	{
-		for (ServerConnection c: connections)
-			if (c.alias.equals(s))
-				return false;
+		if (aliases.putIfAbsent(s, conn) != null)
+			return false;
 
-		for (Game g: games)
+		synchronized (conn)
 		{
-			if (g.player[0].alias.equals(s))
-				return false;
-			if (g.player[1].alias.equals(s))
+			if (conn.game == null && !connections.contains(conn))
+			{
+				// disconnected meanwhile
+				aliases.remove(s, conn);
 				return false;
+			}
+			char prefix = conn.game == null ? Message.IDLE_PREFIX : Message.GAME_PREFIX;
+			String old = conn.alias;
+			conn.alias = s;
+			aliases.remove(old, conn);
+			presence("u-", prefix, old);
+			presence("u+", prefix, s);
 		}
-		
-		conn.alias = s;
-		sendUserList();
+		if (conn.game == null)
+			rejoin(conn);
 		return true;
 	}
+
+	// (privilege > 1) c doesn't want to be picked for games
+	public void ignore(ServerConnection c, boolean b)
+	{
+		c.ignore = b;
+		if (!b && connections.contains(c))
+			offer(c);
+	}
 	
-	public synchronized void sendUserList()
+	public void sendUserList()
 	{
-		userListChanged = true;
 		synchronized (sendUserList)
 		{
+			userListChanged = true;
 			sendUserList.notify();
 		}
 	}
 
-	public synchronized boolean isIdle(ServerConnection u)
+	public boolean isIdle(ServerConnection u)
 	{
-		for (ServerConnection c: connections)
-		{
-			if (c == u)
-				return true;
-		}
-		return false;
+		return connections.contains(u);
 	}
 	
-	public synchronized boolean isInGame(ServerConnection u)
+	public boolean isInGame(ServerConnection u)
 	{
-		for (Game g: games)
-		{
-			if (g.player[0] == u)
-				return true;
-			if (g.player[1] == u)
-				return true;
-		}
-		return false;
+		return u.game != null;
 	}
 	
-	public synchronized boolean isIgnoring(String user)
+	public boolean isIgnoring(String user)
 	{
 		if (user == null)
 		{
-			for (ServerConnection c: connections)
+			for (ServerConnection c: waiting)
 			{
-				if (!c.ignore)
+				if (!c.ignore && connections.contains(c))
 					return false;
 			}
 			return true;
 		}
 		
-		for (ServerConnection c: connections)
-		{
-			if (c.alias.equals(user))
-			{
-				if (c.ignore)
-					return true;
-				return false;
-			}
-		}
-		return true;
+		ServerConnection c = aliases.get(user);
+		if (c == null || !connections.contains(c))
+			return true;
+		return c.ignore;
 	}
 	
 	public synchronized void setPort(int p)
@@ -294,33 +623,70 @@ public class GameServer extends Server
 		port = p;
 	}
 	
-
-	public void bye()
-	{
-		super.bye();
-		sendUserList();
-	}
-	
-	public synchronized String games()
+	public String games()
 	{
-		String ret = "";
+		StringBuilder ret = new StringBuilder();
 
-		for (int i=0;i<games.size();i++)
+		for (Game g: games.values())
 		{
-			ret += "Game " + (i+1) + "\n";
-			ret += games.get(i).status() + "\n\n";
+			ret.append("Game ").append(g.id).append("\n");
+			ret.append(g.status()).append("\n\n");
 		}
 
-		return ret;
+		return ret.toString();
 	}
 	
-	public synchronized String idle()
+	// connected users (players, spectators and idle users)
+	public int getUsers()
+	{
+		return aliases.size();
+	}
+
+	public int getIdlePlayers()
+	{
+		return connections.size();
+	}
+
+	public int getGames()
+	{
+		return games.size();
+	}
+
+	public int getAIGames()
+	{
+		return aiGames.get();
+	}
+
+	public int getSpectators()
+	{
+		int n = 0;
+		for (Game g: games.values())
+			n += g.getSpectators();
+		return n;
+	}
+
+	// the bytes queued to send to each user
+	// (see ServerConnection.backlog())
+	public int[] getSendQueues()
+	{
+		return aliases.values().stream().mapToInt(ServerConnection::backlog).toArray();
+	}
+
+	public String idle()
 	{
 		return connections.size() + " idle players";
 	}
 	
 	public String status()
 	{
+		int n = getSpectators();
+		if (n != 0)
+			return games.size() + " games active, " + n + " spectators";
 		return games.size() + " games active";
 	}
+
+	public String ai()
+	{
+		return AIPlayer.status(aiGames.get());
+	}
 }
@@ -0,0 +1,492 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.cjmalloy.stratego.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
+
+//
+// Append-only journal of a game.
+//
+// Everything that changes a game goes through its ServerEngine
+// (the setup and moves of the players, the setup of "play",
+// the setup of the AI and a resignation), and the engine is
+// deterministic, so the journal records those requests as they
+// are made and replaying them into a new engine rebuilds the
+// game.  A move in play is recorded only if the engine will
+// make it (see ServerEngine.requestMove()), so a replay does
+// not depend on rejecting the same moves as the game did.
+//
+// A game has a file of its own in DIR while it is played.
+// A record is written to the file before the engine applies
+// it, so a server that dies loses nothing the operating system
+// has, and the files written to in the last COMMIT_INTERVAL
+// are forced to the disk together by the commit thread (group
+// commit), so a move never waits for the disk and a machine
+// crash loses at most the last COMMIT_INTERVAL of a game.
+// When the game is over, an END record is written and the
+// file is moved to DONE, where it can be replayed (see main()).
+// On startup, GameServer rebuilds the games still in DIR for
+// their players (see GameServer.recover()).
+//
+// File layout (big endian): records of
+//	int length, payload, int CRC32 of the payload
+// where the payload is a type byte and its fields:
+//	HEADER	int version, int game id, long start time,
+//		int AI level (0 if none), the two aliases
+//		(int length and ASCII each, at most MAX_ALIAS)
+//	MOVE	byte color, int packed move (see Move), byte rank
+//		(of the piece, for a piece placed from the tray)
+//	PLAY	byte color
+//	RESIGN	byte color
+//	PLACE	int piece id, byte x, byte y (a piece the AI placed)
+//	END	byte winner (-1 if none)
+// The header is the first record.  A record with a bad length
+// or checksum (a write cut off by a crash) ends the journal,
+// and is cut off when the game is recovered.
+//
+// usage: java com.cjmalloy.stratego.server.Journal file...
+//
+public class Journal
+{
+	static public final File DIR = new File(System.getProperty("stratego.journal", "journal"));
+	static public final File DONE = new File(DIR, "done");
+	static private final String SUFFIX = ".journal";
+	static private final long COMMIT_INTERVAL = 50;	// ms
+	static private final int VERSION = 1;
+	static private final int MAX_RECORD = 1 << 10;
+	static private final int MAX_ALIAS = 256;	// longer aliases are cut
+
+	static final int HEADER = 0;
+	static final int MOVE = 1;
+	static final int PLAY = 2;
+	static final int RESIGN = 3;
+	static final int PLACE = 4;
+	static final int END = 5;
+
+	// what a replay does with the records (see ServerEngine.replay())
+	interface Replay
+	{
+		void move(int color, int move, int rank);
+		void play(int color);
+		void resign(int color);
+		void place(int piece, int x, int y);
+	}
+
+	// the journals written to since they were last forced
+	static private final Set<Journal> dirty = ConcurrentHashMap.newKeySet();
+
+	static private final Thread committer = new Thread("journal-commit")
+	{
+		public void run()
+		{
+			for (;;)
+			{
+				try
+				{
+					sleep(COMMIT_INTERVAL);
+				}
+				catch (InterruptedException e) {}
+
+				for (Journal j: dirty)
+				{
+					dirty.remove(j);
+					j.force();
+				}
+			}
+		}
+	};
+
+	static
+	{
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	public final int id;
+	public final long start;
+	public final int level;	// of the AI, 0 if none
+	public final String[] players = new String[2];
+	private int winner = -1;
+	private boolean ended = false;
+
+	private File file = null;
+	private volatile FileChannel channel = null;
+	private final ByteBuffer rec = ByteBuffer.allocate(MAX_RECORD + 8);
+	private final CRC32 crc = new CRC32();
+	private ArrayList<ByteBuffer> records = null;	// read by open()
+	private long length = 0;	// of the valid records read by open()
+
+	private Journal(int id, long start, int level, String p0, String p1)
+	{
+		this.id = id;
+		this.start = start;
+		this.level = level;
+		players[0] = p0;
+		players[1] = p1;
+	}
+
+	// the files of the games that were being played
+	static File[] live()
+	{
+		File[] fs = DIR.listFiles((d, n) -> n.endsWith(SUFFIX));
+		return fs == null ? new File[0] : fs;
+	}
+
+	// Starts the journal of a new game.  A journal that can't be
+	// written is reported and dropped; the game goes on without.
+	public static Journal create(int id, String p0, String p1, int level)
+	{
+		Journal j = new Journal(id, System.currentTimeMillis(), level, p0, p1);
+		try
+		{
+			DIR.mkdirs();
+			j.file = new File(DIR, j.start + "-" + id + SUFFIX);
+			j.channel = FileChannel.open(j.file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			j.begin(HEADER).putInt(VERSION).putInt(id).putLong(j.start).putInt(level);
+			j.putString(p0);
+			j.putString(p1);
+			j.write();
+		}
+		catch (IOException e)
+		{
+			j.fail(e);
+		}
+		return j;
+	}
+
+	// Reads a journal, up to the first record that is cut off
+	// or corrupt.  The records are kept for replay().
+	public static Journal open(File f) throws IOException
+	{
+		ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+		ArrayList<ByteBuffer> rs = new ArrayList<ByteBuffer>();
+		CRC32 crc = new CRC32();
+		while (b.remaining() >= 8)
+		{
+			int len = b.getInt(b.position());
+			if (len <= 0 || len > MAX_RECORD || b.remaining() < len + 8)
+				break;
+			crc.reset();
+			crc.update(b.array(), b.position() + 4, len);
+			if (b.getInt(b.position() + 4 + len) != (int)crc.getValue())
+				break;
+			rs.add(ByteBuffer.wrap(b.array(), b.position() + 4, len).slice());
+			b.position(b.position() + len + 8);
+		}
+
+		if (rs.isEmpty() || rs.get(0).get(0) != HEADER || rs.get(0).getInt(1) != VERSION)
+			throw new IOException("not a game journal");
+		ByteBuffer h = rs.remove(0);
+		h.position(5);
+		Journal j = new Journal(h.getInt(), h.getLong(), h.getInt(),
+			getString(h), getString(h));
+		j.file = f;
+		j.records = rs;
+		j.length = b.position();
+		if (!rs.isEmpty() && rs.get(rs.size() - 1).get(0) == END)
+		{
+			j.ended = true;
+			j.winner = rs.get(rs.size() - 1).get(1);
+		}
+		return j;
+	}
+
+	// Replays the records read by open() (once).
+	void replay(Replay r)
+	{
+		for (ByteBuffer b: records)
+		{
+			switch (b.get(0))
+			{
+			case MOVE:
+				r.move(b.get(1), b.getInt(2), b.get(6));
+				break;
+			case PLAY:
+				r.play(b.get(1));
+				break;
+			case RESIGN:
+				r.resign(b.get(1));
+				break;
+			case PLACE:
+				r.place(b.getInt(1), b.get(5), b.get(6));
+				break;
+			}
+		}
+		records = null;
+	}
+
+	// Opens a journal read by open() to go on with the game,
+	// without the record that was cut off, if any.
+	void resume() throws IOException
+	{
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		channel.truncate(length);
+		channel.position(length);
+	}
+
+	boolean isEnded()
+	{
+		return ended;
+	}
+
+	int getWinner()
+	{
+		return winner;
+	}
+
+	synchronized void move(int color, Move m)
+	{
+		Piece p = m.getPiece();
+		begin(MOVE).put((byte)color).putInt(m.getMove())
+			.put((byte)(p == null ? 0 : p.getActualRank().ordinal()));
+		write();
+	}
+
+	synchronized void play(int color)
+	{
+		begin(PLAY).put((byte)color);
+		write();
+	}
+
+	synchronized void resign(int color)
+	{
+		begin(RESIGN).put((byte)color);
+		write();
+	}
+
+	synchronized void place(Piece p, int x, int y)
+	{
+		begin(PLACE).putInt(p.getID()).put((byte)x).put((byte)y);
+		write();
+	}
+
+	// The game is over: the journal is forced to the disk and
+	// moved to DONE.
+	synchronized void end(int w)
+	{
+		if (channel == null)
+			return;
+		if (!ended)
+		{
+			winner = w;
+			ended = true;
+			begin(END).put((byte)w);
+			write();
+		}
+		dirty.remove(this);
+		try
+		{
+			channel.force(false);
+			channel.close();
+			DONE.mkdirs();
+			Files.move(file.toPath(), new File(DONE, file.getName()).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+		channel = null;
+	}
+
+	// Stops writing, leaving the game to be recovered.
+	public synchronized void close()
+	{
+		dirty.remove(this);
+		try
+		{
+			if (channel != null)
+			{
+				channel.force(false);
+				channel.close();
+			}
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+		channel = null;
+	}
+
+	private ByteBuffer begin(int type)
+	{
+		rec.clear();
+		rec.position(4);
+		return rec.put((byte)type);
+	}
+
+	private void putString(String s)
+	{
+		byte[] bs = (s == null ? "" : s).getBytes(StandardCharsets.US_ASCII);
+		int n = Math.min(bs.length, MAX_ALIAS);
+		rec.putInt(n).put(bs, 0, n);
+	}
+
+	static private String getString(ByteBuffer b)
+	{
+		byte[] bs = new byte[b.getInt()];
+		b.get(bs);
+		return new String(bs, StandardCharsets.US_ASCII);
+	}
+
+	// frames the record in rec and writes it
+	private void write()
+	{
+		if (channel == null)
+			return;
+		int len = rec.position() - 4;
+		crc.reset();
+		crc.update(rec.array(), 4, len);
+		rec.putInt(0, len);
+		rec.putInt((int)crc.getValue());
+		rec.flip();
+		try
+		{
+			while (rec.hasRemaining())
+				channel.write(rec);
+			dirty.add(this);
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	// called by the commit thread, without the lock,
+	// so the game doesn't wait for the disk
+	private void force()
+	{
+		FileChannel c = channel;
+		if (c == null)
+			return;
+		try
+		{
+			c.force(false);
+		}
+		catch (ClosedChannelException e)
+		{
+			// the game ended meanwhile
+		}
+		catch (IOException e)
+		{
+			System.err.println("journal " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void fail(IOException e)
+	{
+		System.err.println("journal " + file + ": " + e.getMessage());
+		try
+		{
+			if (channel != null)
+				channel.close();
+		}
+		catch (IOException ex) {}
+		channel = null;
+	}
+
+	//
+	// Replay
+	//
+
+	static private String square(int x, int y)
+	{
+		return "" + (char)('a' + x) + (y + 1);
+	}
+
+	// Prints the games in the given journals and the board
+	// they ended with (or are at, for a game in progress).
+	public static void main(String[] args) throws IOException
+	{
+		Rank[] ranks = Rank.values();
+		for (String fn: args)
+		{
+			final Journal j = open(new File(fn));
+			System.out.println("game " + j.id + " " + new java.util.Date(j.start)
+				+ ": " + j.players[0] + " (red) vs " + j.players[1] + " (blue)"
+				+ (j.level != 0 ? ", AI level " + j.level : ""));
+			final ServerEngine e = new ServerEngine(null);
+			final Replay apply = e.replayer();
+			e.newGame();
+			e.replay(j, new Replay()
+			{
+				int n = 0;
+
+				// (only the moves the engine made)
+				public void move(int color, int m, int rank)
+				{
+					boolean playing = e.isPlaying();
+					int turn = e.getTurn();
+					apply.move(color, m, rank);
+					if (playing && (e.getTurn() != turn || e.isOver()))
+						System.out.println(++n + ". " + (color == 0 ? "red  " : "blue ")
+							+ square(Move.unpackFromX(m), Move.unpackFromY(m)) + "-"
+							+ square(Move.unpackToX(m), Move.unpackToY(m)));
+				}
+
+				public void play(int color)
+				{
+					apply.play(color);
+				}
+
+				public void resign(int color)
+				{
+					System.out.println((color == 0 ? "red" : "blue") + " resigns");
+					apply.resign(color);
+				}
+
+				public void place(int piece, int x, int y)
+				{
+					apply.place(piece, x, y);
+				}
+			});
+
+			for (int y = 0; y < 10; y++)
+			{
+				StringBuilder s = new StringBuilder();
+				for (int x = 0; x < 10; x++)
+				{
+					Piece p = e.getBoardPiece(x, y);
+					String r = p == null ? "." : p.getColor() < 0 ? "~"
+						: ranks[p.getActualRank().ordinal()].value;
+					s.append(' ').append(p != null && p.getColor() == 1 ? r.toLowerCase() : r);
+				}
+				System.out.println(s);
+			}
+			System.out.println(j.ended ? "winner: " + (j.winner == 0 ? "red"
+				: j.winner == 1 ? "blue" : "none") : "in progress");
+		}
+	}
+}
@@ -17,33 +17,117 @@
 package com.cjmalloy.stratego.server;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
 
+import com.cjmalloy.stratego.AsyncWriter;
+
+//
+// The server log.
+//
+// print() and println() only append to a buffer in memory
+// (see AsyncWriter): the log is written on a thread of its own,
+// every FLUSH_INTERVAL or when a batch fills up, so a game thread
+// never waits for the disk.  If the disk falls so far behind
+// that the queue of batches is full, the batch is dropped
+// instead and counted (see status()).
+//
+// The log is rotated when it grows past MAX_SIZE, and when the
+// server starts: the log of the last run is moved to FILE.1,
+// FILE.1 to FILE.2, and so on, keeping KEEP old logs.
+//
 public class Log
 {
-	private PrintStream log = null;
-	private static Log me = new Log("stratego_server04_log.txt");
-	
-	private Log(String fn)
+	static public final String FILE = "stratego_server04_log.txt";
+	static private final long FLUSH_INTERVAL = 1000;	// ms
+	static private final long MAX_SIZE = 10 << 20;	// chars
+	static private final int KEEP = 5;
+
+	// a file writer that rotates the log, on the log thread
+	static private class Rotating extends Writer
 	{
-		try {
-			log = new PrintStream(new File(fn));
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		private final String fn;
+		private Writer out = null;
+		private long size = 0;
+
+		Rotating(String fn)
+		{
+			this.fn = fn;
+		}
+
+		private void open() throws IOException
+		{
+			if (new File(fn).length() > 0)
+			{
+				for (int i=KEEP-1;i>0;i--)
+					new File(fn + "." + i).renameTo(new File(fn + "." + (i+1)));
+				new File(fn).renameTo(new File(fn + ".1"));
+			}
+			out = new FileWriter(fn);
+			size = 0;
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException
+		{
+			if (out == null)
+				open();
+			out.write(cbuf, off, len);
+			size += len;
+		}
+
+		public void write(String s, int off, int len) throws IOException
+		{
+			if (out == null)
+				open();
+			out.write(s, off, len);
+			size += len;
+		}
+
+		// (the log thread flushes when it has caught up, so the
+		// log is rotated between batches, almost always at the
+		// end of a line)
+		public void flush() throws IOException
+		{
+			if (out == null)
+				return;
+			out.flush();
+			if (size > MAX_SIZE)
+			{
+				out.close();
+				out = null;
+			}
+		}
+
+		public void close() throws IOException
+		{
+			if (out != null)
+				out.close();
 		}
 	}
 
+	static private final AsyncWriter writer
+		= new AsyncWriter(new Rotating(FILE), "server-log", FLUSH_INTERVAL, true);
+	static private final PrintWriter log = new PrintWriter(writer);
+
 	public static void print(String s)
 	{
-		me.log.print(s);
-		me.log.flush();
+		log.print(s);
 	}
 	
 	public static void println(String s)
 	{
-		me.log.println(s);
-		me.log.flush();
+		log.println(s);
+	}
+
+	// what has been logged, and dropped
+	public static String status()
+	{
+		long dropped = writer.getDropped();
+		return "log: " + writer.getWritten() / 1024 + "KB written"
+			+ (dropped == 0 ? "" : ", " + dropped / 1024 + "KB dropped ("
+				+ writer.getOverflows() + " times)")
+			+ (log.checkError() ? ", write error" : "");
 	}
 }
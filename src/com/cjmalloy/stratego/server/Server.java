@@ -19,21 +19,49 @@ package com.cjmalloy.stratego.server;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 import com.cjmalloy.stratego.server.shared.MessageHandler;
 
 
-public abstract class Server implements MessageHandler
+public abstract class Server
 {
-	protected ArrayList<ServerConnection> connections = new ArrayList<ServerConnection>();
+	// Each connection gets a handler of its own, so the server
+	// knows which connection said BYE without searching for it.
+	private class Member implements MessageHandler
+	{
+		private ServerConnection conn;
+
+		public Member(ServerConnection c)
+		{
+			conn = c;
+		}
+
+		public boolean read(int type, DataInputStream in)
+		{
+			return false; //ignore all messages
+		}
+
+		public void bye()
+		{
+			remove(conn);
+		}
+	}
+
+	protected Set<ServerConnection> connections = ConcurrentHashMap.newKeySet();
 	protected static ArrayList<Integer> serverIDs = new ArrayList<Integer>();
 	private Semaphore ignore = new Semaphore(1);
 	protected ServerController owner = null;
 	protected ServerConnection connecting = null;
-	protected boolean running;
+	// accepted connections still in their handshake
+	protected Set<ServerConnection> handshaking = ConcurrentHashMap.newKeySet();
+	protected volatile boolean running;
 	protected String password = "";
 	protected int privilege = 5;
 	protected int port;
@@ -52,18 +80,29 @@ public abstract class Server implements MessageHandler
 					ignore.release();
 					
 					if (srv == null)
-						srv = new ServerSocket(port);
+					{
+						// a socket accepted by a channel can be
+						// handed to the ConnectionSelector
+						srv = ServerSocketChannel.open().socket();
+						try
+						{
+							srv.bind(new InetSocketAddress(port));
+						}
+						catch (IOException e)
+						{
+							srv.close();
+							srv = null;
+							throw e;
+						}
+					}
 					
 					if (connecting == null)
 					{
 						connecting = new ServerConnection();
 					}
-					if (connecting.connect(srv, password))
-					{
-						add(connecting);
-						owner.add(connecting, privilege);
-						connecting = null;
-					}
+					connecting.accept(srv);
+					handshake(connecting);
+					connecting = null;
 				}
 				catch (IOException e)
 				{
@@ -78,6 +117,35 @@ public abstract class Server implements MessageHandler
 		}
 	};
 	
+	// The handshake of an accepted connection runs on a connection
+	// worker, so a slow client doesn't hold up the accept thread.
+	// A connection stays in handshaking until it has been added,
+	// so ignore() and close() either drop it there or find it
+	// in connections.
+	private void handshake(final ServerConnection c)
+	{
+		handshaking.add(c);
+		ServerConnection.workers.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					if (c.handshake(password))
+					{
+						add(c);
+						owner.add(c, privilege);
+						c.start();
+					}
+				}
+				finally
+				{
+					handshaking.remove(c);
+				}
+			}
+		});
+	}
+
 	protected Server(ServerController sc, int p)
 	{
 		port = p;
@@ -110,6 +178,8 @@ public abstract class Server implements MessageHandler
 			}
 			if (connecting != null)
 				connecting.disconnect();
+			for (ServerConnection c: handshaking)
+				c.disconnect();
 			
 			serverIDs.remove(new Integer(port));
 		}
@@ -130,17 +200,18 @@ public abstract class Server implements MessageHandler
 		running = false;
 		if (connecting != null)
 			connecting.disconnect();
+		for (ServerConnection c: handshaking)
+			c.disconnect();
 		
 		if (isIgnoring())
 			ignore.release();
 		else
 			serverIDs.remove(new Integer(port));
 			
-		while (connections.size() > 0)
+		for (ServerConnection c: connections)
 		{
-			connections.get(0).unregister(this);
-			connections.get(0).bye();
-			connections.remove(0);
+			connections.remove(c);
+			c.bye();
 		}
 		
 		try
@@ -153,29 +224,15 @@ public abstract class Server implements MessageHandler
 		}
 	}
 	
-	protected synchronized void add(ServerConnection sc)
+	protected void add(ServerConnection sc)
 	{
-		sc.register(this);
+		sc.register(new Member(sc));
 		connections.add(sc);
 	}
 	
-	public void bye()
-	{
-		for (int i=0;i<connections.size();)
-		{
-			if (connections.get(i).connected())
-			{
-				i++;
-			}
-			else
-			{
-				connections.remove(i);
-			}
-		}
-	}
-
-	public boolean read(int type, DataInputStream in)
+	// called when sc has disconnected
+	protected void remove(ServerConnection sc)
 	{
-		return false; //ignore all messages
+		connections.remove(sc);
 	}
 }
@@ -21,19 +21,98 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.cjmalloy.stratego.server.shared.BufferPool;
+import com.cjmalloy.stratego.server.shared.Codec;
 import com.cjmalloy.stratego.server.shared.Connection;
 import com.cjmalloy.stratego.server.shared.Hash;
 import com.cjmalloy.stratego.server.shared.Message;
 
+//
+// The server thread only accepts a connection (see accept()).
+// The version and password handshake is blocking, so it runs on
+// a worker (see handshake()), with a timeout.  After the
+// handshake, a ServerConnection is read by the
+// ConnectionSelector instead of a thread of its own.
+//
+// The selector thread only reads and frames packets.  Complete
+// packets are queued in the inbox and dispatched to the
+// MessageHandlers in order on a worker thread, because a handler
+// may take a while (Engine.move() pauses to show an attacker)
+// and must not hold up the other connections.  The workers come
+// from a shared pool, so an idle connection has no thread.
+//
+// Packets are written straight to the channel, header and
+// packet in one gathering write, when it can take them.
+// Whatever does not fit is copied, queued and written by the
+// selector thread when the socket is writable, so a slow client
+// never blocks the thread that is sending to it.
+//
 public class ServerConnection extends Connection
 {
-	public String alias;
-	public boolean ignore = false;;
+	static private final int HANDSHAKE_TIMEOUT = 5000;	// ms
+	static private final int READ_BUFFER = 512;
+	static private final int MAX_PACKET = 1 << 20;
+	static private final int MAX_PENDING = 1 << 20;	// bytes queued to send
+	static private final int MAX_INBOX = 64;	// packets, then stop reading
+	static private final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+	static final ExecutorService workers
+		= Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private final AtomicInteger n = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "connection-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	public volatile String alias;
+	public volatile boolean ignore = false;
+	volatile Game game = null;	// see GameServer
+	volatile Game watching = null;	// the game it is a spectator of
+	final AtomicBoolean queued = new AtomicBoolean();
+	boolean listed = false;	// has been sent the whole user list
 	private ServerSocket srv = null;
 	private static final long m = System.currentTimeMillis();
+
+	private SocketChannel channel = null;
+	private ConnectionSelector selector = null;
+	private SelectionKey key = null;
+	private ByteBuffer rbuf = null;
+	private final ArrayDeque<ByteBuffer> inbox = new ArrayDeque<ByteBuffer>();
+	private boolean dispatching = false;
+	private boolean paused = false;
+	private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+	private int pendingBytes = 0;
+	private final ByteBuffer[] gather = new ByteBuffer[2];
+	private volatile boolean eof = false;
+
+	private final Runnable drain = new Runnable()
+	{
+		public void run()
+		{
+			drain();
+		}
+	};
 	
-	public synchronized boolean connect(ServerSocket ss, String password) throws IOException
+	// waits for a connection on ss (on the server thread)
+	public synchronized void accept(ServerSocket ss) throws IOException
 	{
 		if (sock != null)
 			disconnect();
@@ -46,14 +125,26 @@ public class ServerConnection extends Connection
 		{
 			srv = null;
 		}
-		
+	}
+
+	// The version and password handshake of an accepted connection.
+	// It blocks (on a worker, see Server), so a silent client
+	// is dropped after HANDSHAKE_TIMEOUT.
+	public synchronized boolean handshake(String password)
+	{
+		int major;
 		try
 		{
+			sock.setSoTimeout(HANDSHAKE_TIMEOUT);
 			out = new DataOutputStream(sock.getOutputStream());
 			in = new DataInputStream(sock.getInputStream());
 			//get their version number
-			if (in.readInt() != Message.PROTOCOL_MAJOR_VERSION ||
-				in.readInt()  < Message.PROTOCOL_MINOR_VERSION)
+			major = in.readInt();
+			int minor = in.readInt();
+			if (major < Message.PROTOCOL_OLDEST_VERSION ||
+				major > Message.PROTOCOL_MAJOR_VERSION ||
+				(major == Message.PROTOCOL_MAJOR_VERSION &&
+				 minor < Message.PROTOCOL_MINOR_VERSION))
 			{
 				out.writeInt(Message.UPDATE.ordinal());
 				startSending();
@@ -98,13 +189,29 @@ public class ServerConnection extends Connection
 		}
 		catch (IOException e)
 		{
-			//authentication error
+			//authentication error (or timeout)
+			disconnect();
 			return false;
 		}
 
+		version = major;
 		alias = sock.getInetAddress().getHostAddress()
 				+ ":" + sock.getPort();
-		startReading();
+		channel = sock.getChannel();
+		if (channel != null)
+		{
+			rbuf = ByteBuffer.allocate(READ_BUFFER);
+			try
+			{
+				channel.configureBlocking(false);
+				selector = ConnectionSelector.get();
+			}
+			catch (IOException e)
+			{
+				disconnect();
+				return false;
+			}
+		}
 		startSending();
 		try
 		{
@@ -117,13 +224,268 @@ public class ServerConnection extends Connection
 		return true;
 	}
 	
-	protected void read()
+	// Starts reading, once the handlers are registered: a packet
+	// that no handler takes would throw away the rest of the inbox.
+	void start()
 	{
-		try {
-			Thread.sleep(2000);
-		} catch (InterruptedException e) {}
-
-		super.read();
+		if (channel == null)
+			startReading();
+		else
+			selector.register(this);
+	}
+	
+	// called by the selector thread
+	void registered(Selector sel)
+	{
+		synchronized (pending)
+		{
+			try
+			{
+				key = channel.register(sel, SelectionKey.OP_READ
+					| (pending.isEmpty() ? 0 : SelectionKey.OP_WRITE), this);
+				return;
+			}
+			catch (ClosedChannelException e) {}
+		}
+		eof = true;
+		queue(EOF);
+	}
+	
+	// called by the selector thread
+	void readable()
+	{
+		try
+		{
+			if (channel.read(rbuf) < 0)
+			{
+				closed();
+				return;
+			}
+			
+			rbuf.flip();
+			int need = 0;
+			while (rbuf.hasRemaining())
+			{
+				int start = rbuf.position();
+				int len;
+				if (version >= 3)
+					len = Codec.getVarint(rbuf);
+				else if (rbuf.remaining() >= 4)
+					len = rbuf.getInt();
+				else
+					len = -1;
+				if (len < 0)
+					break;
+				if (len > MAX_PACKET)
+					throw new IOException("bad packet length " + len);
+				if (rbuf.remaining() < len)
+				{
+					need = rbuf.position() - start + len;
+					rbuf.position(start);
+					break;
+				}
+				ByteBuffer p = BufferPool.getHeap(len);
+				int limit = rbuf.limit();
+				rbuf.limit(rbuf.position() + len);
+				p.put(rbuf).flip();
+				rbuf.limit(limit);
+				queue(p);
+			}
+			rbuf.compact();
+			
+			if (need > rbuf.capacity())
+			{
+				rbuf.flip();
+				rbuf = ByteBuffer.allocate(need).put(rbuf);
+			}
+			else if (rbuf.position() == 0 && rbuf.capacity() > READ_BUFFER)
+				rbuf = ByteBuffer.allocate(READ_BUFFER);
+		}
+		catch (IOException e)
+		{
+			closed();
+		}
+	}
+	
+	// the client is gone, so there is nobody to say BYE to
+	private void closed()
+	{
+		eof = true;
+		key.cancel();
+		queue(EOF);
+	}
+	
+	private void queue(ByteBuffer p)
+	{
+		synchronized (inbox)
+		{
+			inbox.add(p);
+			if (inbox.size() >= MAX_INBOX && key != null && key.isValid())
+			{
+				// the handlers are behind, so stop reading
+				// and let TCP flow control slow the client down
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				paused = true;
+			}
+			if (dispatching)
+				return;
+			dispatching = true;
+		}
+		workers.execute(drain);
+	}
+	
+	private void drain()
+	{
+		while (true)
+		{
+			ByteBuffer p;
+			synchronized (inbox)
+			{
+				p = inbox.poll();
+				if (p == null)
+				{
+					dispatching = false;
+					return;
+				}
+				if (paused && inbox.isEmpty())
+				{
+					paused = false;
+					try
+					{
+						key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+						selector.wakeup();
+					}
+					catch (CancelledKeyException e) {}
+				}
+			}
+			
+			try
+			{
+				if (p == EOF)
+				{
+					if (clients != null)
+						bye();
+				}
+				else if (clients != null && !dispatch(p))
+				{
+					synchronized (inbox)
+					{
+						inbox.clear();
+					}
+				}
+			}
+			catch (RuntimeException e)
+			{
+				// a handler failed, so the client is dropped
+				// (the loop goes on, to clear dispatching)
+				e.printStackTrace();
+				synchronized (inbox)
+				{
+					inbox.clear();
+				}
+				if (clients != null)
+					bye();
+			}
+			BufferPool.put(p);
+		}
+	}
+	
+	protected void writePacket(ByteBuffer header, ByteBuffer body) throws IOException
+	{
+		if (channel == null)
+		{
+			super.writePacket(header, body);
+			return;
+		}
+		if (eof)
+			return;
+		
+		synchronized (pending)
+		{
+			if (pending.isEmpty())
+			{
+				// one gathering write of the header and the packet
+				gather[0] = header;
+				gather[1] = body;
+				channel.write(gather);
+				gather[0] = gather[1] = null;
+				if (!body.hasRemaining())
+					return;
+			}
+			
+			// the socket is full: copy what is left, because
+			// the buffers go back to the pool
+			int len = header.remaining() + body.remaining();
+			if (pendingBytes + len > MAX_PENDING)
+				throw new IOException("send queue full");
+			ByteBuffer b = ByteBuffer.allocate(len);
+			b.put(header).put(body).flip();
+			pending.add(b);
+			pendingBytes += len;
+			if (key != null)
+			{
+				try
+				{
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+				catch (CancelledKeyException e)
+				{
+					throw new ClosedChannelException();
+				}
+				selector.wakeup();
+			}
+		}
+	}
+	
+	// bytes queued to send, waiting for the socket
+	int backlog()
+	{
+		synchronized (pending)
+		{
+			return pendingBytes;
+		}
+	}
+	
+	// called by the selector thread
+	void writable()
+	{
+		synchronized (pending)
+		{
+			try
+			{
+				while (!pending.isEmpty())
+				{
+					ByteBuffer b = pending.peek();
+					pendingBytes -= channel.write(b);
+					if (b.hasRemaining())
+						return;
+					pending.poll();
+				}
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				return;
+			}
+			catch (IOException e)
+			{
+				pending.clear();
+				pendingBytes = 0;
+			}
+		}
+		closed();
+	}
+	
+	protected void received(int messages, int bytes)
+	{
+		ServerMetrics.received(messages, bytes);
+	}
+	
+	protected void sent(int messages, int bytes)
+	{
+		ServerMetrics.sent(messages, bytes);
+	}
+	
+	protected void handled(int type, long nanos)
+	{
+		ServerMetrics.handled(type, nanos);
 	}
 	
 	protected boolean recieve(int type, DataInputStream packet)
@@ -133,8 +495,9 @@ public class ServerConnection extends Connection
 	
 	public void bye()
 	{
-		if (!closing.tryAcquire()) return;
-		
+		// Connection.bye() takes the closing permit itself;
+		// taking it here too meant the handlers never heard
+		// about the disconnect
 		super.bye();
 		clients = null;
 	}
@@ -41,6 +41,8 @@ public class ServerController
 					Log.println("*************");
 					Log.println(getGameServer().status());
 					Log.println(getGameServer().idle());
+					Log.println(getGameServer().ai());
+					Log.println(Log.status());
 					Log.println("Port " + getGameServer().getPort());
 					if (getGameServer().isIgnoring())
 						Log.println("Ignoring new connections.");
@@ -63,6 +65,7 @@ public class ServerController
 	{
 		port = p;
 		logThread.start();
+		ServerMetrics.start(this);
 	}
 	
 	public GameServer getGameServer()
@@ -92,7 +95,9 @@ public class ServerController
 			c.startSending();
 			try
 			{
-				if (users.size() == 1)
+				if (users == null)
+					c.println("Nobody is available for a game.");
+				else if (users.size() == 1)
 					c.println(users.get(0) + " is unavailable.");
 				else
 					c.println("All users are unavailable.");
@@ -104,23 +109,37 @@ public class ServerController
 		}
 	}
 	
-	public int isIgnoring(ArrayList<String> users)
+	public void newAIGame(ServerConnection c, int level)
 	{
-		synchronized (gs)
+		gs.stopGame(c);
+		if (!gs.newAIGame(c, level))
 		{
-			if (users == null)
+			c.startSending();
+			try
 			{
-				if (gs.isIgnoring(null))
-					return -1;
-				return 0;
+				c.println("The server is too busy for a game against the AI.");
 			}
-			
-			for (int i=0;i<users.size();i++)
+			finally
 			{
-				if (!gs.isIgnoring(users.get(i)))
-					return i;
+				c.stopSending();
 			}
 		}
+	}
+	
+	public int isIgnoring(ArrayList<String> users)
+	{
+		if (users == null)
+		{
+			if (gs.isIgnoring(null))
+				return -1;
+			return 0;
+		}
+		
+		for (int i=0;i<users.size();i++)
+		{
+			if (!gs.isIgnoring(users.get(i)))
+				return i;
+		}
 		
 		return -1;
 	}
@@ -189,8 +208,8 @@ public class ServerController
 
 	public void println(String e)
 	{
+		// (print() logs it)
 		print(e+"\n");
-		Log.println(e);
 	}
 	
 	public void print(String e)
@@ -20,6 +20,8 @@ package com.cjmalloy.stratego.server;
 import com.cjmalloy.stratego.Board;
 import com.cjmalloy.stratego.Engine;
 import com.cjmalloy.stratego.Move;
+import com.cjmalloy.stratego.Piece;
+import com.cjmalloy.stratego.Rank;
 import com.cjmalloy.stratego.Settings;
 import com.cjmalloy.stratego.Spot;
 import com.cjmalloy.stratego.Status;
@@ -27,19 +29,133 @@ import com.cjmalloy.stratego.Status;
 public class ServerEngine extends Engine
 {
 	private Game game = null;
+	private Journal journal = null;
+	private boolean replaying = false;
+	private int winner = -1;
+
+	// Applies the records of a journal (see replay()).
+	// The requests are made the way they were made in the game.
+	private final Journal.Replay apply = new Journal.Replay()
+	{
+		public void move(int color, int m, int rank)
+		{
+			int from = Move.unpackFrom(m);
+			Piece p;
+			if (from == 0) // Board.IN_TRAY
+				p = new Piece(0, 0, Rank.values()[rank]);
+			else
+				p = board.getPiece(from);
+			requestMove(new Move(p, m), color);
+		}
+
+		public void play(int color)
+		{
+			ServerEngine.this.play(color);
+		}
+
+		public void resign(int color)
+		{
+			ServerEngine.this.resign(color);
+		}
+
+		public void place(int piece, int x, int y)
+		{
+			for (int i=0;i<board.getTraySize();i++)
+				if (board.getTrayPiece(i).getID() == piece)
+				{
+					ServerEngine.this.place(board.getTrayPiece(i), new Spot(x, y));
+					break;
+				}
+		}
+	};
 	
 	public ServerEngine(Game g)
 	{
 		game = g;
-		board = new Board();
+		// the board takes its colors from Settings
 		Settings.topColor = 0;
 		Settings.bottomColor = 1;
+		board = new Board();
+	}
+	
+	public Board getBoard()
+	{
+		return board;
+	}
+
+	public boolean isPlaying()
+	{
+		return status == Status.PLAYING;
+	}
+
+	public boolean isOver()
+	{
+		return status == Status.STOPPED;
+	}
+
+	public int getWinner()
+	{
+		return winner;
+	}
+
+	// the requests from now on are recorded in j
+	public void setJournal(Journal j)
+	{
+		journal = j;
+	}
+
+	Journal.Replay replayer()
+	{
+		return apply;
+	}
+
+	// Rebuilds a game from its journal, after newGame().
+	// Nothing is sent to the players meanwhile.
+	public void replay(Journal j)
+	{
+		replay(j, apply);
+	}
+
+	// r is given the records (it passes them on to replayer())
+	void replay(Journal j, Journal.Replay r)
+	{
+		replaying = true;
+		try
+		{
+			j.replay(r);
+		}
+		finally
+		{
+			replaying = false;
+		}
+	}
+
+	// a piece the AI places (see AIPlayer.aiReturnPlace())
+	public boolean place(Piece p, Spot s)
+	{
+		if (journal != null)
+			journal.place(p, s.getX(), s.getY());
+		return setupPlacePiece(p, s);
+	}
+
+	// color gives up, e.g. an AI without a move
+	public void resign(int color)
+	{
+		if (status != Status.PLAYING)
+			return;
+		if (journal != null)
+			journal.resign(color);
+		status = Status.STOPPED;
+		board.showAll();
+		gameOver((color + 1) % 2);
 	}
 	
 	public void play(int color)
 	{
 		if (status != Status.SETUP)
 			return;
+		if (journal != null)
+			journal.play(color);
 		
 		if (board.getTraySize() != 0)
 		{
@@ -78,12 +194,16 @@ public class ServerEngine extends Engine
 			
 			if (color == turn)
 			{
+				if (journal != null && isValid(m, color))
+					journal.move(color, m);
 				board.hideAll();
 				requestMove(m, false);
 			}
 		}
 		else if (status == Status.SETUP)
 		{
+			if (journal != null)
+				journal.move(color, m);
 			if (m.getFrom() == 0) // Board.IN_TRAY
 			{
 				for (int i=0;i<board.getTraySize();i++)
@@ -103,15 +223,37 @@ public class ServerEngine extends Engine
 		}
 	}
 	
+	// true if Engine.requestMove() will make move m of color,
+	// the color to move (checked before the move is journaled)
+	private boolean isValid(Move m, int color)
+	{
+		Piece tp = board.getPiece(m.getTo());
+		return m.getPiece() != null
+			&& m.getPiece().getColor() == color
+			&& (tp == null || tp.getColor() != color)
+			&& board.validMove(m.getMove());
+	}
+
 	@Override
 	protected void gameOver(int winner)
 	{
-		game.gameOver(winner);
+		this.winner = winner;
+		if (!replaying && game != null)
+			game.gameOver(winner);
 	}
 
 	@Override
 	protected void update()
 	{
-		game.update();
+		if (!replaying && game != null)
+			game.update();
+	}
+
+	// (not while replaying: that was seen in the game)
+	@Override
+	protected void showAttacker(Piece fp)
+	{
+		if (!replaying)
+			super.showAttacker(fp);
 	}
 }
@@ -0,0 +1,509 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+import com.cjmalloy.stratego.server.shared.Message;
+
+//
+// Server metrics.
+//
+// The connections count what they receive and send (see
+// Connection.received(), sent() and handled()) into LongAdders,
+// so counting doesn't make the connection threads wait for each
+// other.  The time a message takes to handle is counted in a
+// histogram for its type, with a bucket for each power of two
+// microseconds.  The numbers of users and games and the send
+// queues are taken from the game server when they are asked for.
+// Every RATE_INTERVAL, the counters are sampled for the rates
+// (per second over the last interval).
+//
+// The metrics are shown by the "m" command (summary()),
+// registered as the JMX MBean com.cjmalloy.stratego:type=ServerMetrics
+// (see ServerMetricsMXBean), and served as plain text in the
+// Prometheus format (scrape()) to whoever connects to
+// the metrics port on the loopback interface (see listen()).
+//
+public class ServerMetrics implements ServerMetricsMXBean
+{
+	static public final String PORT_PROPERTY = "stratego.metrics.port";
+	static private final long RATE_INTERVAL = 10000;	// ms
+	static private final int BUCKETS = 24;	// up to 2^23 us (8s)
+
+	static private final Message[] types = Message.values();
+	static private final ServerMetrics me = new ServerMetrics();
+
+	private volatile ServerController owner = null;
+
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder packetsIn = new LongAdder();
+	private final LongAdder packetsOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final AtomicLongArray latency = new AtomicLongArray(types.length * BUCKETS);
+	private final AtomicLongArray latencyNanos = new AtomicLongArray(types.length);
+
+	// the counters at the last sample, and the rates since
+	private final long[] last = new long[6];
+	private volatile double[] rates = new double[6];
+	static private final String[] rateNames = {
+		"messages in", "messages out", "packets in",
+		"packets out", "bytes in", "bytes out"
+	};
+
+	private Thread sampler = new Thread("metrics")
+	{
+		public void run()
+		{
+			long t = System.currentTimeMillis();
+			for (;;)
+			{
+				try
+				{
+					sleep(RATE_INTERVAL);
+				}
+				catch (InterruptedException e) {}
+				long now = System.currentTimeMillis();
+				long[] c = counters();
+				double[] r = new double[c.length];
+				for (int i=0;i<c.length;i++)
+				{
+					r[i] = (c[i] - last[i]) * 1000.0 / Math.max(1, now - t);
+					last[i] = c[i];
+				}
+				rates = r;
+				t = now;
+			}
+		}
+	};
+
+	private ServerSocket scrapes = null;
+
+	private ServerMetrics()
+	{
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	// Starts the metrics for the server of sc: registers the
+	// MBean and, if the system property stratego.metrics.port is
+	// set, listens on that port.
+	static void start(ServerController sc)
+	{
+		me.owner = sc;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(me,
+				new ObjectName("com.cjmalloy.stratego:type=ServerMetrics"));
+		}
+		catch (Exception e)
+		{
+			// JMX is optional (e.g. not permitted by a security manager)
+		}
+		Integer port = Integer.getInteger(PORT_PROPERTY);
+		if (port != null)
+			listen(port);
+	}
+
+	static public ServerMetrics get()
+	{
+		return me;
+	}
+
+	static void received(int messages, int bytes)
+	{
+		me.packetsIn.increment();
+		me.messagesIn.add(messages);
+		me.bytesIn.add(bytes);
+	}
+
+	static void sent(int messages, int bytes)
+	{
+		me.packetsOut.increment();
+		me.messagesOut.add(messages);
+		me.bytesOut.add(bytes);
+	}
+
+	static void handled(int type, long nanos)
+	{
+		if (type < 0 || type >= types.length)
+			return;
+		long us = nanos / 1000;
+		int b = Math.min(64 - Long.numberOfLeadingZeros(us), BUCKETS - 1);
+		me.latency.incrementAndGet(type * BUCKETS + b);
+		me.latencyNanos.addAndGet(type, nanos);
+	}
+
+	private long[] counters()
+	{
+		return new long[] {
+			messagesIn.sum(), messagesOut.sum(), packetsIn.sum(),
+			packetsOut.sum(), bytesIn.sum(), bytesOut.sum()
+		};
+	}
+
+	private GameServer server()
+	{
+		ServerController sc = owner;
+		return sc == null ? null : sc.getGameServer();
+	}
+
+	//
+	// Gauges
+	//
+
+	public int getUsers()
+	{
+		GameServer gs = server();
+		return gs == null ? 0 : gs.getUsers();
+	}
+
+	public int getIdlePlayers()
+	{
+		GameServer gs = server();
+		return gs == null ? 0 : gs.getIdlePlayers();
+	}
+
+	public int getGames()
+	{
+		GameServer gs = server();
+		return gs == null ? 0 : gs.getGames();
+	}
+
+	public int getAIGames()
+	{
+		GameServer gs = server();
+		return gs == null ? 0 : gs.getAIGames();
+	}
+
+	public int getSpectators()
+	{
+		GameServer gs = server();
+		return gs == null ? 0 : gs.getSpectators();
+	}
+
+	private int[] sendQueues()
+	{
+		GameServer gs = server();
+		return gs == null ? new int[0] : gs.getSendQueues();
+	}
+
+	public long getSendQueueBytes()
+	{
+		long n = 0;
+		for (int q: sendQueues())
+			n += q;
+		return n;
+	}
+
+	public int getMaxSendQueueBytes()
+	{
+		int n = 0;
+		for (int q: sendQueues())
+			n = Math.max(n, q);
+		return n;
+	}
+
+	public int getSendQueuesBacklogged()
+	{
+		int n = 0;
+		for (int q: sendQueues())
+			if (q != 0)
+				n++;
+		return n;
+	}
+
+	//
+	// Counters and rates
+	//
+
+	public long getMessagesIn() { return messagesIn.sum(); }
+	public long getMessagesOut() { return messagesOut.sum(); }
+	public long getPacketsIn() { return packetsIn.sum(); }
+	public long getPacketsOut() { return packetsOut.sum(); }
+	public long getBytesIn() { return bytesIn.sum(); }
+	public long getBytesOut() { return bytesOut.sum(); }
+	public double getMessagesInPerSecond() { return rates[0]; }
+	public double getMessagesOutPerSecond() { return rates[1]; }
+	public double getBytesInPerSecond() { return rates[4]; }
+	public double getBytesOutPerSecond() { return rates[5]; }
+
+	//
+	// Latency
+	//
+
+	// bucket b holds the times under 2^b us
+	static private long bound(int b)
+	{
+		return 1L << b;
+	}
+
+	private long count(int type)
+	{
+		long n = 0;
+		for (int b=0;b<BUCKETS;b++)
+			n += latency.get(type * BUCKETS + b);
+		return n;
+	}
+
+	// the bucket bound (us) under which fraction q of the
+	// messages of the type were handled
+	private long quantile(int type, double q)
+	{
+		long n = count(type);
+		if (n == 0)
+			return 0;
+		long seen = 0;
+		for (int b=0;b<BUCKETS;b++)
+		{
+			seen += latency.get(type * BUCKETS + b);
+			if (seen >= q * n)
+				return bound(b);
+		}
+		return bound(BUCKETS - 1);
+	}
+
+	private Map<String, Long> quantiles(double q)
+	{
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int t=0;t<types.length;t++)
+			if (count(t) != 0)
+				m.put(types[t].toString(), quantile(t, q));
+		return m;
+	}
+
+	public Map<String, Long> getHandlingMicrosP50() { return quantiles(0.5); }
+	public Map<String, Long> getHandlingMicrosP99() { return quantiles(0.99); }
+
+	public Map<String, Long> getHandlingMicrosMax()
+	{
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int t=0;t<types.length;t++)
+			for (int b=BUCKETS-1;b>=0;b--)
+				if (latency.get(t * BUCKETS + b) != 0)
+				{
+					m.put(types[t].toString(), bound(b));
+					break;
+				}
+		return m;
+	}
+
+	public synchronized void reset()
+	{
+		for (LongAdder a: new LongAdder[] { messagesIn, messagesOut,
+			packetsIn, packetsOut, bytesIn, bytesOut })
+			a.reset();
+		for (int i=0;i<latency.length();i++)
+			latency.set(i, 0);
+		for (int i=0;i<latencyNanos.length();i++)
+			latencyNanos.set(i, 0);
+		Arrays.fill(last, 0);
+	}
+
+	//
+	// Reports
+	//
+
+	// for the "m" command
+	public String summary()
+	{
+		int[] queues = sendQueues();
+		long queued = 0;
+		int max = 0, backlogged = 0;
+		for (int q: queues)
+		{
+			queued += q;
+			max = Math.max(max, q);
+			if (q != 0)
+				backlogged++;
+		}
+		double[] r = rates;
+		StringBuilder s = new StringBuilder();
+		s.append(getUsers()).append(" users, ").append(getIdlePlayers())
+			.append(" idle, ").append(getGames()).append(" games (")
+			.append(getAIGames()).append(" against the AI), ")
+			.append(getSpectators()).append(" spectators\n");
+		s.append(String.format("in:  %.1f messages/s, %.1f packets/s, %.1f KB/s (%d messages, %d KB)%n",
+			r[0], r[2], r[4] / 1024, getMessagesIn(), getBytesIn() / 1024));
+		s.append(String.format("out: %.1f messages/s, %.1f packets/s, %.1f KB/s (%d messages, %d KB)%n",
+			r[1], r[3], r[5] / 1024, getMessagesOut(), getBytesOut() / 1024));
+		s.append("send queues: ").append(queued).append(" bytes, ")
+			.append(backlogged).append(" of ").append(queues.length)
+			.append(" backlogged, longest ").append(max).append(" bytes\n");
+		s.append("handling (us):");
+		for (int t=0;t<types.length;t++)
+		{
+			long n = count(t);
+			if (n == 0)
+				continue;
+			s.append("\n  ").append(types[t]).append(": ").append(n)
+				.append(" messages, avg ").append(latencyNanos.get(t) / n / 1000)
+				.append(", p50 <").append(quantile(t, 0.5))
+				.append(", p99 <").append(quantile(t, 0.99));
+		}
+		return s.toString();
+	}
+
+	// The metrics in the Prometheus text format: counters are
+	// totals (the scraper takes the rates), the handling times
+	// are histograms in seconds.
+	public String scrape()
+	{
+		StringBuilder s = new StringBuilder();
+		gauge(s, "stratego_users", "Connected users", getUsers());
+		gauge(s, "stratego_idle_players", "Users waiting in the lobby", getIdlePlayers());
+		gauge(s, "stratego_games", "Games in progress", getGames());
+		gauge(s, "stratego_ai_games", "Games against the AI in progress", getAIGames());
+		gauge(s, "stratego_spectators", "Spectators", getSpectators());
+		gauge(s, "stratego_send_queue_bytes", "Bytes waiting to be sent", getSendQueueBytes());
+		gauge(s, "stratego_send_queue_max_bytes", "Longest send queue", getMaxSendQueueBytes());
+		gauge(s, "stratego_send_queues_backlogged", "Connections with bytes waiting to be sent",
+			getSendQueuesBacklogged());
+		counter(s, "stratego_messages_received_total", "Messages received", getMessagesIn());
+		counter(s, "stratego_messages_sent_total", "Messages sent", getMessagesOut());
+		counter(s, "stratego_packets_received_total", "Packets received", getPacketsIn());
+		counter(s, "stratego_packets_sent_total", "Packets sent", getPacketsOut());
+		counter(s, "stratego_received_bytes_total", "Packet bytes received", getBytesIn());
+		counter(s, "stratego_sent_bytes_total", "Packet bytes sent", getBytesOut());
+
+		String h = "stratego_message_handling_seconds";
+		s.append("# HELP ").append(h).append(" Time to handle a received message\n");
+		s.append("# TYPE ").append(h).append(" histogram\n");
+		for (int t=0;t<types.length;t++)
+		{
+			long n = count(t);
+			if (n == 0)
+				continue;
+			String type = "{type=\"" + types[t] + "\"";
+			long seen = 0;
+			for (int b=0;b<BUCKETS-1;b++)
+			{
+				seen += latency.get(t * BUCKETS + b);
+				s.append(h).append("_bucket").append(type).append(",le=\"")
+					.append(bound(b) / 1e6).append("\"} ").append(seen).append('\n');
+			}
+			s.append(h).append("_bucket").append(type).append(",le=\"+Inf\"} ").append(n).append('\n');
+			s.append(h).append("_sum").append(type).append("} ").append(latencyNanos.get(t) / 1e9).append('\n');
+			s.append(h).append("_count").append(type).append("} ").append(n).append('\n');
+		}
+		return s.toString();
+	}
+
+	static private void gauge(StringBuilder s, String name, String help, long v)
+	{
+		metric(s, name, help, "gauge", v);
+	}
+
+	static private void counter(StringBuilder s, String name, String help, long v)
+	{
+		metric(s, name, help, "counter", v);
+	}
+
+	static private void metric(StringBuilder s, String name, String help, String type, long v)
+	{
+		s.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		s.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		s.append(name).append(' ').append(v).append('\n');
+	}
+
+	//
+	// Scrape endpoint
+	//
+
+	// Serves scrape() on port of the loopback interface (only),
+	// as the answer to any HTTP request, so it can be read with
+	// curl or a Prometheus server on the same host.  0 stops.
+	static synchronized boolean listen(int port)
+	{
+		try
+		{
+			if (me.scrapes != null)
+				me.scrapes.close();
+		}
+		catch (IOException e) {}
+		me.scrapes = null;
+		if (port == 0)
+			return true;
+
+		final ServerSocket ss;
+		try
+		{
+			ss = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+		}
+		catch (IOException e)
+		{
+			System.err.println("metrics port " + port + ": " + e.getMessage());
+			return false;
+		}
+		me.scrapes = ss;
+		Thread t = new Thread("metrics-" + port)
+		{
+			public void run()
+			{
+				while (!ss.isClosed())
+				{
+					try (Socket s = ss.accept())
+					{
+						s.setSoTimeout(5000);
+						serve(s);
+					}
+					catch (IOException e) {}
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return true;
+	}
+
+	static private void serve(Socket s) throws IOException
+	{
+		BufferedReader in = new BufferedReader(
+			new InputStreamReader(s.getInputStream(), "ASCII"));
+		String line;
+		while ((line = in.readLine()) != null && !line.isEmpty())
+			;	// the request and its headers
+		byte[] body = me.scrape().getBytes("ASCII");
+		OutputStream out = s.getOutputStream();
+		out.write(("HTTP/1.0 200 OK\r\n"
+			+ "Content-Type: text/plain; version=0.0.4\r\n"
+			+ "Content-Length: " + body.length + "\r\n\r\n").getBytes("ASCII"));
+		out.write(body);
+		out.flush();
+	}
+
+	static synchronized int getPort()
+	{
+		return me.scrapes == null ? 0 : me.scrapes.getLocalPort();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.cjmalloy.stratego.server;
+
+import java.util.Map;
+
+//
+// JMX view of the server metrics (see ServerMetrics),
+// registered as com.cjmalloy.stratego:type=ServerMetrics.
+// The rates are per second over the last sample interval,
+// the handling times are bucket bounds in microseconds.
+//
+public interface ServerMetricsMXBean
+{
+	int getUsers();
+	int getIdlePlayers();
+	int getGames();
+	int getAIGames();
+	int getSpectators();
+	long getSendQueueBytes();
+	int getMaxSendQueueBytes();
+	int getSendQueuesBacklogged();
+	long getMessagesIn();
+	long getMessagesOut();
+	long getPacketsIn();
+	long getPacketsOut();
+	long getBytesIn();
+	long getBytesOut();
+	double getMessagesInPerSecond();
+	double getMessagesOutPerSecond();
+	double getBytesInPerSecond();
+	double getBytesOutPerSecond();
+	Map<String, Long> getHandlingMicrosP50();
+	Map<String, Long> getHandlingMicrosP99();
+	Map<String, Long> getHandlingMicrosMax();
+	void reset();
+}
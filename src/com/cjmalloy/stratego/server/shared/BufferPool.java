@@ -0,0 +1,98 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server.shared;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+//
+// Pools of packet buffers, so that sending and receiving
+// a packet does not allocate.
+//
+// Packets are sent from direct buffers, which a channel can
+// write without copying them first, and received into heap
+// buffers, which back the DataInputStream the MessageHandlers
+// read.  A buffer is borrowed for one packet and put back when
+// it has been written or dispatched.  Packets larger than SIZE
+// get a buffer of their own, which is not pooled.
+//
+public class BufferPool
+{
+	static public final int SIZE = 1 << 14;
+	static private final int MAX = 256;	// buffers kept per pool
+
+	// (a ConcurrentLinkedQueue would allocate a node per put)
+	static private final ArrayDeque<ByteBuffer> direct = new ArrayDeque<ByteBuffer>();
+	static private final ArrayDeque<ByteBuffer> heap = new ArrayDeque<ByteBuffer>();
+
+	// a buffer with room for len bytes, for sending
+	public static ByteBuffer getDirect(int len)
+	{
+		if (len > SIZE)
+			return ByteBuffer.allocateDirect(len);
+		ByteBuffer b;
+		synchronized (direct)
+		{
+			b = direct.pollLast();
+		}
+		if (b == null)
+			b = ByteBuffer.allocateDirect(SIZE);
+		return b;
+	}
+
+	// a buffer with room for len bytes, for receiving
+	public static ByteBuffer getHeap(int len)
+	{
+		if (len > SIZE)
+			return ByteBuffer.allocate(len);
+		ByteBuffer b;
+		synchronized (heap)
+		{
+			b = heap.pollLast();
+		}
+		if (b == null)
+			b = ByteBuffer.allocate(SIZE);
+		return b;
+	}
+
+	public static void put(ByteBuffer b)
+	{
+		if (b == null || b.capacity() != SIZE)
+			return;
+		b.clear();
+		ArrayDeque<ByteBuffer> pool = b.isDirect() ? direct : heap;
+		synchronized (pool)
+		{
+			if (pool.size() < MAX)
+				pool.addLast(b);
+		}
+	}
+
+	// Returns a buffer with the contents of b (up to its position)
+	// and room for len more bytes, putting b back in the pool.
+	public static ByteBuffer grow(ByteBuffer b, int len)
+	{
+		int size = Math.max(b.capacity() * 2, b.position() + len);
+		ByteBuffer g = b.isDirect() ? ByteBuffer.allocateDirect(size)
+			: ByteBuffer.allocate(size);
+		b.flip();
+		g.put(b);
+		put(b);
+		return g;
+	}
+}
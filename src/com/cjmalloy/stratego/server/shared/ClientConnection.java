@@ -21,6 +21,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 
 import javax.swing.JOptionPane;
@@ -77,6 +78,7 @@ public class ClientConnection extends Connection
 				out.flush();
 			}
 			
+			version = Message.PROTOCOL_MAJOR_VERSION;
 			startReading();
 			return true;
 		}
@@ -87,9 +89,30 @@ public class ClientConnection extends Connection
 		}
 	}
 	
+	// Tells the handlers that apply a packet at a time
+	// (see PacketHandler) that it has been read.
+	protected boolean dispatch(ByteBuffer p)
+	{
+		try
+		{
+			return super.dispatch(p);
+		}
+		finally
+		{
+			MessageHandler[] handlers;
+			synchronized (this)
+			{
+				handlers = clients.toArray(new MessageHandler[clients.size()]);
+			}
+			for (MessageHandler mh : handlers)
+				if (mh instanceof PacketHandler)
+					((PacketHandler)mh).endPacket();
+		}
+	}
+	
 	protected boolean recieve(int type, DataInputStream packet)
 	{
-		switch (Message.values()[type])
+		switch (Message.get(type))
 		{
 		case UPDATE:
 			String downloadURL = new Scanner(packet).next();
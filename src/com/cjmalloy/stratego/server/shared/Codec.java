@@ -0,0 +1,299 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server.shared;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//
+// Wire codec for protocol version 3.
+//
+// Version 2 writes every field of every message as an int,
+// and so does the rest of the code: the senders write ints
+// into the packet and the MessageHandlers read ints from it.
+// Version 3 keeps that, and packs the packet just before it
+// is written (encode()) and unpacks it as soon as it is read
+// (decode()), so only Connection knows about the difference.
+//
+// Version 3 packet: varint length, then the messages, each
+// a type byte followed by its fields:
+//	GRID	square (x*10 + y), (color + 1) << 4 | rank
+//	TRAY	varint slot, (color + 1) << 4 | rank
+//	CMD, MSG	varint length, then the characters
+//	others	each int field as a zigzag varint
+//
+// A full board update (100 GRID and 80 TRAY messages) is
+// 540 bytes instead of 3280.  A message cut short (there is no
+// more data where a field should be) is passed on as it is,
+// for the handler to fail reading it, as in version 2.
+//
+public class Codec
+{
+	// number of int fields of each Message, other than
+	// GRID, TRAY and the strings
+	static private final int[] fields = new int[Message.values().length];
+	static
+	{
+		fields[Message.SETUP.ordinal()] = 1;
+		fields[Message.MOVE.ordinal()] = 5;
+		fields[Message.GAMEOVER.ordinal()] = 1;
+	}
+
+	// room needed to encode or decode len bytes:
+	// a zigzag varint is at most 5 bytes for 4 bytes of int,
+	// and GRID grows the most when decoded, from 3 bytes to 20
+	public static int maxEncoded(int len)
+	{
+		return len + len/4 + 5;
+	}
+
+	public static int maxDecoded(int len)
+	{
+		return len * 7;
+	}
+
+	// Packs the version 2 messages between the position and
+	// limit of in (a packet without its length) into out,
+	// which must have maxEncoded() bytes of room.
+	public static void encode(ByteBuffer in, ByteBuffer out) throws IOException
+	{
+		while (in.remaining() >= 4)
+		{
+			int type = in.getInt();
+			if (type < 0 || type >= fields.length)
+				throw new IOException("bad message type " + type);
+			out.put((byte)type);
+
+			switch (Message.get(type))
+			{
+			case GRID:
+				if (in.remaining() < 16)
+					break;
+				int x = in.getInt();
+				int y = in.getInt();
+				if (x < 0 || x > 9 || y < 0 || y > 9)
+					throw new IOException("bad square " + x + "," + y);
+				out.put((byte)(x*10 + y));
+				out.put(colorRank(in.getInt(), in.getInt()));
+				break;
+			case TRAY:
+				if (in.remaining() < 12)
+					break;
+				putVarint(out, in.getInt());
+				out.put(colorRank(in.getInt(), in.getInt()));
+				break;
+			case CMD:
+			case MSG:
+				if (in.remaining() < 4)
+					break;
+				int len = in.getInt();
+				if (len < 0 || len > in.remaining())
+					throw new IOException("bad string length " + len);
+				putVarint(out, len);
+				int limit = in.limit();
+				in.limit(in.position() + len);
+				out.put(in);
+				in.limit(limit);
+				break;
+			default:
+				for (int f = 0; f < fields[type] && in.remaining() >= 4; f++)
+					putVarint(out, zigzag(in.getInt()));
+				break;
+			}
+		}
+	}
+
+	// Number of messages in a version 2 packet, between the
+	// position and limit of in (which are left as they are).
+	public static int count(ByteBuffer in)
+	{
+		int p = in.position();
+		int n = 0;
+		while (in.limit() - p >= 4)
+		{
+			int type = in.getInt(p);
+			p += 4;
+			n++;
+			if (type < 0 || type >= fields.length)
+				break;
+			switch (Message.get(type))
+			{
+			case GRID:
+				p += 16;
+				break;
+			case TRAY:
+				p += 12;
+				break;
+			case CMD:
+			case MSG:
+				if (in.limit() - p < 4 || in.getInt(p) < 0)
+					return n;
+				p += 4 + in.getInt(p);
+				break;
+			default:
+				p += 4 * fields[type];
+				break;
+			}
+		}
+		return n;
+	}
+
+	// Unpacks the version 3 messages between the position and
+	// limit of in into version 2 in out, which must have
+	// maxDecoded() bytes of room.
+	public static void decode(ByteBuffer in, ByteBuffer out) throws IOException
+	{
+		while (in.hasRemaining())
+		{
+			int type = in.get() & 0xff;
+			if (type >= fields.length)
+				throw new IOException("bad message type " + type);
+			out.putInt(type);
+
+			switch (Message.get(type))
+			{
+			case GRID:
+				if (in.remaining() < 2)
+					break;
+				int sq = in.get() & 0xff;
+				int cr = in.get() & 0xff;
+				out.putInt(sq / 10);
+				out.putInt(sq % 10);
+				out.putInt((cr >> 4) - 1);
+				out.putInt(cr & 0xf);
+				break;
+			case TRAY:
+				if (!in.hasRemaining())
+					break;
+				out.putInt(readVarint(in));
+				if (!in.hasRemaining())
+					break;
+				cr = in.get() & 0xff;
+				out.putInt((cr >> 4) - 1);
+				out.putInt(cr & 0xf);
+				break;
+			case CMD:
+			case MSG:
+				if (!in.hasRemaining())
+					break;
+				int len = readVarint(in);
+				if (len < 0 || len > in.remaining())
+					throw new IOException("bad string length " + len);
+				out.putInt(len);
+				int limit = in.limit();
+				in.limit(in.position() + len);
+				out.put(in);
+				in.limit(limit);
+				break;
+			default:
+				for (int f = 0; f < fields[type] && in.hasRemaining(); f++)
+					out.putInt(unzigzag(readVarint(in)));
+				break;
+			}
+		}
+	}
+
+	static private byte colorRank(int color, int rank) throws IOException
+	{
+		if (color < -1 || color > 14 || rank < 0 || rank > 15)
+			throw new IOException("bad color " + color + " or rank " + rank);
+		return (byte)((color + 1) << 4 | rank);
+	}
+
+	static private int zigzag(int n)
+	{
+		return (n << 1) ^ (n >> 31);
+	}
+
+	static private int unzigzag(int n)
+	{
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	// unsigned LEB128: 7 bits per byte, low bits first
+	public static void putVarint(ByteBuffer b, int n)
+	{
+		while ((n & ~0x7f) != 0)
+		{
+			b.put((byte)(n & 0x7f | 0x80));
+			n >>>= 7;
+		}
+		b.put((byte)n);
+	}
+
+	public static int varintSize(int n)
+	{
+		int size = 1;
+		while ((n & ~0x7f) != 0)
+		{
+			size++;
+			n >>>= 7;
+		}
+		return size;
+	}
+
+	// Reads a length from buffer b, or returns -1 if it
+	// does not hold all of it yet (the position is unchanged).
+	public static int getVarint(ByteBuffer b) throws IOException
+	{
+		int n = 0;
+		int p = b.position();
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (p >= b.limit())
+				return -1;
+			int c = b.get(p++);
+			n |= (c & 0x7f) << shift;
+			if (c >= 0)
+			{
+				b.position(p);
+				return n;
+			}
+		}
+		throw new IOException("bad varint");
+	}
+
+	static private int readVarint(ByteBuffer b) throws IOException
+	{
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (!b.hasRemaining())
+				throw new IOException("truncated varint");
+			int c = b.get();
+			n |= (c & 0x7f) << shift;
+			if (c >= 0)
+				return n;
+		}
+		throw new IOException("bad varint");
+	}
+
+	public static int readVarint(DataInputStream in) throws IOException
+	{
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			int c = in.readByte();
+			n |= (c & 0x7f) << shift;
+			if (c >= 0)
+				return n;
+		}
+		throw new IOException("bad varint");
+	}
+}
@@ -18,34 +18,63 @@
 package com.cjmalloy.stratego.server.shared;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
 
 
+//
+// A packet is written into a direct buffer borrowed from the
+// BufferPool between startSending() and stopSending(), and
+// written to the socket after a length header.  A server
+// connection writes the two with one gathering write on its
+// channel, without copying them (see ServerConnection);
+// a socket stream needs a byte[], so the header and the packet
+// are copied into one (see writePacket()).  A packet received
+// is read into a pooled heap buffer, which backs the
+// DataInputStream the MessageHandlers read.
+//
 public abstract class Connection
 {
 	public static final String CHAR_ENCODING = "ASCII";
 	
+	// a ByteArrayInputStream that can be pointed at another packet
+	static private class PacketInput extends ByteArrayInputStream
+	{
+		PacketInput()
+		{
+			super(new byte[0]);
+		}
+		
+		void set(byte[] b, int off, int len)
+		{
+			buf = b;
+			pos = off;
+			count = off + len;
+			mark = off;
+		}
+	}
+	
 	protected Socket sock = null;
 	protected DataInputStream in = null;
 	protected DataOutputStream out = null;
 	protected ArrayList<MessageHandler> clients = new ArrayList<MessageHandler>();
 	private Semaphore sending = new Semaphore(1);
-	private DataOutputStream buffer = null;
-	private ByteArrayOutputStream byteBuffer = null;
+	private ByteBuffer packet = null;
+	private final ByteBuffer header = ByteBuffer.allocateDirect(5);
+	private byte[] scratch = null;
+	private final PacketInput input = new PacketInput();
+	private final DataInputStream packetIn = new DataInputStream(input);
+	private MessageBatchEvent batch = null;
+	private MessageBatchEvent received = null;
 	protected Semaphore closing = new Semaphore(1);
-	
-	protected Connection()
-	{
-		byteBuffer = new ByteArrayOutputStream();
-		buffer = new DataOutputStream(byteBuffer);
-	}
+	// protocol version of the other end, set by the handshake
+	protected int version = Message.PROTOCOL_OLDEST_VERSION;
 	
 	public synchronized void register(MessageHandler mh)
 	{
@@ -57,6 +86,11 @@ public abstract class Connection
 		clients.remove(mh);
 	}
 	
+	public int getVersion()
+	{
+		return version;
+	}
+	
 	public boolean connected()
 	{
 		return sock != null;
@@ -78,39 +112,83 @@ public abstract class Connection
 	
 	protected void read()
 	{
+		ByteBuffer p = null;
 		try
 		{
-			int len = in.readInt();
-			byte[] bs = readBytes(len);
-			DataInputStream packet = new DataInputStream( new ByteArrayInputStream(bs));
-			try
+			int len = version >= 3 ? Codec.readVarint(in) : in.readInt();
+			p = BufferPool.getHeap(len);
+			in.readFully(p.array(), 0, len);
+			p.limit(len);
+			dispatch(p);
+		}
+		catch (IOException e)
+		{
+			if (clients != null)
+				bye();
+			return;
+		}
+		finally
+		{
+			BufferPool.put(p);
+		}
+	}
+	
+	// Dispatches the messages in a packet (without its length,
+	// from the position to the limit of heap buffer p)
+	// to recieve().  Returns false if the connection said BYE.
+	protected boolean dispatch(ByteBuffer p)
+	{
+		if (received == null)
+			received = new MessageBatchEvent();
+		received.begin();
+		int len = p.remaining();
+		int messages = 0;
+		ByteBuffer decoded = null;
+		try
+		{
+			if (version >= 3)
 			{
-				while (packet.available() > 0)
-				{
-					int type = packet.readInt();
-					switch (Message.values()[type])
-					{
-					case BYE:
-						bye();
-						return;
-					default:
-						if (!recieve(type, packet))
-							return;
-					}
-				}
+				decoded = BufferPool.getHeap(Codec.maxDecoded(len));
+				Codec.decode(p, decoded);
+				decoded.flip();
+				p = decoded;
 			}
-			catch (IOException e)
+			input.set(p.array(), p.arrayOffset() + p.position(), p.remaining());
+			while (packetIn.available() > 0)
 			{
-				e.printStackTrace();
-				return;
+				int type = packetIn.readInt();
+				messages++;
+				switch (Message.get(type))
+				{
+				case BYE:
+					bye();
+					return false;
+				default:
+					long t = System.nanoTime();
+					boolean handled = recieve(type, packetIn);
+					handled(type, System.nanoTime() - t);
+					if (!handled)
+						return true;
+				}
 			}
 		}
 		catch (IOException e)
 		{
-			if (clients != null)
-				bye();
-			return;
+			e.printStackTrace();
 		}
+		finally
+		{
+			BufferPool.put(decoded);
+			received(messages, len);
+			if (received.shouldCommit())
+			{
+				received.bytes = len;
+				received.peer = status();
+				received.commit();
+				received = null;
+			}
+		}
+		return true;
 	}
 	
 	// if the receiving end does not accept a message,
@@ -120,7 +198,11 @@ public abstract class Connection
 	{
 		// start packet
 		sending.acquireUninterruptibly();
-		byteBuffer.reset();
+		if (packet != null)
+			packet.clear();
+		if (batch == null)
+			batch = new MessageBatchEvent();
+		batch.begin();
 	}
 	
 	public void stopSending()
@@ -130,36 +212,122 @@ public abstract class Connection
 		{
 			System.out.println("sync error");
 		}
-		if (sock == null)
+		if (sock == null || packet == null)
 		{
+			BufferPool.put(packet);
+			packet = null;
 			sending.release();
 			return;
 		}
 		
+		ByteBuffer encoded = null;
+		boolean failed = false;
 		try
 		{
-			buffer.flush();
-			writeBytes(byteBuffer.toByteArray());
-			out.flush();
+			ByteBuffer body = packet;
+			body.flip();
+			int messages = Codec.count(body);
+			if (version >= 3)
+			{
+				encoded = BufferPool.getDirect(Codec.maxEncoded(body.remaining()));
+				Codec.encode(body, encoded);
+				encoded.flip();
+				body = encoded;
+			}
+			int len = body.remaining();
+			header.clear();
+			if (version >= 3)
+				Codec.putVarint(header, len);
+			else
+				header.putInt(len);
+			header.flip();
+			writePacket(header, body);
+			sent(messages, len);
+			if (batch.shouldCommit()) {
+				batch.sent = true;
+				batch.bytes = len;
+				batch.peer = status();
+				batch.commit();
+				batch = null;
+			}
 		}
 		catch (IOException e)
 		{
 			System.err.println("stopSending error");
-			bye();
+			failed = true;
+		}
+		finally
+		{
+			// an idle connection holds no buffer
+			BufferPool.put(encoded);
+			BufferPool.put(packet);
+			packet = null;
 		}
 		sending.release();
+		// not before the release: bye() sends BYE
+		if (failed)
+			bye();
 	}
 	
-	public synchronized void writeInt(int i)
+	// Sends a packet that is shared with other connections.
+	// It must not be called between startSending() and
+	// stopSending().
+	public void send(SharedPacket p)
 	{
+		boolean failed = false;
+		sending.acquireUninterruptibly();
 		try
 		{
-			buffer.writeInt(i);
+			if (sock == null)
+				return;
+			ByteBuffer body = p.get(version);
+			header.clear();
+			if (version >= 3)
+				Codec.putVarint(header, body.remaining());
+			else
+				header.putInt(body.remaining());
+			header.flip();
+			int len = body.remaining();
+			writePacket(header, body);
+			sent(p.messages(), len);
 		}
 		catch (IOException e)
 		{
-			bye();
+			System.err.println("send error");
+			failed = true;
 		}
+		finally
+		{
+			sending.release();
+		}
+		if (failed)
+			bye();
+	}
+	
+	// Called for every packet received and sent, with the
+	// number of messages and the bytes of the packet in the
+	// version of the connection (without its length), and for
+	// every message received, with the time recieve() took.
+	// A server counts them (see ServerMetrics).
+	protected void received(int messages, int bytes) {}
+
+	protected void sent(int messages, int bytes) {}
+
+	protected void handled(int type, long nanos) {}
+	
+	// makes room for n more bytes in the packet
+	private void room(int n)
+	{
+		if (packet == null)
+			packet = BufferPool.getDirect(n);
+		else if (packet.remaining() < n)
+			packet = BufferPool.grow(packet, n);
+	}
+	
+	public void writeInt(int i)
+	{
+		room(4);
+		packet.putInt(i);
 	}
 
 	public void println(String s)
@@ -169,71 +337,37 @@ public abstract class Connection
 	
 	public void print(String s)
 	{
-		try
-		{
-			buffer.writeInt(Message.MSG.ordinal());
-			writeString(s);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
+		writeInt(Message.MSG.ordinal());
+		writeString(s);
 	}
 	
 	public void cmd(String s)
 	{
-		try
-		{
-			buffer.writeInt(Message.CMD.ordinal());
-			writeString(s);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
+		writeInt(Message.CMD.ordinal());
+		writeString(s);
 	}
 	
 	public void writeString(String s)
 	{
-		try
-		{
-			byte[] bs = encode(s);
-			buffer.writeInt(bs.length);
-			buffer.write(bs);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
+		byte[] bs = encode(s);
+		room(4 + bs.length);
+		packet.putInt(bs.length);
+		packet.put(bs);
 	}
 	
-	private void writeBytes(byte[] bs)
+	// Writes a packet: its length header, then the packet.
+	// The socket stream is unbuffered, so the two are copied
+	// into one write, which goes out in one segment.
+	protected void writePacket(ByteBuffer header, ByteBuffer body) throws IOException
 	{
-		try
-		{
-			out.writeInt(bs.length);
-			out.write(bs);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
-	}
-	
-	private byte[] readBytes(int len)
-	{
-		byte[] bs = null;
-		try
-		{
-			bs = new byte[len];
-			for (int i=0;i<len;)
-				i += in.read(bs, i, len-i);
-		}
-		catch (IOException e)
-		{
-			bye();
-		}
-		return bs;
+		int h = header.remaining();
+		int len = h + body.remaining();
+		if (scratch == null || scratch.length < len)
+			scratch = new byte[len];
+		header.get(scratch, 0, h);
+		body.get(scratch, h, len - h);
+		out.write(scratch, 0, len);
+		out.flush();
 	}
 	
 	protected boolean sendMessage(int type, DataInputStream packet)
@@ -247,9 +381,14 @@ public abstract class Connection
 	{
 		if (!closing.tryAcquire()) return;
 		
+		// a ServerConnection drops its handlers after a bye(),
+		// which may be another thread's while this one is
+		// disconnecting
+		ArrayList<MessageHandler> handlers = clients;
 		disconnect();
-		for (MessageHandler mh : clients)
-			mh.bye();
+		if (handlers != null)
+			for (MessageHandler mh : handlers)
+				mh.bye();
 	}
 	
 	protected void disconnect()
@@ -257,9 +396,8 @@ public abstract class Connection
 		startSending();
 		try
 		{
-			buffer.writeInt(Message.BYE.ordinal());
+			writeInt(Message.BYE.ordinal());
 		}
-		catch (IOException e) {}
 		finally
 		{
 			stopSending();
@@ -31,14 +31,25 @@ public enum Message
 	CMD,
 	MSG;
 	
+	// values() returns a new copy of the array on every call
+	static private final Message[] messages = values();
+
+	public static Message get(int type)
+	{
+		return messages[type];
+	}
+
 
 	public static final char ADMIN_PREFIX = '.';
 	public static final char IDLE_PREFIX = ':';
 	public static final char GAME_PREFIX = ';';
 	public static final char IGRNORE_PREFIX = ',';
 
-	public static final int PROTOCOL_MAJOR_VERSION = 2;
+	// Version 3 packs the messages into bytes (see Codec).
+	// The server still accepts version 2 clients.
+	public static final int PROTOCOL_MAJOR_VERSION = 3;
 	public static final int PROTOCOL_MINOR_VERSION = 0;
+	public static final int PROTOCOL_OLDEST_VERSION = 2;
 	public static final String DOWNLOAD_URL = "http://java-stratego.sourceforge.net";
 	public static final String WELCOME_MSG  = "Welcome to Stratego @cs.smu.ca.\nType :h for help or :<command>.\n";
 }
@@ -0,0 +1,51 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server.shared;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//
+// Java Flight Recorder event for a packet of messages
+// sent or received by a Connection.  The duration of a sent
+// packet runs from startSending() to the end of the write.
+//
+@Name("com.cjmalloy.stratego.MessageBatch")
+@Label("Message Batch")
+@Category({"Stratego", "Network"})
+@Description("Packet of messages sent or received by a connection")
+@Enabled(false)
+@StackTrace(false)
+class MessageBatchEvent extends Event
+{
+	@Label("Sent")
+	boolean sent;
+
+	@Label("Size")
+	@DataAmount
+	int bytes;
+
+	@Label("Peer")
+	String peer;
+}
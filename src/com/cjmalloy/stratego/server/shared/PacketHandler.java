@@ -0,0 +1,29 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server.shared;
+
+//
+// A MessageHandler that is told when the messages of a packet
+// have all been read (see ClientConnection.dispatch()), so it
+// can apply them together, e.g. a board update of many GRID
+// and TRAY messages.
+//
+public interface PacketHandler extends MessageHandler
+{
+	public void endPacket();
+}
@@ -0,0 +1,109 @@
+/*
+    This file is part of Stratego.
+
+    Stratego is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Stratego is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Stratego.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.cjmalloy.stratego.server.shared;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//
+// A packet that is sent to many connections (see
+// Connection.send()).  The messages are written once, with
+// the same calls as between Connection.startSending() and
+// stopSending(), and the packet is encoded once for each
+// protocol version, the first time a connection of that
+// version needs it.  The encoded packets are read only,
+// so any number of connections can write them at once.
+//
+public class SharedPacket
+{
+	private ByteBuffer packet = ByteBuffer.allocate(256);
+	private ByteBuffer v2 = null;
+	private ByteBuffer v3 = null;
+	private int messages = 0;
+
+	private void room(int n)
+	{
+		if (packet == null)
+			throw new IllegalStateException("packet already sent");
+		if (packet.remaining() < n)
+			packet = BufferPool.grow(packet, n);
+	}
+
+	public void writeInt(int i)
+	{
+		room(4);
+		packet.putInt(i);
+	}
+
+	public void writeString(String s)
+	{
+		byte[] bs = Connection.encode(s);
+		room(4 + bs.length);
+		packet.putInt(bs.length);
+		packet.put(bs);
+	}
+
+	public void cmd(String s)
+	{
+		writeInt(Message.CMD.ordinal());
+		writeString(s);
+	}
+
+	public void print(String s)
+	{
+		writeInt(Message.MSG.ordinal());
+		writeString(s);
+	}
+
+	// the packet (without its length) in the given version
+	synchronized ByteBuffer get(int version) throws IOException
+	{
+		if (v2 == null)
+		{
+			packet.flip();
+			messages = Codec.count(packet);
+			v2 = ByteBuffer.allocateDirect(packet.remaining());
+			v2.put(packet).flip();
+			packet = null;
+		}
+		if (version < 3)
+			return v2.asReadOnlyBuffer();
+
+		if (v3 == null)
+		{
+			ByteBuffer b = ByteBuffer.allocate(Codec.maxEncoded(v2.remaining()));
+			Codec.encode(v2.duplicate(), b);
+			b.flip();
+			v3 = ByteBuffer.allocateDirect(b.remaining());
+			v3.put(b).flip();
+		}
+		return v3.asReadOnlyBuffer();
+	}
+
+	// number of messages, once the packet has been sent
+	synchronized int messages()
+	{
+		return messages;
+	}
+
+	// size of the packet in version 2
+	public synchronized int size()
+	{
+		return v2 != null ? v2.remaining() : packet.position();
+	}
+}